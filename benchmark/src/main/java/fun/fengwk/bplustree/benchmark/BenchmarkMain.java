@@ -0,0 +1,23 @@
+package fun.fengwk.bplustree.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 基准测试入口，在JMH命令行参数之外默认启用GC分析器，报告中的gc.alloc.rate.norm即为每次操作分配的字节数。
+ *
+ * @author fengwk
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        List<String> options = new ArrayList<>(Arrays.asList(args));
+        if (!options.contains("-prof")) {
+            options.add("-prof");
+            options.add("gc");
+        }
+        org.openjdk.jmh.Main.main(options.toArray(new String[0]));
+    }
+
+}
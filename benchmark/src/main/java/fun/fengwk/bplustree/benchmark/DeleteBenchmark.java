@@ -0,0 +1,77 @@
+package fun.fengwk.bplustree.benchmark;
+
+import fun.fengwk.bplustree.BPlusTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * M3.删除，每次操作从一棵满填充的树中逐个删除全部size个关键码，结果除以size即为单次删除的代价。
+ * 满填充的树在删除过程中持续下溢，借用与逐层合并（A11）都计入其中。
+ * 每次操作前通过批量构建重建B+树，重建时间不计入结果，但重建分配的内存会计入每次操作分配的字节数，可参照InsertBenchmark.bulkLoad扣除。
+ *
+ * @author fengwk
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeleteBenchmark {
+
+    @Param({"4", "16", "64"})
+    int m;
+
+    @Param({"1000", "100000", "1000000"})
+    int size;
+
+    Integer[] sequential;
+
+    Integer[] shuffled;
+
+    BPlusTree<Integer, Integer> tree;
+
+    @Setup
+    public void setup() {
+        sequential = Keys.sequential(size);
+        shuffled = Keys.shuffled(size);
+    }
+
+    @Setup(Level.Invocation)
+    public void rebuild() {
+        tree = Keys.load(sequential, m);
+    }
+
+    @Benchmark
+    public BPlusTree<Integer, Integer> deleteRandom() {
+        return drain(shuffled);
+    }
+
+    /**
+     * 按升序删除时最左侧的叶子节点反复下溢并与兄弟合并，合并又使父节点下溢，是A11逐层传播最频繁的情况。
+     */
+    @Benchmark
+    public BPlusTree<Integer, Integer> deleteSequential() {
+        return drain(sequential);
+    }
+
+    BPlusTree<Integer, Integer> drain(Integer[] keys) {
+        for (Integer key : keys) {
+            tree.delete(key);
+        }
+        return tree;
+    }
+
+}
@@ -0,0 +1,85 @@
+package fun.fengwk.bplustree.benchmark;
+
+import fun.fengwk.bplustree.BPlusTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * M2.插入，每次操作将size个关键码逐个插入一棵空树，结果除以size即为单次插入的代价。
+ * 树从空逐渐增长到size，分裂与索引更新都计入其中，节点分配计入每次操作分配的字节数。
+ *
+ * @author fengwk
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InsertBenchmark {
+
+    @Param({"4", "16", "64"})
+    int m;
+
+    @Param({"1000", "100000", "1000000"})
+    int size;
+
+    Integer[] sequential;
+
+    Integer[] shuffled;
+
+    /**
+     * 平均每个关键码重复100次。
+     */
+    Integer[] duplicates;
+
+    @Setup
+    public void setup() {
+        sequential = Keys.sequential(size);
+        shuffled = Keys.shuffled(size);
+        duplicates = Keys.duplicates(size, Math.max(1, size / 100));
+    }
+
+    @Benchmark
+    public BPlusTree<Integer, Integer> insertRandom() {
+        return fill(shuffled);
+    }
+
+    @Benchmark
+    public BPlusTree<Integer, Integer> insertSequential() {
+        return fill(sequential);
+    }
+
+    @Benchmark
+    public BPlusTree<Integer, Integer> insertDuplicateHeavy() {
+        return fill(duplicates);
+    }
+
+    /**
+     * 批量构建同样数量的关键码，作为逐个插入的下界参照。
+     */
+    @Benchmark
+    public BPlusTree<Integer, Integer> bulkLoad() {
+        return Keys.load(sequential, m);
+    }
+
+    BPlusTree<Integer, Integer> fill(Integer[] keys) {
+        BPlusTree<Integer, Integer> tree = new BPlusTree<>(m);
+        for (Integer key : keys) {
+            tree.insert(key, key);
+        }
+        return tree;
+    }
+
+}
@@ -0,0 +1,81 @@
+package fun.fengwk.bplustree.benchmark;
+
+import fun.fengwk.bplustree.BPlusTree;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 基准测试使用的关键码与B+树，关键码预先装箱，避免测量装箱开销。
+ *
+ * @author fengwk
+ */
+final class Keys {
+
+    static final long SEED = 42;
+
+    private Keys() {}
+
+    /**
+     * [0, n)的升序关键码。
+     */
+    static Integer[] sequential(int n) {
+        Integer[] keys = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = i;
+        }
+        return keys;
+    }
+
+    /**
+     * [0, n)的随机排列。
+     */
+    static Integer[] shuffled(int n) {
+        List<Integer> keys = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            keys.add(i);
+        }
+        Collections.shuffle(keys, new Random(SEED));
+        return keys.toArray(new Integer[0]);
+    }
+
+    /**
+     * n个取自[0, distinct)的随机关键码，用于测量重复关键码。
+     */
+    static Integer[] duplicates(int n, int distinct) {
+        Random random = new Random(SEED);
+        Integer[] keys = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = random.nextInt(distinct);
+        }
+        return keys;
+    }
+
+    /**
+     * 从count个随机下标处取出的keys中的关键码，长度为2的幂以便通过掩码循环访问。
+     */
+    static Integer[] sample(Integer[] keys, int count) {
+        Random random = new Random(SEED + 1);
+        Integer[] sample = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            sample[i] = keys[random.nextInt(keys.length)];
+        }
+        return sample;
+    }
+
+    /**
+     * 批量构建一棵包含升序关键码keys的m阶B+树，值与关键码相同。
+     */
+    static BPlusTree<Integer, Integer> load(Integer[] sorted, int m) {
+        List<Map.Entry<Integer, Integer>> entries = new ArrayList<>(sorted.length);
+        for (Integer key : sorted) {
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(key, key));
+        }
+        return BPlusTree.bulkLoad(entries.iterator(), m, 1);
+    }
+
+}
@@ -0,0 +1,87 @@
+package fun.fengwk.bplustree.benchmark;
+
+import fun.fengwk.bplustree.BPlusTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * M4.范围遍历，沿叶子链表扫描。
+ *
+ * @author fengwk
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScanBenchmark {
+
+    static final int PROBES = 1 << 12;
+
+    /**
+     * 短范围遍历返回的元素数量。
+     */
+    static final int RANGE = 100;
+
+    @Param({"4", "16", "64"})
+    int m;
+
+    @Param({"1000", "100000", "1000000"})
+    int size;
+
+    BPlusTree<Integer, Integer> tree;
+
+    Integer[] starts;
+
+    Integer[] ends;
+
+    int i;
+
+    @Setup
+    public void setup() {
+        Integer[] keys = Keys.sequential(size);
+        tree = Keys.load(keys, m);
+        starts = Keys.sample(keys, PROBES);
+        ends = new Integer[PROBES];
+        for (int k = 0; k < PROBES; k++) {
+            ends[k] = starts[k] + RANGE - 1;
+        }
+    }
+
+    /**
+     * 升序遍历全部元素。
+     */
+    @Benchmark
+    public void fullScan(Blackhole bh) {
+        for (Iterator<Map.Entry<Integer, Integer>> it = tree.ascending(); it.hasNext(); ) {
+            bh.consume(it.next());
+        }
+    }
+
+    /**
+     * 从随机起点升序遍历至多RANGE个元素，包含一次A6。
+     */
+    @Benchmark
+    public void rangeScan(Blackhole bh) {
+        int k = i++ & (PROBES-1);
+        for (Iterator<Map.Entry<Integer, Integer>> it = tree.range(starts[k], true, ends[k], true); it.hasNext(); ) {
+            bh.consume(it.next());
+        }
+    }
+
+}
@@ -0,0 +1,70 @@
+package fun.fengwk.bplustree.benchmark;
+
+import fun.fengwk.bplustree.BPlusTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * M1.搜索，树中存放[0, 2*size)内的偶数关键码，命中搜索偶数，未命中搜索奇数。
+ *
+ * @author fengwk
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchBenchmark {
+
+    static final int PROBES = 1 << 12;
+
+    @Param({"4", "16", "64"})
+    int m;
+
+    @Param({"1000", "100000", "1000000"})
+    int size;
+
+    BPlusTree<Integer, Integer> tree;
+
+    Integer[] hits;
+
+    Integer[] misses;
+
+    int i;
+
+    @Setup
+    public void setup() {
+        Integer[] keys = new Integer[size];
+        Integer[] odd = new Integer[size];
+        for (int k = 0; k < size; k++) {
+            keys[k] = 2 * k;
+            odd[k] = 2 * k + 1;
+        }
+        tree = Keys.load(keys, m);
+        hits = Keys.sample(keys, PROBES);
+        misses = Keys.sample(odd, PROBES);
+    }
+
+    @Benchmark
+    public Integer searchHit() {
+        return tree.search(hits[i++ & (PROBES-1)]);
+    }
+
+    @Benchmark
+    public Integer searchMiss() {
+        return tree.search(misses[i++ & (PROBES-1)]);
+    }
+
+}
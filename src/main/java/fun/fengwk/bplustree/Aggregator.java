@@ -0,0 +1,36 @@
+package fun.fengwk.bplustree;
+
+/**
+ * 值的聚合，即一个幺半群：combine满足结合律且identity是其单位元。
+ * <p>B+树在内部节点中缓存每个分支的聚合值，范围聚合只需组合O(log n)个缓存值。
+ * combine只需满足结合律而不必满足交换律，B+树总是按照关键码的升序组合。
+ *
+ * @author fengwk
+ */
+public interface Aggregator<V, A> {
+
+    /**
+     * 单位元，即空区间的聚合值。
+     *
+     * @return
+     */
+    A identity();
+
+    /**
+     * 单个值的聚合值。
+     *
+     * @param value
+     * @return
+     */
+    A of(V value);
+
+    /**
+     * 组合相邻的两个区间的聚合值，left位于right之前。
+     *
+     * @param left
+     * @param right
+     * @return
+     */
+    A combine(A left, A right);
+
+}
@@ -0,0 +1,117 @@
+package fun.fengwk.bplustree;
+
+import java.util.Comparator;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * 常用的聚合。
+ *
+ * @author fengwk
+ */
+public class Aggregators {
+
+    private Aggregators() {}
+
+    /**
+     * long求和。
+     *
+     * @param mapper
+     * @param <V>
+     * @return
+     */
+    public static <V> Aggregator<V, Long> longSum(ToLongFunction<? super V> mapper) {
+        return new Aggregator<V, Long>() {
+
+            @Override
+            public Long identity() {
+                return 0L;
+            }
+
+            @Override
+            public Long of(V value) {
+                return mapper.applyAsLong(value);
+            }
+
+            @Override
+            public Long combine(Long left, Long right) {
+                return left + right;
+            }
+
+        };
+    }
+
+    /**
+     * double求和。
+     *
+     * @param mapper
+     * @param <V>
+     * @return
+     */
+    public static <V> Aggregator<V, Double> doubleSum(ToDoubleFunction<? super V> mapper) {
+        return new Aggregator<V, Double>() {
+
+            @Override
+            public Double identity() {
+                return 0.0;
+            }
+
+            @Override
+            public Double of(V value) {
+                return mapper.applyAsDouble(value);
+            }
+
+            @Override
+            public Double combine(Double left, Double right) {
+                return left + right;
+            }
+
+        };
+    }
+
+    /**
+     * 最小值，空区间为null，相等时保留靠前的值。
+     *
+     * @param comparator
+     * @param <V>
+     * @return
+     */
+    public static <V> Aggregator<V, V> min(Comparator<? super V> comparator) {
+        return new Aggregator<V, V>() {
+
+            @Override
+            public V identity() {
+                return null;
+            }
+
+            @Override
+            public V of(V value) {
+                return value;
+            }
+
+            @Override
+            public V combine(V left, V right) {
+                if (left == null) {
+                    return right;
+                }
+                if (right == null) {
+                    return left;
+                }
+                return comparator.compare(right, left) < 0 ? right : left;
+            }
+
+        };
+    }
+
+    /**
+     * 最大值，空区间为null，相等时保留靠前的值。
+     *
+     * @param comparator
+     * @param <V>
+     * @return
+     */
+    public static <V> Aggregator<V, V> max(Comparator<? super V> comparator) {
+        return min(comparator.reversed());
+    }
+
+}
@@ -1,8 +1,30 @@
 package fun.fengwk.bplustree;
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.Spliterator;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * <h1>B+树
@@ -36,23 +58,24 @@ import java.util.Objects;
  * <h1>数据结构
  * <p>内部节点
  * <ol>
- * <li>parent：指向父节点。
- * <li>keys：关键码列表，按照升序列排列，首个关键码是哨兵关键码，因此数量上与分支相同，根据DS.1除根节点外最多包含m个，最少包含ceil(m/2)个。
- * <li>children：子节点列表，children[i]是keys[i]的右子树，即D4中描述的k和k+1关系。
+ * <li>keys：关键码数组，按照升序列排列，首个关键码是哨兵关键码，因此数量上与分支相同，根据DS.1除根节点外最多包含m个，最少包含ceil(m/2)个。
+ * <li>children：子节点数组，children[i]是keys[i]的右子树，即D4中描述的k和k+1关系。
+ * <li>size：分支数量，keys与children中仅[0, size)区间有效。
  * </ol>
  * <p>叶子节点
  * <ol>
- * <li>parent：指向父节点。
  * <li>prev：指向前一个叶子节点。
  * <li>next：指向后一个叶子节点。
- * <li>keys：关键码列表，按照升序列排列，除根节点外最多包含m-1个，最少包含ceil(m/2)-1个。
- * <li>values：值列表，keys[i]与value[i]对应。
+ * <li>keys：关键码数组，按照升序列排列，除根节点外最多包含m-1个，最少包含ceil(m/2)-1个。
+ * <li>values：值数组，keys[i]与value[i]对应。
+ * <li>size：关键码数量，keys与values中仅[0, size)区间有效。
  * </ol>
  * <p>B+树
  * <ol>
  * <li>m：阶次。
  * <li>root：根节点。
  * </ol>
+ * <p>节点不保存父节点指针，修改时通过下降路径定位父节点以及节点在父节点中的位置。
  *
  * <h1>算法
  * <p>见README.md描述。
@@ -69,23 +92,32 @@ public class BPlusTree<K extends Comparable<K>, V> {
     abstract class Node {
 
         /**
-         * 指向父节点。
+         * 关键码数组，按照升序列排列，首个关键码是哨兵关键码，因此数量上与分支相同，根据DS.1除根节点外最多包含m个，最少包含ceil(m/2)个。
          */
-        protected InternalNode parent;
+        protected K[] keys;
 
         /**
-         * 关键码列表，按照升序列排列，首个关键码是哨兵关键码，因此数量上与分支相同，根据DS.1除根节点外最多包含m个，最少包含ceil(m/2)个。
+         * 有效关键码数量，keys中仅[0, size)区间有效。
          */
-        protected LinkedList<K> keys;
+        protected int size;
+
+        /**
+         * 节点当前内容开始生效的纪元，纪元不小于该值的快照可以直接读取当前内容。
+         */
+        long epoch;
+
+        /**
+         * 被快照观察过的历史内容，按纪元从新到旧排列。
+         */
+        FrozenNode history;
 
         /**
          *
-         * @param parent
          * @param keys
          */
-        protected Node(InternalNode parent, LinkedList<K> keys) {
-            this.parent = parent;
+        protected Node(K[] keys) {
             this.keys = keys;
+            this.epoch = BPlusTree.this.epoch;
         }
 
     }
@@ -96,28 +128,46 @@ public class BPlusTree<K extends Comparable<K>, V> {
     class InternalNode extends Node {
 
         /**
-         * 子节点列表，children[i]是keys[i]的右子树，即D4中描述的k和k+1关系。
+         * 子节点数组，children[i]是keys[i]的右子树，即D4中描述的k和k+1关系。
+         */
+        Node[] children;
+
+        /**
+         * counts[i]为children[i]子树中的元素数量，未开启顺序统计时为null。
+         */
+        int[] counts;
+
+        /**
+         * aggregates[i]为children[i]子树中所有值的聚合，未设置聚合时为null。
          */
-        LinkedList<Node> children;
+        Object[] aggregates;
+
+        /**
+         * 待下推到子树中的消息，未开启写缓冲时为null。
+         */
+        Buffer buffer;
 
         /**
          * 构造一个内部节点。
          *
-         * @param parent
          * @param keys
          * @param children
+         * @param counts
+         * @param aggregates
          */
-        InternalNode(InternalNode parent, LinkedList<K> keys, LinkedList<Node> children) {
-            super(parent, keys);
+        InternalNode(K[] keys, Node[] children, int[] counts, Object[] aggregates) {
+            super(keys);
             this.children = children;
+            this.counts = counts;
+            this.aggregates = aggregates;
         }
 
         @Override
         public String toString() {
             StringBuilder builder = new StringBuilder();
             builder.append('{');
-            for (int i = 0; i < keys.size(); i++) {
-                K k = keys.get(i);
+            for (int i = 0; i < size; i++) {
+                K k = keys[i];
                 builder.append(k == null ? '#' : k).append(',');
             }
             return (builder.length() > 1 ? builder.substring(0, builder.length()-1) : builder.toString()) + '}';
@@ -141,21 +191,20 @@ public class BPlusTree<K extends Comparable<K>, V> {
         LeafNode next;
 
         /**
-         * 值列表，keys[i]与value[i]对应。
+         * 值数组，keys[i]与value[i]对应。
          */
-        LinkedList<V> values;
+        V[] values;
 
         /**
          * 构造一个叶子节点。
          *
-         * @param parent
          * @param prev
          * @param next
          * @param keys
          * @param values
          */
-        LeafNode(InternalNode parent, LeafNode prev, LeafNode next, LinkedList<K> keys, LinkedList<V> values) {
-            super(parent, keys);
+        LeafNode(LeafNode prev, LeafNode next, K[] keys, V[] values) {
+            super(keys);
             this.prev = prev;
             this.next = next;
             this.values = values;
@@ -165,664 +214,4155 @@ public class BPlusTree<K extends Comparable<K>, V> {
         public String toString() {
             StringBuilder builder = new StringBuilder();
             builder.append('{');
-            for (int i = 0; i < keys.size(); i++) {
-                builder.append(keys.get(i)).append('=').append(values.get(i)).append(',');
+            for (int i = 0; i < size; i++) {
+                builder.append(keys[i]).append('=').append(values[i] == TOMBSTONE ? "#" : values[i]).append(',');
             }
             return (builder.length() > 1 ? builder.substring(0, builder.length()-1) : builder.toString()) + '}';
         }
 
     }
 
+    /**
+     * 节点内容的冻结副本，创建后不再修改。
+     */
+    class FrozenNode {
+
+        final K[] keys;
+
+        /**
+         * 内部节点的分支，叶子节点为null。
+         */
+        final Node[] children;
+
+        /**
+         * 叶子节点的值，内部节点为null。
+         */
+        final V[] values;
+
+        final int size;
+
+        /**
+         * 该内容开始生效的纪元。
+         */
+        final long epoch;
+
+        /**
+         * 更旧的历史内容。
+         */
+        FrozenNode older;
+
+        @SuppressWarnings("unchecked")
+        FrozenNode(Node node) {
+            this.keys = Arrays.copyOf(node.keys, node.size);
+            if (node instanceof BPlusTree.InternalNode) {
+                this.children = Arrays.copyOf(((InternalNode) node).children, node.size);
+                this.values = null;
+            } else {
+                this.children = null;
+                this.values = Arrays.copyOf(((LeafNode) node).values, node.size);
+            }
+            this.size = node.size;
+            this.epoch = node.epoch;
+        }
+
+        boolean isLeaf() {
+            return children == null;
+        }
+
+    }
+
+    /**
+     * 从根节点到叶子节点的下降路径。
+     * <p>nodes[i]为第i层的内部节点，slots[i]为路径在其中经过的分支下标，根节点位于第0层，叶子节点位于第depth层。
+     * 第l层节点的父节点即为nodes[l-1]，其在父节点中的位置即为slots[l-1]，因此修改时定位父节点只需O(1)。
+     */
+    class Path {
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        InternalNode[] nodes = (InternalNode[]) new BPlusTree.InternalNode[8];
+
+        int[] slots = new int[8];
+
+        /**
+         * 路径上内部节点的数量。
+         */
+        int depth;
+
+        void push(InternalNode node, int slot) {
+            if (depth == nodes.length) {
+                nodes = Arrays.copyOf(nodes, depth << 1);
+                slots = Arrays.copyOf(slots, depth << 1);
+            }
+            nodes[depth] = node;
+            slots[depth] = slot;
+            depth++;
+        }
+
+        /**
+         * 第level层节点的父节点，根节点返回null。
+         */
+        InternalNode parent(int level) {
+            return level > 0 ? nodes[level-1] : null;
+        }
+
+        /**
+         * 第level层节点在父节点中的位置。
+         */
+        int slot(int level) {
+            return slots[level-1];
+        }
+
+        /**
+         * 移动到下一个叶子节点的路径，调用方需保证下一个叶子节点存在。
+         */
+        @SuppressWarnings("unchecked")
+        void advance() {
+            int l = depth-1;
+            while (slots[l]+1 >= nodes[l].size) {
+                l--;
+            }
+            slots[l]++;
+            for (l++; l < depth; l++) {
+                nodes[l] = (InternalNode) nodes[l-1].children[slots[l-1]];
+                slots[l] = 0;
+            }
+        }
+
+        void copyFrom(Path path) {
+            if (nodes.length < path.depth) {
+                nodes = Arrays.copyOf(nodes, path.nodes.length);
+                slots = Arrays.copyOf(slots, path.slots.length);
+            }
+            System.arraycopy(path.nodes, 0, nodes, 0, path.depth);
+            System.arraycopy(path.slots, 0, slots, 0, path.depth);
+            depth = path.depth;
+        }
+
+    }
+
+    /**
+     * 写缓冲区，按关键码升序存放待处理的消息，关键码相同的消息按从旧到新的顺序排列。
+     * <p>values[i]不为null时表示插入，为null时表示删除，由于B+树不支持存放空的值，二者不会混淆。
+     */
+    class Buffer {
+
+        K[] keys = newKeys(8);
+
+        V[] values = newValues(8);
+
+        int size;
+
+        /**
+         * 返回首个关键码不小于key的消息下标。
+         */
+        int lowerBound(K key) {
+            int lo = 0, hi = size;
+            while (lo < hi) {
+                int mi = (lo + hi) >>> 1;
+                if (keys[mi].compareTo(key) < 0) {
+                    lo = mi + 1;
+                } else {
+                    hi = mi;
+                }
+            }
+            return lo;
+        }
+
+        /**
+         * 返回首个关键码大于key的消息下标。
+         */
+        int upperBound(K key) {
+            int lo = 0, hi = size;
+            while (lo < hi) {
+                int mi = (lo + hi) >>> 1;
+                if (keys[mi].compareTo(key) <= 0) {
+                    lo = mi + 1;
+                } else {
+                    hi = mi;
+                }
+            }
+            return lo;
+        }
+
+        /**
+         * 添加一条比所有相同关键码的消息都新的消息。
+         */
+        void add(K key, V value) {
+            int i = upperBound(key);
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size << 1);
+                values = Arrays.copyOf(values, size << 1);
+            }
+            System.arraycopy(keys, i, keys, i+1, size-i);
+            System.arraycopy(values, i, values, i+1, size-i);
+            keys[i] = key;
+            values[i] = value;
+            size++;
+        }
+
+        /**
+         * 将src中[from, to)区间的消息归并进来。
+         *
+         * @param src
+         * @param from
+         * @param to
+         * @param older 这些消息是否比当前缓冲区中相同关键码的消息更旧。
+         */
+        void merge(Buffer src, int from, int to, boolean older) {
+            int n = size + to - from;
+            K[] mergedKeys = newKeys(Math.max(n, 8));
+            V[] mergedValues = newValues(mergedKeys.length);
+            int i = 0, j = from;
+            for (int k = 0; k < n; k++) {
+                boolean takeSrc;
+                if (i == size) {
+                    takeSrc = true;
+                } else if (j == to) {
+                    takeSrc = false;
+                } else {
+                    int c = src.keys[j].compareTo(keys[i]);
+                    takeSrc = c < 0 || c == 0 && older;
+                }
+                if (takeSrc) {
+                    mergedKeys[k] = src.keys[j];
+                    mergedValues[k] = src.values[j++];
+                } else {
+                    mergedKeys[k] = keys[i];
+                    mergedValues[k] = values[i++];
+                }
+            }
+            keys = mergedKeys;
+            values = mergedValues;
+            size = n;
+        }
+
+        /**
+         * 移除[from, to)区间的消息。
+         */
+        void remove(int from, int to) {
+            System.arraycopy(keys, to, keys, from, size-to);
+            System.arraycopy(values, to, values, from, size-to);
+            int newSize = size-(to-from);
+            Arrays.fill(keys, newSize, size, null);
+            Arrays.fill(values, newSize, size, null);
+            size = newSize;
+        }
+
+    }
+
     /* B+树属性 */
 
+    /**
+     * {@link #writeTo(WritableByteChannel, Codec, Codec)}写出数据的魔数。
+     */
+    static final int MAGIC = 0x42505453;
+
+    /**
+     * 依次为魔数、阶次、标志位、关键码宽度、值宽度与元素数量。
+     */
+    static final int HEADER = 28;
+
+    /**
+     * 标志位，写出时开启了顺序统计。
+     */
+    static final int FLAG_ORDER_STATISTICS = 1;
+
+    /**
+     * 保存与恢复时的缓冲区大小。
+     */
+    static final int IO_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 延迟删除时占据被删除值位置的墓碑，墓碑所在的元素对读取不可见，但仍参与路由与结构调整。
+     */
+    static final Object TOMBSTONE = new Object();
+
     /**
      * 阶次。
      */
     final int m;
 
+    /**
+     * 是否在内部节点中维护子树元素数量以支持顺序统计。
+     */
+    final boolean orderStatistics;
+
     /**
      * 根节点。
      */
     Node root;
 
-    /* 辅助算法 */
+    /**
+     * 当前纪元，每创建一个快照递增一次，快照的纪元即为创建时的纪元。
+     */
+    long epoch;
 
     /**
-     * 构造一棵m阶B+树。
-     *
-     * @param m
+     * 未释放快照的纪元。
      */
-    public BPlusTree(int m) {
-        this.m = m;
-    }
+    final TreeSet<Long> snapshots = new TreeSet<>();
 
     /**
-     * A1.判断根节点。
-     *
-     * @return
+     * 未释放快照的数量，为0时修改节点无需保留历史内容。
      */
-    boolean isRoot(Node node) {
-        return node.parent == null;
-    }
+    volatile int liveSnapshots;
 
     /**
-     * A2.判断上溢。
-     *
-     * @return
+     * 操作监听器，为null时不产生任何监听开销。
      */
-    @SuppressWarnings("unchecked")
-    boolean isOverflow(Node node) {
-        return node instanceof BPlusTree.InternalNode ? isOverflow((InternalNode) node) : isOverflow((LeafNode) node);
-    }
+    TreeListener listener;
 
-    boolean isOverflow(InternalNode node) {
-        return node.children.size() > m;
-    }
+    /**
+     * 值的聚合，为null时内部节点不缓存聚合值。
+     */
+    Aggregator<? super V, Object> aggregator;
 
-    boolean isOverflow(LeafNode node) {
-        return node.keys.size() > m-1;
-    }
+    /**
+     * 写缓冲区容量，为0时不开启写缓冲。
+     */
+    int bufferCapacity;
 
     /**
-     * A3.判断下溢。
-     *
-     * @param node
-     * @return
+     * 所有写缓冲区中待处理消息的数量。
      */
-    @SuppressWarnings("unchecked")
-    boolean isUnderflow(Node node) {
-        return node instanceof BPlusTree.InternalNode ? isUnderflow((InternalNode) node) : isUnderflow((LeafNode) node);
-    }
+    int buffered;
 
-    boolean isUnderflow(InternalNode node) {
-        return isRoot(node) ? node.children.size() < 2 : node.children.size() < (m+1)/2;
-    }
+    /**
+     * 根节点退化为叶子节点时，原根节点中尚未下推的消息，由正在进行的下推继续作用于叶子节点。
+     */
+    Buffer orphans;
 
-    boolean isUnderflow(LeafNode node) {
-        return isRoot(node) ? node.keys.size() < 1 : node.keys.size() < (m+1)/2-1;
-    }
+    /**
+     * 是否开启延迟删除。
+     */
+    boolean lazyDeletion;
 
     /**
-     * A4.key所在子树。
+     * 叶子节点中墓碑的数量。
+     */
+    int tombstones;
+
+    /**
+     * 最右侧叶子节点的缓存，顺序插入时直接追加到该叶子节点而无需从根节点下降。
+     * <p>只作为提示使用：被合并掉的叶子节点与被清空的根节点都已为空，分裂后原叶子节点的next不为空，因此next为null且非空的缓存一定是最右侧叶子节点，否则重新获取。
+     */
+    LeafNode tail;
+
+    /**
+     * 追加引起的上溢是否偏右分裂。
+     */
+    boolean rightBiasedSplit;
+
+    /**
+     * 当前的上溢由追加到最右侧叶子节点引起且开启了偏右分裂，分裂时使左侧节点保持满载。
+     */
+    boolean appending;
+
+    /**
+     * 修改操作复用的下降路径，修改操作不会并发执行。
+     */
+    final Path path = new Path();
+
+    /**
+     * 删除叶子节点最后一个关键码时，用于更新后一个叶子节点索引的路径。
+     */
+    final Path nextPath = new Path();
+
+    /* 节点存储 */
+
+    /**
+     * 构造一个内部节点，数组容量为m+1，可容纳上溢时的分支。
      *
-     * @param node
-     * @param key
      * @return
      */
-    Node locateChildByKey(InternalNode node, K key) {
-        int r = 0;// 从索引0处开始查找的隐含意义是如果keys[0]就大于key，那么就向children[0]深入，因为这是全树的最左侧。
-        int i = 0;
-        for (K k : node.keys) {
-            if (k != null) {
-                if (k.compareTo(key) > 0) {
-                    break;
-                }
-                // else k <= key，由于相等的key会以null表示，这里使用<=是安全的。
-                r = i;
-            }
-            i++;
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    InternalNode newInternalNode() {
+        InternalNode node = new InternalNode(newKeys(m+1), (Node[]) new BPlusTree.Node[m+1],
+                orderStatistics ? new int[m+1] : null, aggregator != null ? new Object[m+1] : null);
+        if (bufferCapacity > 0) {
+            node.buffer = new Buffer();
         }
-        return node.children.get(r);
+        return node;
     }
 
     /**
-     * A5.key所在叶子。
+     * 构造一个叶子节点，数组容量为m，可容纳上溢时的关键码。
      *
-     * @param node
-     * @param key
+     * @param prev
+     * @param next
      * @return
      */
-    LeafNode locateLeafByKey(LeafNode node, K key) {
-        while (key.compareTo(node.keys.getLast()) > 0 && node.next != null) {
-            node = node.next;
-        }
-        return node;
+    LeafNode newLeafNode(LeafNode prev, LeafNode next) {
+        return new LeafNode(prev, next, newKeys(m), newValues(m));
     }
 
     /**
-     * A6.搜索叶子节点。
+     * 创建容量为n的关键码数组，泛型数组只能以Comparable数组代替，所有关键码数组都经由此处创建。
      *
-     * @param node
-     * @param key
+     * @param n
      * @return
      */
-    @SuppressWarnings("unchecked")
-    LeafNode searchLeaf(Node node, K key) {
-        while (node instanceof BPlusTree.InternalNode) {
-            node = locateChildByKey((InternalNode) node, key);
-        }
-        return locateLeafByKey((LeafNode) node, key);
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    K[] newKeys(int n) {
+        return (K[]) new Comparable[n];
     }
 
     /**
-     * A7.在keys中查找key。
-     * 查找keys中查找小于key秩最大的元素的下标。
+     * 创建容量为n的值数组。
      *
-     * @param keys
-     * @param key
+     * @param n
      * @return
      */
-    int littleLess(LinkedList<K> keys, K key) {
-        int r = -1;
-        Iterator<K> iter = keys.iterator();
-        while (iter.hasNext() && iter.next().compareTo(key) < 0) {
-            r++;
-        }
-        return r;
+    @SuppressWarnings("unchecked")
+    V[] newValues(int n) {
+        return (V[]) new Object[n];
     }
 
     /**
-     * A8.内部节点索引更新
+     * 写时复制，在修改节点的关键码、分支、值或数量之前调用。
+     * <p>若存在纪元不小于node.epoch的快照，这些快照读取的是节点的当前内容，因此先将当前内容冻结到历史中，此后节点可以原地修改。
+     * 每个节点在每个纪元中最多冻结一次，没有未释放的快照时只需一次纪元比较。
+     * prev与next只供当前树使用，快照从不读取，因此修改它们无需调用该方法。
      *
      * @param node
-     * @return true-进行了更新，false-未进行更新。
      */
-    boolean updateIndexKey(InternalNode node) {
-        if (isRoot(node)) {
-            return false;
+    void preserve(Node node) {
+        if (node.epoch == epoch) {
+            return;
+        }
+        if (liveSnapshots == 0) {
+            node.history = null;
+            node.epoch = epoch;
+            return;
         }
 
-        int indexInParent;
-        K nextKeyInParent;
-        if (shouldUpdate(keyInParent(node, indexInParent = indexInParent(node)), nextKeyInParent = getIndexKey(node))) {
-            node.parent.keys.set(indexInParent, nextKeyInParent);
-            return true;
+        long oldest, newest;
+        synchronized (snapshots) {
+            if (snapshots.isEmpty()) {
+                oldest = newest = epoch;
+            } else {
+                oldest = snapshots.first();
+                newest = snapshots.last();
+            }
+        }
+        synchronized (node) {
+            // 丢弃所有未释放快照都不会再读取的历史内容。
+            if (node.epoch <= oldest) {
+                node.history = null;
+            } else {
+                for (FrozenNode h = node.history; h != null; h = h.older) {
+                    if (h.epoch <= oldest) {
+                        h.older = null;
+                        break;
+                    }
+                }
+            }
+            if (newest >= node.epoch) {
+                FrozenNode frozen = new FrozenNode(node);
+                frozen.older = node.history;
+                node.history = frozen;
+            }
+            node.epoch = epoch;
         }
-        return false;
     }
 
     /**
-     * 不断地向上更新内部节点的索引，直到没有更新变化为止。
+     * 读取节点在纪元at时的内容，返回的内容不会再被修改。
      *
      * @param node
+     * @param at
+     * @return
      */
-    void propagateUpdateIndexKey(InternalNode node) {
-        while (updateIndexKey(node)) {
-            node = node.parent;
+    FrozenNode frozenAt(Node node, long at) {
+        synchronized (node) {
+            if (node.epoch <= at) {
+                return new FrozenNode(node);
+            }
+            FrozenNode h = node.history;
+            while (h.epoch > at) {
+                h = h.older;
+            }
+            return h;
         }
     }
 
     /**
-     * A9.叶子节点索引更新。
+     * 确保节点数组至少能够容纳capacity个元素，逐个插入与合并不会超出构造时的容量，只有批量操作才会扩容。
      *
      * @param node
-     * @return true-进行了更新，false-未进行更新。
+     * @param capacity
      */
-    boolean updateIndexKey(LeafNode node) {
-        if (isRoot(node)) {
-            return false;
-        }
-
-        K nextKeyInParent = getIndexKey(node);
-        int indexInParent = indexInParent(node);
-        K keyInParent = keyInParent(node, indexInParent);
-
-        boolean shouldUpdate = shouldUpdate(keyInParent, nextKeyInParent);
-        if (shouldUpdate) {
-            node.parent.keys.set(indexInParent, nextKeyInParent);
+    void ensureCapacity(InternalNode node, int capacity) {
+        if (capacity > node.keys.length) {
+            int newCapacity = Math.max(capacity, node.keys.length << 1);
+            node.keys = Arrays.copyOf(node.keys, newCapacity);
+            node.children = Arrays.copyOf(node.children, newCapacity);
+            if (node.counts != null) {
+                node.counts = Arrays.copyOf(node.counts, newCapacity);
+            }
+            if (node.aggregates != null) {
+                node.aggregates = Arrays.copyOf(node.aggregates, newCapacity);
+            }
         }
-        return shouldUpdate;
     }
 
-    @SuppressWarnings("unchecked")
-    boolean updateIndexKey(Node node) {
-        return node instanceof BPlusTree.InternalNode ? updateIndexKey((InternalNode) node) : updateIndexKey((LeafNode) node);
+    void ensureCapacity(LeafNode node, int capacity) {
+        if (capacity > node.keys.length) {
+            int newCapacity = Math.max(capacity, node.keys.length << 1);
+            node.keys = Arrays.copyOf(node.keys, newCapacity);
+            node.values = Arrays.copyOf(node.values, newCapacity);
+        }
     }
 
     /**
-     * 获取输入内部节点应对应的索引值。
+     * 节点数组因批量插入扩容后，在分裂时收缩回构造时的容量。
      *
      * @param node
-     * @return
      */
-    K getIndexKey(InternalNode node) {
-        return findFirstNotNull(node.keys);
+    void trimCapacity(InternalNode node) {
+        int capacity = Math.max(m+1, node.size);
+        if (node.keys.length > capacity) {
+            node.keys = Arrays.copyOf(node.keys, capacity);
+            node.children = Arrays.copyOf(node.children, capacity);
+            if (node.counts != null) {
+                node.counts = Arrays.copyOf(node.counts, capacity);
+            }
+            if (node.aggregates != null) {
+                node.aggregates = Arrays.copyOf(node.aggregates, capacity);
+            }
+        }
+    }
+
+    void trimCapacity(LeafNode node) {
+        int capacity = Math.max(m, node.size);
+        if (node.keys.length > capacity) {
+            node.keys = Arrays.copyOf(node.keys, capacity);
+            node.values = Arrays.copyOf(node.values, capacity);
+        }
     }
 
     /**
-     * 获取输入叶子节点应对应的索引值。
+     * 在内部节点的i位置插入关键码与分支。
      *
      * @param node
-     * @return
+     * @param i
+     * @param key
+     * @param child
      */
-    K getIndexKey(LeafNode node) {
-        // 空节点的索引为空。
-        if (node.keys.isEmpty()) {
-            return null;
+    void insertAt(InternalNode node, int i, K key, Node child) {
+        preserve(node);
+        ensureCapacity(node, node.size+1);
+        System.arraycopy(node.keys, i, node.keys, i+1, node.size-i);
+        System.arraycopy(node.children, i, node.children, i+1, node.size-i);
+        node.keys[i] = key;
+        node.children[i] = child;
+        if (node.counts != null) {
+            System.arraycopy(node.counts, i, node.counts, i+1, node.size-i);
+            node.counts[i] = total(child);
         }
-
-        // 如果前一个叶子节点不存在或者前一个叶子节点最后部分与当前叶子节点的第一个关键码不同则直接返回当前叶子节点的首个关键码即可。
-        K firstKey = node.keys.getFirst();
-        if (node.prev == null || node.prev.keys.isEmpty() || node.prev.keys.getLast().compareTo(firstKey) < 0) {
-            return firstKey;
+        if (node.aggregates != null) {
+            System.arraycopy(node.aggregates, i, node.aggregates, i+1, node.size-i);
+            node.aggregates[i] = aggregateOf(child);
         }
-
-        // 查找首个大于firstKey的关键码，不存在则索引为空。
-        return findFirstGt(node.keys, firstKey);
-    }
-
-    @SuppressWarnings("unchecked")
-    K getIndexKey(Node node) {
-        return node instanceof BPlusTree.InternalNode ? getIndexKey((InternalNode) node) : getIndexKey((LeafNode) node);
-    }
-
-    int indexInParent(Node node) {
-        return node.parent.children.indexOf(node);
+        node.size++;
     }
 
-    K keyInParent(Node node, int indexInParent) {
-        return node.parent.keys.get(indexInParent);
-    }
-
-    K findFirstNotNull(LinkedList<K> keys) {
-        for (K k : keys) {
-            if (k != null) {
-                return k;
-            }
-        }
-        return null;
+    void insertAt(LeafNode node, int i, K key, V value) {
+        preserve(node);
+        ensureCapacity(node, node.size+1);
+        System.arraycopy(node.keys, i, node.keys, i+1, node.size-i);
+        System.arraycopy(node.values, i, node.values, i+1, node.size-i);
+        node.keys[i] = key;
+        node.values[i] = value;
+        node.size++;
     }
 
     /**
-     * 查找首个大于lo的关键码，不存在则返回null。
+     * 移除内部节点i位置的关键码与分支，并返回被移除的分支。
      *
-     * @param keys
-     * @param lo
+     * @param node
+     * @param i
      * @return
      */
-    K findFirstGt(LinkedList<K> keys, K lo) {
-        for (K k : keys) {
-            if (k != null && k.compareTo(lo) > 0) {
-                return k;
-            }
+    Node removeAt(InternalNode node, int i) {
+        preserve(node);
+        Node removed = node.children[i];
+        int moved = node.size-i-1;
+        System.arraycopy(node.keys, i+1, node.keys, i, moved);
+        System.arraycopy(node.children, i+1, node.children, i, moved);
+        if (node.counts != null) {
+            System.arraycopy(node.counts, i+1, node.counts, i, moved);
         }
-        return null;
+        if (node.aggregates != null) {
+            System.arraycopy(node.aggregates, i+1, node.aggregates, i, moved);
+        }
+        node.size--;
+        // 断开引用以便GC回收。
+        node.keys[node.size] = null;
+        node.children[node.size] = null;
+        if (node.aggregates != null) {
+            node.aggregates[node.size] = null;
+        }
+        return removed;
     }
 
-    boolean shouldUpdate(K prevKey, K nextKey) {
-        /*
-         * 需要更新的几种情况：
-         * 1. prevKey != null && nextKey == null
-         * 2. prevKey == null && nextKey != null
-         * 3. prevKey != null && nextKey != null && prevKey != nextKey
-         */
-        return prevKey != nextKey || (prevKey != null && prevKey.compareTo(nextKey) != 0);
+    V removeAt(LeafNode node, int i) {
+        preserve(node);
+        V removed = node.values[i];
+        int moved = node.size-i-1;
+        System.arraycopy(node.keys, i+1, node.keys, i, moved);
+        System.arraycopy(node.values, i+1, node.values, i, moved);
+        node.size--;
+        node.keys[node.size] = null;
+        node.values[node.size] = null;
+        return removed;
     }
 
     /**
-     * 分裂。
+     * 移除叶子节点中[from, to)区间的关键码与值。
      *
      * @param node
-     * @return
+     * @param from
+     * @param to
      */
-    @SuppressWarnings("unchecked")
-    Node split(Node node) {
-        return node instanceof BPlusTree.InternalNode ? split((InternalNode) node) : split((LeafNode) node);
+    void removeRange(LeafNode node, int from, int to) {
+        preserve(node);
+        int moved = node.size-to;
+        System.arraycopy(node.keys, to, node.keys, from, moved);
+        System.arraycopy(node.values, to, node.values, from, moved);
+        int newSize = node.size-(to-from);
+        Arrays.fill(node.keys, newSize, node.size, null);
+        Arrays.fill(node.values, newSize, node.size, null);
+        node.size = newSize;
     }
 
-    InternalNode split(InternalNode node) {
-        LinkedList<K> keys = node.keys;
-        LinkedList<Node> children = node.children;
-
-        /*
-         * 因为上溢发生，所以此时children.size()为m+1。
-         * 将区间分裂为左侧[0...mi)和右侧[mi...m+1)，左右区间关键码数量分别为mi和m+1-mi。
-         * mi取children.size()/2，即为ceil(m/2)，可得左右区间关键码数量分别为ceil(m/2)和floor(m/2)+1，不会继而发生下溢。
-         */
-        int mi = children.size() / 2;
-
-        LinkedList<K> rightKeys = new LinkedList<>(keys.subList(mi, keys.size()));
-        LinkedList<Node> rightChildren = new LinkedList<>(children.subList(mi, children.size()));
-        InternalNode rightNode = new InternalNode(node.parent, rightKeys, rightChildren);
-        for (Node rightNodeChild : rightChildren) {
-            rightNodeChild.parent = rightNode;
+    /**
+     * 将src中[from, src.size)区间的关键码与分支追加到dst的末尾，并截断src。
+     *
+     * @param src
+     * @param from
+     * @param dst
+     */
+    void moveTail(InternalNode src, int from, InternalNode dst) {
+        preserve(src);
+        preserve(dst);
+        int moved = src.size-from;
+        ensureCapacity(dst, dst.size+moved);
+        System.arraycopy(src.keys, from, dst.keys, dst.size, moved);
+        System.arraycopy(src.children, from, dst.children, dst.size, moved);
+        if (dst.counts != null) {
+            System.arraycopy(src.counts, from, dst.counts, dst.size, moved);
+        }
+        if (dst.aggregates != null) {
+            System.arraycopy(src.aggregates, from, dst.aggregates, dst.size, moved);
+            Arrays.fill(src.aggregates, from, src.size, null);
         }
+        dst.size += moved;
+        Arrays.fill(src.keys, from, src.size, null);
+        Arrays.fill(src.children, from, src.size, null);
+        src.size = from;
+    }
 
-        keys.subList(mi, keys.size()).clear();
-        children.subList(mi, children.size()).clear();
+    void moveTail(LeafNode src, int from, LeafNode dst) {
+        preserve(src);
+        preserve(dst);
+        int moved = src.size-from;
+        ensureCapacity(dst, dst.size+moved);
+        System.arraycopy(src.keys, from, dst.keys, dst.size, moved);
+        System.arraycopy(src.values, from, dst.values, dst.size, moved);
+        dst.size += moved;
+        Arrays.fill(src.keys, from, src.size, null);
+        Arrays.fill(src.values, from, src.size, null);
+        src.size = from;
+    }
 
-        return rightNode;
+    /**
+     * 将src末尾count个关键码与分支移动到dst的头部。
+     *
+     * @param src
+     * @param count
+     * @param dst
+     */
+    void moveTailToHead(InternalNode src, int count, InternalNode dst) {
+        preserve(src);
+        preserve(dst);
+        ensureCapacity(dst, dst.size+count);
+        System.arraycopy(dst.keys, 0, dst.keys, count, dst.size);
+        System.arraycopy(dst.children, 0, dst.children, count, dst.size);
+        int from = src.size-count;
+        System.arraycopy(src.keys, from, dst.keys, 0, count);
+        System.arraycopy(src.children, from, dst.children, 0, count);
+        if (dst.counts != null) {
+            System.arraycopy(dst.counts, 0, dst.counts, count, dst.size);
+            System.arraycopy(src.counts, from, dst.counts, 0, count);
+        }
+        if (dst.aggregates != null) {
+            System.arraycopy(dst.aggregates, 0, dst.aggregates, count, dst.size);
+            System.arraycopy(src.aggregates, from, dst.aggregates, 0, count);
+            Arrays.fill(src.aggregates, from, src.size, null);
+        }
+        dst.size += count;
+        Arrays.fill(src.keys, from, src.size, null);
+        Arrays.fill(src.children, from, src.size, null);
+        src.size = from;
     }
 
-    LeafNode split(LeafNode node) {
-        LinkedList<K> keys = node.keys;
-        LinkedList<V> values = node.values;
+    void moveTailToHead(LeafNode src, int count, LeafNode dst) {
+        preserve(src);
+        preserve(dst);
+        ensureCapacity(dst, dst.size+count);
+        System.arraycopy(dst.keys, 0, dst.keys, count, dst.size);
+        System.arraycopy(dst.values, 0, dst.values, count, dst.size);
+        int from = src.size-count;
+        System.arraycopy(src.keys, from, dst.keys, 0, count);
+        System.arraycopy(src.values, from, dst.values, 0, count);
+        dst.size += count;
+        Arrays.fill(src.keys, from, src.size, null);
+        Arrays.fill(src.values, from, src.size, null);
+        src.size = from;
+    }
 
-        /*
-         * 因为上溢发生，所以此时keys.size()为m。
-         * 将区间分裂为左侧[0...mi)和右侧[mi...m+1)，左右区间关键码数量分别为mi和m+1-mi。
-         * mi取keys.size()/2，即为floor(m/2)，可得左右区间关键码数量分别为floor(m/2)和m+1-floor(m/2)，不会继而发生下溢。
-         */
-        int mi = keys.size() / 2;
+    /* 辅助算法 */
 
-        LinkedList<K> rightKeys = new LinkedList<>(keys.subList(mi, keys.size()));
-        LinkedList<V> rightValues = new LinkedList<>(values.subList(mi, values.size()));
-        LeafNode rightNode = new LeafNode(node.parent, node, node.next, rightKeys, rightValues);
-        if (node.next != null) {
-            node.next.prev = rightNode;
-        }
-        node.next = rightNode;
+    /**
+     * 构造一棵m阶B+树。
+     *
+     * @param m
+     */
+    public BPlusTree(int m) {
+        this(m, false);
+    }
 
-        keys.subList(mi, keys.size()).clear();
-        values.subList(mi, values.size()).clear();
+    /**
+     * 构造一棵m阶B+树。
+     *
+     * @param m
+     * @param orderStatistics 是否在内部节点中维护子树元素数量，开启后支持{@link #rank(Comparable)}、{@link #select(int)}
+     *                        与{@link #count(Comparable, boolean, Comparable, boolean)}，每次插入与删除额外更新路径上每层一个计数。
+     */
+    public BPlusTree(int m, boolean orderStatistics) {
+        this.m = m;
+        this.orderStatistics = orderStatistics;
+    }
 
-        return rightNode;
+    /**
+     * 设置操作监听器，传入null关闭监听。
+     * <p>未设置监听器时搜索、插入与删除不会读取时钟，结构变化处也只有一次空判断。
+     * 监听器应当在B+树被多个线程共享之前设置。
+     *
+     * @param listener
+     */
+    public void setListener(TreeListener listener) {
+        this.listener = listener;
     }
 
+    /**
+     * 设置值的聚合，传入null关闭聚合。
+     * <p>设置后内部节点为每个分支缓存聚合值，插入与删除沿下降路径重新计算每层一个缓存值，分裂、合并与借用重新计算受影响的分支，
+     * {@link #aggregate(Comparable, boolean, Comparable, boolean)}只需组合O(log n)层的缓存值。设置时自底向上计算全部缓存值，代价为O(n)。
+     *
+     * @param aggregator
+     */
     @SuppressWarnings("unchecked")
-    void leftLendRight(Node left, Node right) {
-        if (left instanceof BPlusTree.InternalNode) {
-            leftLendRight((InternalNode) left, (InternalNode) right);
-        } else {
-            leftLendRight((LeafNode) left, (LeafNode) right);
+    public void setAggregator(Aggregator<? super V, ?> aggregator) {
+        this.aggregator = (Aggregator<? super V, Object>) aggregator;
+        if (root != null) {
+            rebuildAggregates(root);
         }
     }
 
-    void leftLendRight(InternalNode left, InternalNode right) {
-        K leftLastKey = left.keys.removeLast();
-        Node leftLastChild = left.children.removeLast();
-
-        right.keys.addFirst(leftLastKey);
-        right.children.addFirst(leftLastChild);
-        leftLastChild.parent = right;
-
-        updateIndexKey(left);
-        updateIndexKey(right);
+    @SuppressWarnings("unchecked")
+    void rebuildAggregates(Node node) {
+        if (!(node instanceof BPlusTree.InternalNode)) {
+            return;
+        }
+        InternalNode internal = (InternalNode) node;
+        internal.aggregates = aggregator == null ? null : new Object[internal.keys.length];
+        for (int i = 0; i < internal.size; i++) {
+            rebuildAggregates(internal.children[i]);
+            if (aggregator != null) {
+                internal.aggregates[i] = aggregateOf(internal.children[i]);
+            }
+        }
     }
 
-    void leftLendRight(LeafNode left, LeafNode right) {
-        K leftLastKey = left.keys.removeLast();
-        V leftLastValue = left.values.removeLast();
-
-        right.keys.addFirst(leftLastKey);
-        right.values.addFirst(leftLastValue);
+    /**
+     * 设置写缓冲区容量，传入0关闭写缓冲，关闭前会先下推全部消息。
+     * <p>开启后根节点为内部节点时，插入与删除只向根节点的缓冲区添加一条消息，缓冲区超过容量时将路由到同一分支且数量最多的一批消息下推到该分支，
+     * 分支为叶子节点时按关键码顺序逐条作用，因此随机写入被攒成有序的批次，结构调整集中发生在少数路径上。
+     * 代价是{@link #search(Comparable)}需要检查路径上每层缓冲区中的消息，删除需要先搜索出将被删除的值；
+     * 其余读取操作以及批量操作会先下推全部消息，见{@link #flush()}。
+     *
+     * @param capacity 每个内部节点缓冲区的消息数量上限，通常取m的若干倍。
+     */
+    public void setBufferCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Buffer capacity cannot be negative.");
+        }
+        if (capacity > 0 && lazyDeletion) {
+            throw new IllegalStateException("Write buffer cannot be combined with lazy deletion.");
+        }
 
-        updateIndexKey(left);
-        updateIndexKey(right);
+        flush();
+        boolean rebuild = (bufferCapacity > 0) != (capacity > 0);
+        this.bufferCapacity = capacity;
+        if (rebuild && root != null) {
+            rebuildBuffers(root);
+        }
     }
 
     @SuppressWarnings("unchecked")
-    void rightLendLeft(Node left, Node right) {
-        if (left instanceof BPlusTree.InternalNode) {
-            rightLendLeft((InternalNode) left, (InternalNode) right);
-        } else {
-            rightLendLeft((LeafNode) left, (LeafNode) right);
+    void rebuildBuffers(Node node) {
+        if (!(node instanceof BPlusTree.InternalNode)) {
+            return;
+        }
+        InternalNode internal = (InternalNode) node;
+        internal.buffer = bufferCapacity > 0 ? new Buffer() : null;
+        for (int i = 0; i < internal.size; i++) {
+            rebuildBuffers(internal.children[i]);
         }
     }
 
-    void rightLendLeft(InternalNode left, InternalNode right) {
-        K rightFirstKey = right.keys.removeFirst();
-        Node rightFirstChild = right.children.removeFirst();
-
-        left.keys.addLast(rightFirstKey);
-        left.children.addLast(rightFirstChild);
-        rightFirstChild.parent = left;
-
-        updateIndexKey(left);
-        updateIndexKey(right);
+    /**
+     * 设置追加引起的上溢是否偏右分裂。
+     * <p>关键码大于全树最后一个关键码的插入直接追加到缓存的最右侧叶子节点，该叶子节点上溢时默认与其它节点一样从中间分裂，
+     * 因此顺序插入的数据最终只填满每个叶子节点的一半。开启后左侧节点保持满载，叶子节点右侧只保留新追加的关键码，内部节点右侧只保留2个分支，
+     * 除最右侧路径外的节点都是满载的。最右侧路径上的节点因此可能少于A3的下限，它们会随后续追加逐渐填满，删除时A11同样可以处理。
+     * 适合关键码单调递增（例如时间戳）的场景，随机插入不受影响。
+     *
+     * @param rightBiasedSplit
+     */
+    public void setRightBiasedSplit(boolean rightBiasedSplit) {
+        this.rightBiasedSplit = rightBiasedSplit;
     }
 
-    void rightLendLeft(LeafNode left, LeafNode right) {
-        K rightFirstKey = right.keys.removeFirst();
-        V rightFirstValue = right.values.removeFirst();
+    /**
+     * 设置是否延迟删除，关闭前会先压缩全部墓碑。
+     * <p>开启后删除只将叶子节点中被删除的值替换为墓碑，不执行索引更新与A11，读取时跳过墓碑；插入位置紧邻墓碑时直接复用该位置而不移动元素。
+     * 墓碑在{@link #compact()}中按叶子节点集中回收并解决下溢，因此删除密集时合并与借用不再发生在删除路径上，插入与删除交替时也不会反复分裂与合并。
+     * 子树元素数量与聚合值在删除时沿下降路径立即扣除墓碑，顺序统计、快照与范围聚合直接跳过墓碑而不改变树的结构，
+     * 批量删除连同墓碑一并移除但只计入未被删除的值，何时调用{@link #compact()}由调用方决定。不能与写缓冲同时开启。
+     *
+     * @param lazyDeletion
+     */
+    public void setLazyDeletion(boolean lazyDeletion) {
+        if (lazyDeletion && bufferCapacity > 0) {
+            throw new IllegalStateException("Lazy deletion cannot be combined with write buffer.");
+        }
 
-        left.keys.addLast(rightFirstKey);
-        left.values.addLast(rightFirstValue);
+        if (!lazyDeletion) {
+            compact();
+        }
+        this.lazyDeletion = lazyDeletion;
+    }
 
-        updateIndexKey(left);
-        updateIndexKey(right);
+    /**
+     * A1.判断根节点。
+     *
+     * @return
+     */
+    boolean isRoot(Node node) {
+        return node == root;
     }
 
     /**
-     * 合并。
+     * A2.判断上溢。
      *
-     * @param left
+     * @return
      */
     @SuppressWarnings("unchecked")
-    void merge(Node left) {
-        if (left instanceof BPlusTree.InternalNode) {
-            merge((InternalNode) left);
-        } else {
-            merge((LeafNode) left);
-        }
+    boolean isOverflow(Node node) {
+        return node instanceof BPlusTree.InternalNode ? isOverflow((InternalNode) node) : isOverflow((LeafNode) node);
     }
 
-    void merge(InternalNode left) {
-        int leftIndexInParent = indexInParent(left);
-        left.parent.keys.remove(leftIndexInParent+1);
-        @SuppressWarnings("unchecked")
-        InternalNode right = (InternalNode) left.parent.children.remove(leftIndexInParent+1);
-
-        left.keys.addAll(right.keys);
-        left.children.addAll(right.children);
-        for (Node child : right.children) {
-            child.parent = left;
-        }
+    boolean isOverflow(InternalNode node) {
+        return node.size > m;
+    }
 
-        updateIndexKey(left);
+    boolean isOverflow(LeafNode node) {
+        return node.size > m-1;
     }
 
-    void merge(LeafNode left) {
-        int leftIndexInParent = indexInParent(left);
-        left.parent.keys.remove(leftIndexInParent+1);
-        @SuppressWarnings("unchecked")
-        LeafNode right = (LeafNode) left.parent.children.remove(leftIndexInParent+1);
+    /**
+     * A3.判断下溢。
+     *
+     * @param node
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    boolean isUnderflow(Node node) {
+        return node instanceof BPlusTree.InternalNode ? isUnderflow((InternalNode) node) : isUnderflow((LeafNode) node);
+    }
 
-        left.keys.addAll(right.keys);
-        left.values.addAll(right.values);
-        left.next = right.next;
-        if (right.next != null) {
-            right.next.prev = left;
-        }
+    boolean isUnderflow(InternalNode node) {
+        return isRoot(node) ? node.size < 2 : node.size < (m+1)/2;
+    }
 
-        updateIndexKey(left);
+    boolean isUnderflow(LeafNode node) {
+        return isRoot(node) ? node.size < 1 : node.size < (m+1)/2-1;
     }
 
     /**
-     * A10.解决上溢。
+     * A4.key所在子树。
+     * <p>非空关键码严格递增，因此二分查找最后一个不大于key的非空关键码即可，中点落在空关键码上时向左找到最近的非空关键码参与比较。
      *
      * @param node
+     * @param key
+     * @return
      */
-    void trySolveOverflow(Node node) {
-        while (node != null && isOverflow(node)) {
-            Node rightNode = split(node);
-            InternalNode parent = node.parent;
-            if (parent == null) {
-                /*
-                 * 根节点被分裂了。
-                 */
-                InternalNode newRoot = new InternalNode(null, new LinkedList<>(), new LinkedList<>());
-                newRoot.keys.add(getIndexKey(node));
-                newRoot.keys.add(getIndexKey(rightNode));
-                newRoot.children.add(node);
-                newRoot.children.add(rightNode);
-                node.parent = newRoot;
-                rightNode.parent = newRoot;
-                this.root = newRoot;
+    Node locateChildByKey(InternalNode node, K key) {
+        return node.children[locateChildIndex(node.keys, node.size, key)];
+    }
+
+    /**
+     * A4作用于关键码数组，返回key所在子树的下标。
+     *
+     * @param keys
+     * @param size
+     * @param key
+     * @return
+     */
+    int locateChildIndex(K[] keys, int size, K key) {
+        int r = 0;// 默认为0的隐含意义是如果keys[0]就大于key，那么就向children[0]深入，因为这是全树的最左侧。
+        int lo = 0, hi = size-1;
+        while (lo <= hi) {
+            int mi = (lo + hi) >>> 1;
+            int nn = mi;
+            while (nn >= lo && keys[nn] == null) {
+                nn--;
+            }
+            if (nn < lo) {
+                // [lo, mi]中全部为空关键码，结果只可能在右侧。
+                lo = mi + 1;
+            } else if (keys[nn].compareTo(key) > 0) {
+                hi = nn - 1;
             } else {
-                /*
-                 * 对于parent来说需要更新分裂左右子树的索引。
-                 * 对于parent.parent来说产生分裂的子树整体没有新增或者删除关键码，只是内部拓扑结构发生了变化，因此无需更新索引。
-                 * 因此分裂的索引更新只会影响其parent，而不会再向上传播。
-                 */
-                int leftIndexInParent = indexInParent(node);
-                updateIndexKey(node);
-                parent.keys.add(leftIndexInParent+1, getIndexKey(rightNode));
-                parent.children.add(leftIndexInParent+1, rightNode);
+                // keys[nn] <= key，由于相等的key会以null表示，这里使用<=是安全的。
+                r = nn;
+                lo = mi + 1;
             }
-            node = parent;
         }
+        return r;
     }
 
     /**
-     * A11.解决下溢。
+     * A5.key所在叶子。
      *
      * @param node
+     * @param key
+     * @param path 到达node的下降路径，向右移动时同步移动到下一个叶子节点，为null表示无需记录路径。
+     * @return
      */
-    @SuppressWarnings("unchecked")
-    void trySolveUnderflow(Node node) {
-        while (node != null && isUnderflow(node)) {
-            InternalNode parent = node.parent;
-            if (parent == null) {
-                /*
-                 * 根节点发生下溢。
-                 */
-                Node newRoot;
-                if (node instanceof BPlusTree.InternalNode) {
-                    // 因为根节点分支数只有1时才会发生下溢，因此直接取children[0]作为新的根节点即可。
-                    newRoot = ((InternalNode) node).children.get(0);
-                    newRoot.parent = null;
-                } else {
-                    newRoot = null;
-                }
-                this.root = newRoot;
-            } else {
-                int indexInParent = indexInParent(node);
-                Node leftSibling = indexInParent-1 >= 0 ? parent.children.get(indexInParent-1) : null;
-                Node rightSibling = indexInParent+1 < parent.children.size() ? parent.children.get(indexInParent+1) : null;
-
-                /*
-                 * 首先尝试从兄弟借，成功则无需再向上传递。
-                 */
-                if (leftSibling != null && leftSibling.keys.size() > (m+1)/2) {
-                    leftLendRight(leftSibling, node);
-                    break;
-                }
-                if (rightSibling != null && rightSibling.keys.size() > (m+1)/2) {
-                    rightLendLeft(node, rightSibling);
-                    break;
-                }
-
-                /*
-                 * 合并。
-                 */
-                if (leftSibling != null) {
-                    merge(leftSibling);
-                } else {
-                    merge(node);
-                }
+    LeafNode locateLeafByKey(LeafNode node, K key, Path path) {
+        int hops = 0;
+        while (key.compareTo(node.keys[node.size-1]) > 0 && node.next != null) {
+            node = node.next;
+            if (path != null) {
+                path.advance();
             }
-            node = parent;
+            hops++;
         }
-    }
-
-    void tryUpdateIndexKeyAfterInsert(LeafNode node) {
-        if (updateIndexKey(node)) {
-            propagateUpdateIndexKey(node.parent);
+        if (hops > 0 && listener != null) {
+            listener.onLeafHops(hops);
         }
+        return node;
     }
 
-    void tryUpdateIndexKeyAfterDelete(LeafNode node, boolean shouldTryUpdateNextLeafNodeIndexKey) {
-        InternalNode propagateNode = null;
-        InternalNode nextPropagateNode = null;
-        if (updateIndexKey(node)) {
-            propagateNode = node.parent;
-        }
-        if (shouldTryUpdateNextLeafNodeIndexKey && updateIndexKey(node.next)) {
-            nextPropagateNode = node.next.parent;
-        }
-        if (propagateNode != null) {
-            propagateUpdateIndexKey(propagateNode);
-        }
-        if (nextPropagateNode != null && nextPropagateNode != propagateNode) {
-            propagateUpdateIndexKey(nextPropagateNode);
+    /**
+     * A6.搜索叶子节点。
+     *
+     * @param node
+     * @param key
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    LeafNode searchLeaf(Node node, K key) {
+        while (node instanceof BPlusTree.InternalNode) {
+            node = locateChildByKey((InternalNode) node, key);
         }
+        return locateLeafByKey((LeafNode) node, key, null);
     }
 
-    /* 主算法 */
-
     /**
-     * M1.搜索。
-     * <p>搜索关键码key所对应的值。
-     * 由于当前B+树实现约束中不支持存放空的值，因此一旦返回null则表明关键码key在当前B树中不存在。
+     * A6.搜索叶子节点，并将下降路径记录到path中。
      *
+     * @param node
      * @param key
+     * @param path
      * @return
      */
-    public V search(K key) {
-        System.out.println("search " + key);
-        Objects.requireNonNull(key, "Key cannot be null.");
+    @SuppressWarnings("unchecked")
+    LeafNode searchLeaf(Node node, K key, Path path) {
+        path.depth = 0;
+        while (node instanceof BPlusTree.InternalNode) {
+            InternalNode internal = (InternalNode) node;
+            int i = locateChildIndex(internal.keys, internal.size, key);
+            path.push(internal, i);
+            node = internal.children[i];
+        }
+        return locateLeafByKey((LeafNode) node, key, path);
+    }
+
+    /**
+     * A7.在keys中查找key。
+     * 查找keys中查找小于key秩最大的元素的下标。
+     *
+     * @param keys
+     * @param size
+     * @param key
+     * @return
+     */
+    int littleLess(K[] keys, int size, K key) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mi = (lo + hi) >>> 1;
+            if (keys[mi].compareTo(key) < 0) {
+                lo = mi + 1;
+            } else {
+                hi = mi;
+            }
+        }
+        return lo - 1;
+    }
+
+    /**
+     * 查找keys中不大于key秩最大的元素的下标。
+     *
+     * @param keys
+     * @param size
+     * @param key
+     * @return
+     */
+    int littleLessOrEqual(K[] keys, int size, K key) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mi = (lo + hi) >>> 1;
+            if (keys[mi].compareTo(key) <= 0) {
+                lo = mi + 1;
+            } else {
+                hi = mi;
+            }
+        }
+        return lo - 1;
+    }
+
+    /**
+     * 获取全树最左侧的叶子节点。
+     *
+     * @param node
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    LeafNode firstLeaf(Node node) {
+        while (node instanceof BPlusTree.InternalNode) {
+            node = ((InternalNode) node).children[0];
+        }
+        return (LeafNode) node;
+    }
+
+    /**
+     * 获取全树最右侧的叶子节点。
+     *
+     * @param node
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    LeafNode lastLeaf(Node node) {
+        while (node instanceof BPlusTree.InternalNode) {
+            InternalNode internal = (InternalNode) node;
+            node = internal.children[internal.size-1];
+        }
+        return (LeafNode) node;
+    }
+
+    /**
+     * 子树中未被删除的元素数量，仅在开启顺序统计时调用。
+     *
+     * @param node
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    int total(Node node) {
+        if (!(node instanceof BPlusTree.InternalNode)) {
+            LeafNode leaf = (LeafNode) node;
+            return liveCount(leaf, 0, leaf.size);
+        }
+        InternalNode internal = (InternalNode) node;
+        int total = 0;
+        for (int i = 0; i < internal.size; i++) {
+            total += internal.counts[i];
+        }
+        return total;
+    }
+
+    /**
+     * 叶子节点[from, to)区间中未被删除的元素数量，没有墓碑时无需遍历。
+     *
+     * @param leaf
+     * @param from
+     * @param to
+     * @return
+     */
+    int liveCount(LeafNode leaf, int from, int to) {
+        int count = to - from;
+        if (tombstones > 0) {
+            for (int i = from; i < to; i++) {
+                if (leaf.values[i] == TOMBSTONE) {
+                    count--;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 子树中所有值的聚合，仅在设置了聚合时调用，代价为O(m)。
+     *
+     * @param node
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    Object aggregateOf(Node node) {
+        Object result = aggregator.identity();
+        if (node instanceof BPlusTree.InternalNode) {
+            InternalNode internal = (InternalNode) node;
+            for (int i = 0; i < internal.size; i++) {
+                result = aggregator.combine(result, internal.aggregates[i]);
+            }
+        } else {
+            LeafNode leaf = (LeafNode) node;
+            for (int i = 0; i < leaf.size; i++) {
+                if (leaf.values[i] != TOMBSTONE) {
+                    result = aggregator.combine(result, aggregator.of(leaf.values[i]));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 分裂、合并与借用改变了parent中第i个分支后重新计算其元素数量与聚合值。
+     *
+     * @param parent
+     * @param i
+     */
+    void summarize(InternalNode parent, int i) {
+        if (parent.counts != null) {
+            parent.counts[i] = total(parent.children[i]);
+        }
+        if (parent.aggregates != null) {
+            parent.aggregates[i] = aggregateOf(parent.children[i]);
+        }
+    }
+
+    /**
+     * 叶子节点中增加或减少了delta个元素，更新路径上每层分支的元素数量，并自底向上重新计算路径上每层分支的聚合值。
+     *
+     * @param path
+     * @param delta
+     */
+    void summarizePath(Path path, int delta) {
+        if (orderStatistics) {
+            for (int l = 0; l < path.depth; l++) {
+                path.nodes[l].counts[path.slots[l]] += delta;
+            }
+        }
+        if (aggregator != null) {
+            for (int l = path.depth-1; l >= 0; l--) {
+                InternalNode node = path.nodes[l];
+                node.aggregates[path.slots[l]] = aggregateOf(node.children[path.slots[l]]);
+            }
+        }
+    }
+
+    /**
+     * A8/A9.索引更新，更新parent中第i个分支的索引。
+     * <p>分支为内部节点时对应A8，为叶子节点时对应A9，二者的区别只在于{@link #getIndexKey(Node)}。
+     *
+     * @param parent
+     * @param i
+     * @return true-进行了更新，false-未进行更新。
+     */
+    boolean updateIndexKey(InternalNode parent, int i) {
+        K nextKeyInParent = getIndexKey(parent.children[i]);
+        if (shouldUpdate(parent.keys[i], nextKeyInParent)) {
+            preserve(parent);
+            parent.keys[i] = nextKeyInParent;
+            if (parent.buffer != null) {
+                rehome(parent, i);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 沿路径从第level层的内部节点开始不断地向上更新索引，直到没有更新变化或者到达根节点为止。
+     *
+     * @param path
+     * @param level
+     */
+    void propagateUpdateIndexKey(Path path, int level) {
+        int depth = 0;
+        while (level > 0 && updateIndexKey(path.parent(level), path.slot(level))) {
+            level--;
+            depth++;
+        }
+        if (listener != null) {
+            listener.onIndexKeyPropagation(depth);
+        }
+    }
+
+    /**
+     * 获取输入内部节点应对应的索引值。
+     *
+     * @param node
+     * @return
+     */
+    K getIndexKey(InternalNode node) {
+        return findFirstNotNull(node.keys, node.size);
+    }
+
+    /**
+     * 获取输入叶子节点应对应的索引值。
+     *
+     * @param node
+     * @return
+     */
+    K getIndexKey(LeafNode node) {
+        // 空节点的索引为空。
+        if (node.size == 0) {
+            return null;
+        }
+
+        // 如果前一个叶子节点不存在或者前一个叶子节点最后部分与当前叶子节点的第一个关键码不同则直接返回当前叶子节点的首个关键码即可。
+        K firstKey = node.keys[0];
+        if (node.prev == null || node.prev.size == 0) {
+            return firstKey;
+        }
+        K prevLastKey = node.prev.keys[node.prev.size-1];
+        if (prevLastKey.compareTo(firstKey) < 0) {
+            return separator(prevLastKey, firstKey);
+        }
+
+        // 查找首个大于firstKey的关键码，不存在则索引为空。
+        K foundKey = findFirstGt(node.keys, node.size, firstKey);
+        return foundKey == null ? null : separator(firstKey, foundKey);
+    }
+
+    /**
+     * 返回用作叶子节点索引的分隔关键码，lo为前一叶子节点的最后关键码，hi为当前叶子节点首个“新”的关键码，lo小于hi。
+     * <p>返回值s只需满足lo &lt; s &lt;= hi即可被A4正确路由，默认直接返回hi，子类可以返回更短的关键码以减少比较的代价。
+     *
+     * @param lo
+     * @param hi
+     * @return
+     */
+    K separator(K lo, K hi) {
+        return hi;
+    }
+
+    @SuppressWarnings("unchecked")
+    K getIndexKey(Node node) {
+        return node instanceof BPlusTree.InternalNode ? getIndexKey((InternalNode) node) : getIndexKey((LeafNode) node);
+    }
+
+    K findFirstNotNull(K[] keys, int size) {
+        for (int i = 0; i < size; i++) {
+            if (keys[i] != null) {
+                return keys[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 查找首个大于lo的关键码，不存在则返回null。
+     * 该方法作用于叶子节点关键码，其中不包含空关键码，因此可以使用二分查找。
+     *
+     * @param keys
+     * @param size
+     * @param lo
+     * @return
+     */
+    K findFirstGt(K[] keys, int size, K lo) {
+        int l = 0, h = size;
+        while (l < h) {
+            int mi = (l + h) >>> 1;
+            if (keys[mi].compareTo(lo) > 0) {
+                h = mi;
+            } else {
+                l = mi + 1;
+            }
+        }
+        return l < size ? keys[l] : null;
+    }
+
+    boolean shouldUpdate(K prevKey, K nextKey) {
+        /*
+         * 需要更新的几种情况：
+         * 1. prevKey != null && nextKey == null
+         * 2. prevKey == null && nextKey != null
+         * 3. prevKey != null && nextKey != null && prevKey != nextKey
+         */
+        return prevKey != nextKey || (prevKey != null && prevKey.compareTo(nextKey) != 0);
+    }
+
+    /**
+     * 分裂。
+     *
+     * @param node
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    Node split(Node node) {
+        return node instanceof BPlusTree.InternalNode ? split((InternalNode) node) : split((LeafNode) node);
+    }
+
+    InternalNode split(InternalNode node) {
+        /*
+         * 因为上溢发生，所以此时size为m+1。
+         * 将区间分裂为左侧[0...mi)和右侧[mi...m+1)，左右区间关键码数量分别为mi和m+1-mi。
+         * mi取size/2，即为ceil(m/2)，可得左右区间关键码数量分别为ceil(m/2)和floor(m/2)+1，不会继而发生下溢。
+         * 追加引起的上溢中node是所在层最右侧的节点，此时右侧只保留2个分支，左侧保持满载，右侧节点随后续追加逐渐填满。
+         */
+        int mi = appending ? node.size - 2 : node.size / 2;
+
+        InternalNode rightNode = newInternalNode();
+        if (node.buffer != null) {
+            // 路由到右侧分支的消息是缓冲区的一段后缀，随分支一起移动。
+            int from = routedFrom(node, mi);
+            rightNode.buffer.merge(node.buffer, from, node.buffer.size, false);
+            node.buffer.remove(from, node.buffer.size);
+        }
+        moveTail(node, mi, rightNode);
+        trimCapacity(node);
+
+        return rightNode;
+    }
+
+    LeafNode split(LeafNode node) {
+        /*
+         * 因为上溢发生，所以此时size为m。
+         * 将区间分裂为左侧[0...mi)和右侧[mi...m+1)，左右区间关键码数量分别为mi和m+1-mi。
+         * mi取size/2，即为floor(m/2)，可得左右区间关键码数量分别为floor(m/2)和m+1-floor(m/2)，不会继而发生下溢。
+         * 追加引起的上溢中右侧只保留新追加的关键码，左侧保持满载。
+         */
+        int mi = appending ? node.size - 1 : node.size / 2;
+
+        LeafNode rightNode = newLeafNode(node, node.next);
+        if (node.next != null) {
+            node.next.prev = rightNode;
+        }
+        node.next = rightNode;
+        moveTail(node, mi, rightNode);
+        trimCapacity(node);
+
+        return rightNode;
+    }
+
+    /**
+     * 左兄弟parent.children[i]借给右兄弟parent.children[i+1]一个关键码或分支。
+     *
+     * @param parent
+     * @param i
+     */
+    @SuppressWarnings("unchecked")
+    void leftLendRight(InternalNode parent, int i) {
+        Node left = parent.children[i];
+        if (left instanceof BPlusTree.InternalNode) {
+            leftLendRight((InternalNode) left, (InternalNode) parent.children[i+1]);
+        } else {
+            leftLendRight((LeafNode) left, (LeafNode) parent.children[i+1]);
+        }
+        updateIndexKey(parent, i);
+        updateIndexKey(parent, i+1);
+        summarize(parent, i);
+        summarize(parent, i+1);
+    }
+
+    void leftLendRight(InternalNode left, InternalNode right) {
+        if (left.buffer != null) {
+            int from = routedFrom(left, left.size-1);
+            right.buffer.merge(left.buffer, from, left.buffer.size, false);
+            left.buffer.remove(from, left.buffer.size);
+        }
+        K leftLastKey = left.keys[left.size-1];
+        Node leftLastChild = removeAt(left, left.size-1);
+
+        insertAt(right, 0, leftLastKey, leftLastChild);
+        if (right.buffer != null) {
+            rehome(right, 1);
+        }
+    }
+
+    void leftLendRight(LeafNode left, LeafNode right) {
+        K leftLastKey = left.keys[left.size-1];
+        V leftLastValue = removeAt(left, left.size-1);
+
+        insertAt(right, 0, leftLastKey, leftLastValue);
+    }
+
+    /**
+     * 右兄弟parent.children[i+1]借给左兄弟parent.children[i]一个关键码或分支。
+     *
+     * @param parent
+     * @param i
+     */
+    @SuppressWarnings("unchecked")
+    void rightLendLeft(InternalNode parent, int i) {
+        Node left = parent.children[i];
+        if (left instanceof BPlusTree.InternalNode) {
+            rightLendLeft((InternalNode) left, (InternalNode) parent.children[i+1]);
+        } else {
+            rightLendLeft((LeafNode) left, (LeafNode) parent.children[i+1]);
+        }
+        updateIndexKey(parent, i);
+        updateIndexKey(parent, i+1);
+        summarize(parent, i);
+        summarize(parent, i+1);
+    }
+
+    void rightLendLeft(InternalNode left, InternalNode right) {
+        if (right.buffer != null) {
+            int to = routedFrom(right, 1);
+            left.buffer.merge(right.buffer, 0, to, false);
+            right.buffer.remove(0, to);
+        }
+        K rightFirstKey = right.keys[0];
+        Node rightFirstChild = removeAt(right, 0);
+
+        insertAt(left, left.size, rightFirstKey, rightFirstChild);
+        if (left.buffer != null) {
+            rehome(left, left.size-1);
+        }
+    }
+
+    void rightLendLeft(LeafNode left, LeafNode right) {
+        K rightFirstKey = right.keys[0];
+        V rightFirstValue = removeAt(right, 0);
+
+        insertAt(left, left.size, rightFirstKey, rightFirstValue);
+    }
+
+    /**
+     * 合并，将parent.children[i+1]合并到parent.children[i]中。
+     *
+     * @param parent
+     * @param i
+     */
+    @SuppressWarnings("unchecked")
+    void merge(InternalNode parent, int i) {
+        Node left = parent.children[i];
+        Node right = removeAt(parent, i+1);
+        if (left instanceof BPlusTree.InternalNode) {
+            InternalNode leftInternal = (InternalNode) left;
+            InternalNode rightInternal = (InternalNode) right;
+            int junction = leftInternal.size;
+            if (leftInternal.buffer != null) {
+                leftInternal.buffer.merge(rightInternal.buffer, 0, rightInternal.buffer.size, false);
+                rightInternal.buffer.remove(0, rightInternal.buffer.size);
+            }
+            moveTail(rightInternal, 0, leftInternal);
+            if (leftInternal.buffer != null) {
+                rehome(leftInternal, junction);
+            }
+        } else {
+            LeafNode leftLeaf = (LeafNode) left;
+            LeafNode rightLeaf = (LeafNode) right;
+            moveTail(rightLeaf, 0, leftLeaf);
+            leftLeaf.next = rightLeaf.next;
+            if (rightLeaf.next != null) {
+                rightLeaf.next.prev = leftLeaf;
+            }
+        }
+
+        updateIndexKey(parent, i);
+        summarize(parent, i);
+    }
+
+    /**
+     * A10.解决上溢。
+     * <p>node位于path的第level层，沿路径向上逐层分裂。
+     *
+     * @param node
+     * @param path
+     * @param level
+     */
+    void trySolveOverflow(Node node, Path path, int level) {
+        while (node != null && isOverflow(node)) {
+            // 根节点分裂后新的根节点不在路径上，其父节点为null。
+            InternalNode parent = path.parent(level);
+            node = splitOverflow(node, parent, parent != null ? path.slot(level) : -1);
+            level--;
+        }
+    }
+
+    /**
+     * 分裂上溢节点并将分裂出的右侧节点挂到父节点上。
+     * 批量插入时节点可能超出上限许多，分裂后的左右节点仍可能上溢，因此需要继续分裂直到全部满足约束。
+     *
+     * @param node
+     * @param parent node的父节点，node为根节点时为null。
+     * @param slot node在parent中的位置。
+     * @return node的父节点，根节点被分裂时为新的根节点。
+     */
+    InternalNode splitOverflow(Node node, InternalNode parent, int slot) {
+        while (isOverflow(node)) {
+            Node rightNode = split(node);
+            if (listener != null) {
+                listener.onSplit();
+            }
+            if (parent == null) {
+                /*
+                 * 根节点被分裂了。
+                 */
+                InternalNode newRoot = newInternalNode();
+                insertAt(newRoot, 0, getIndexKey(node), node);
+                insertAt(newRoot, 1, getIndexKey(rightNode), rightNode);
+                this.root = newRoot;
+                parent = newRoot;
+                slot = 0;
+            } else {
+                /*
+                 * 对于parent来说需要更新分裂左右子树的索引。
+                 * 对于parent.parent来说产生分裂的子树整体没有新增或者删除关键码，只是内部拓扑结构发生了变化，因此无需更新索引。
+                 * 因此分裂的索引更新只会影响其parent，而不会再向上传播。
+                 */
+                updateIndexKey(parent, slot);
+                summarize(parent, slot);
+                insertAt(parent, slot+1, getIndexKey(rightNode), rightNode);
+            }
+            splitOverflow(rightNode, parent, slot+1);
+        }
+        return parent;
+    }
+
+    /**
+     * A11.解决下溢。
+     * <p>node位于path的第level层，沿路径向上逐层借用或合并。
+     *
+     * @param node
+     * @param path
+     * @param level
+     */
+    @SuppressWarnings("unchecked")
+    void trySolveUnderflow(Node node, Path path, int level) {
+        while (node != null && isUnderflow(node)) {
+            InternalNode parent = path.parent(level);
+            if (parent == null) {
+                /*
+                 * 根节点发生下溢。
+                 */
+                Node newRoot;
+                if (node instanceof BPlusTree.InternalNode) {
+                    // 因为根节点分支数只有1时才会发生下溢，因此直接取children[0]作为新的根节点即可。
+                    newRoot = ((InternalNode) node).children[0];
+                    if (((InternalNode) node).buffer != null) {
+                        inheritBuffer((InternalNode) node, newRoot);
+                    }
+                } else {
+                    newRoot = null;
+                }
+                this.root = newRoot;
+            } else {
+                int indexInParent = path.slot(level);
+                Node leftSibling = indexInParent-1 >= 0 ? parent.children[indexInParent-1] : null;
+                Node rightSibling = indexInParent+1 < parent.size ? parent.children[indexInParent+1] : null;
+
+                /*
+                 * 首先尝试从兄弟借，成功则无需再向上传递。
+                 * 一次删除多个关键码时（例如deleteAll）借一次后仍可能下溢，因此借完后重新检查当前节点。
+                 */
+                if (leftSibling != null && leftSibling.size > (m+1)/2) {
+                    leftLendRight(parent, indexInParent-1);
+                    if (listener != null) {
+                        listener.onBorrow();
+                    }
+                    continue;
+                }
+                if (rightSibling != null && rightSibling.size > (m+1)/2) {
+                    rightLendLeft(parent, indexInParent);
+                    if (listener != null) {
+                        listener.onBorrow();
+                    }
+                    continue;
+                }
+
+                /*
+                 * 合并。
+                 */
+                if (leftSibling != null) {
+                    merge(parent, indexInParent-1);
+                } else {
+                    merge(parent, indexInParent);
+                }
+                if (listener != null) {
+                    listener.onMerge();
+                }
+            }
+            node = parent;
+            level--;
+        }
+    }
+
+    /**
+     * 插入后更新叶子节点的索引，path为到达该叶子节点的路径。
+     *
+     * @param path
+     */
+    void tryUpdateIndexKeyAfterInsert(Path path) {
+        int level = path.depth;
+        if (level > 0 && updateIndexKey(path.parent(level), path.slot(level))) {
+            propagateUpdateIndexKey(path, level-1);
+        }
+    }
+
+    /**
+     * 删除后更新叶子节点的索引，删除了叶子节点的最后一个关键码时后一个叶子节点的索引也可能改变。
+     *
+     * @param path
+     * @param shouldTryUpdateNextLeafNodeIndexKey
+     */
+    void tryUpdateIndexKeyAfterDelete(Path path, boolean shouldTryUpdateNextLeafNodeIndexKey) {
+        int level = path.depth;
+        if (level == 0) {
+            return;
+        }
+        boolean propagate = updateIndexKey(path.parent(level), path.slot(level));
+        boolean nextPropagate = false;
+        if (shouldTryUpdateNextLeafNodeIndexKey) {
+            nextPath.copyFrom(path);
+            nextPath.advance();
+            nextPropagate = updateIndexKey(nextPath.parent(level), nextPath.slot(level));
+        }
+        if (propagate) {
+            propagateUpdateIndexKey(path, level-1);
+        }
+        if (nextPropagate && (!propagate || nextPath.parent(level) != path.parent(level))) {
+            propagateUpdateIndexKey(nextPath, level-1);
+        }
+    }
+
+    /* 主算法 */
+
+    /**
+     * M1.搜索。
+     * <p>搜索关键码key所对应的值。
+     * 由于当前B+树实现约束中不支持存放空的值，因此一旦返回null则表明关键码key在当前B树中不存在。
+     *
+     * @param key
+     * @return
+     */
+    public V search(K key) {
+        TreeListener listener = this.listener;
+        if (listener == null) {
+            return doSearch(key);
+        }
+        long start = System.nanoTime();
+        V value = doSearch(key);
+        listener.onSearch(System.nanoTime() - start);
+        return value;
+    }
+
+    V doSearch(K key) {
+        Objects.requireNonNull(key, "Key cannot be null.");
+
+        Node root = this.root;
+        if (root == null) {
+            return null;
+        }
+        if (buffered > 0) {
+            return searchBuffered(root, key);
+        }
+
+        LeafNode node = searchLeaf(root, key);
+        int r = littleLess(node.keys, node.size, key);
+        if (tombstones > 0) {
+            return searchLive(node, r+1, key);
+        }
+        return r+1 < node.size && node.keys[r+1].compareTo(key) == 0 ? node.values[r+1] : null;
+    }
+
+    /**
+     * 从node的i位置开始跳过关键码为key的墓碑，返回首个未被删除的值，墓碑可能延续到后续叶子节点。
+     *
+     * @param node
+     * @param i
+     * @param key
+     * @return
+     */
+    V searchLive(LeafNode node, int i, K key) {
+        while (true) {
+            if (i == node.size) {
+                if (node.next == null) {
+                    return null;
+                }
+                node = node.next;
+                i = 0;
+            }
+            if (node.keys[i].compareTo(key) != 0) {
+                return null;
+            }
+            if (node.values[i] != TOMBSTONE) {
+                return node.values[i];
+            }
+            i++;
+        }
+    }
+
+    /**
+     * M2.插入。
+     * <p>向B+树中插入关键码以及对应值。
+     *
+     * @param key
+     * @param value
+     */
+    public void insert(K key, V value) {
+        TreeListener listener = this.listener;
+        if (listener == null) {
+            doInsert(key, value);
+            return;
+        }
+        long start = System.nanoTime();
+        doInsert(key, value);
+        listener.onInsert(System.nanoTime() - start);
+    }
+
+    void doInsert(K key, V value) {
+        Objects.requireNonNull(key, "Key cannot be null.");
+        Objects.requireNonNull(value, "Value cannot be null.");
+
+        if (bufferCapacity > 0 && root instanceof BPlusTree.InternalNode) {
+            addMessage(key, value);
+            return;
+        }
+        applyInsert(key, value);
+    }
+
+    /**
+     * 将插入直接作用于叶子节点。
+     *
+     * @param key
+     * @param value
+     */
+    void applyInsert(K key, V value) {
+        // 首先处理树为空的情况
+        Node root = this.root;
+        if (root == null) {
+            LeafNode newRoot = newLeafNode(null, null);
+            insertAt(newRoot, 0, key, value);
+            this.root = newRoot;
+            return;
+        }
+        // 顺序插入
+        if (tryAppend(root, key, value)) {
+            return;
+        }
+
+        // 定位插入点
+        Path path = this.path;
+        LeafNode node = searchLeaf(root, key, path);
+        int r = littleLess(node.keys, node.size, key);
+        // 复用紧邻插入位置的墓碑
+        if (tombstones > 0 && reuseTombstone(node, r, key, value, path)) {
+            return;
+        }
+        // 插入
+        insertAt(node, r+1, key, value);
+        summarizePath(path, 1);
+        // 尝试更新索引
+        tryUpdateIndexKeyAfterInsert(path);
+        // 尝试解决上溢
+        trySolveOverflow(node, path, path.depth);
+    }
+
+    /**
+     * key大于全树最后一个关键码时直接追加到最右侧叶子节点。
+     * <p>不上溢、无需维护路径上的数量与聚合且叶子节点的索引不变时只修改该叶子节点，代价为O(1)；
+     * 否则沿每层最后一个分支获取路径，这一过程无需比较关键码，因此平均每m/2次追加才需要一次路径获取与分裂。
+     * 开启偏右分裂后为每m-1次，见{@link #setRightBiasedSplit(boolean)}。
+     *
+     * @param root
+     * @param key
+     * @param value
+     * @return true-已追加，false-key不大于最后一个关键码。
+     */
+    boolean tryAppend(Node root, K key, V value) {
+        LeafNode tail = this.tail;
+        if (tail == null || tail.next != null || tail.size == 0) {
+            tail = this.tail = lastLeaf(root);
+        }
+        K lastKey = tail.keys[tail.size-1];
+        // 关键码相同时新值排在前面，不能追加。
+        if (key.compareTo(lastKey) <= 0) {
+            return false;
+        }
+
+        // 叶子节点中的关键码都与前一叶子节点的最后关键码相同时索引为空，追加后索引会改变。
+        boolean indexUnchanged = tail.prev == null || tail.keys[0].compareTo(lastKey) != 0
+                || tail.prev.keys[tail.prev.size-1].compareTo(lastKey) != 0;
+        if (tail.size < m-1 && !orderStatistics && aggregator == null && indexUnchanged) {
+            insertAt(tail, tail.size, key, value);
+            return true;
+        }
+
+        Path path = this.path;
+        path.depth = 0;
+        for (Node node = root; node instanceof BPlusTree.InternalNode; ) {
+            @SuppressWarnings("unchecked")
+            InternalNode internal = (InternalNode) node;
+            path.push(internal, internal.size-1);
+            node = internal.children[internal.size-1];
+        }
+        insertAt(tail, tail.size, key, value);
+        summarizePath(path, 1);
+        tryUpdateIndexKeyAfterInsert(path);
+        appending = rightBiasedSplit;
+        try {
+            trySolveOverflow(tail, path, path.depth);
+        } finally {
+            appending = false;
+        }
+        return true;
+    }
+
+    /**
+     * 插入位置r+1或r上是墓碑时，用插入的关键码与值覆盖该墓碑，覆盖后关键码仍然有序，且新值位于相同关键码的最前面。
+     * <p>覆盖相当于先删除墓碑再插入，叶子节点的元素数量不变，因此只需重新计算该叶子节点（覆盖最后一个元素时还有后一个叶子节点）的索引，
+     * 子树元素数量不包括墓碑，沿路径加1。
+     *
+     * @param node
+     * @param r
+     * @param key
+     * @param value
+     * @param path
+     * @return true-复用了墓碑，false-插入位置附近没有墓碑。
+     */
+    boolean reuseTombstone(LeafNode node, int r, K key, V value, Path path) {
+        int i;
+        if (r+1 < node.size && node.values[r+1] == TOMBSTONE) {
+            i = r+1;
+        } else if (r >= 0 && node.values[r] == TOMBSTONE) {
+            i = r;
+        } else {
+            return false;
+        }
+
+        preserve(node);
+        node.keys[i] = key;
+        node.values[i] = value;
+        tombstones--;
+        summarizePath(path, 1);
+        tryUpdateIndexKeyAfterDelete(path, i == node.size-1 && node.next != null);
+        return true;
+    }
+
+    /**
+     * M3.删除。
+     * <p>删除关键码为key的节点，并返回被删除的值。
+     * 由于当前B+树实现约束中不支持存放空的值，因此一旦返回null则表明关键码key在当前B树中不存在。
+     *
+     * @param key
+     * @return
+     */
+    public V delete(K key) {
+        TreeListener listener = this.listener;
+        if (listener == null) {
+            return doDelete(key);
+        }
+        long start = System.nanoTime();
+        V deleted = doDelete(key);
+        listener.onDelete(System.nanoTime() - start);
+        return deleted;
+    }
+
+    V doDelete(K key) {
+        Objects.requireNonNull(key, "Key cannot be null.");
+
+        if (bufferCapacity > 0 && root instanceof BPlusTree.InternalNode) {
+            // 删除需要返回被删除的值，因此先搜索，关键码不存在时无需产生消息。
+            V value = doSearch(key);
+            if (value != null) {
+                addMessage(key, null);
+            }
+            return value;
+        }
+        if (lazyDeletion) {
+            return markDeleted(key);
+        }
+        return applyDelete(key);
+    }
+
+    /**
+     * 将关键码为key的首个未被删除的值替换为墓碑，叶子节点的结构与索引保持不变，子树元素数量与聚合值则沿下降路径立即扣除被删除的值。
+     *
+     * @param key
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    V markDeleted(K key) {
+        Node root = this.root;
+        if (root == null) {
+            return null;
+        }
+
+        Path path = this.path;
+        LeafNode node = searchLeaf(root, key, path);
+        int i = littleLess(node.keys, node.size, key)+1;
+        while (true) {
+            if (i == node.size) {
+                if (node.next == null) {
+                    return null;
+                }
+                node = node.next;
+                path.advance();
+                i = 0;
+            }
+            if (node.keys[i].compareTo(key) != 0) {
+                return null;
+            }
+            if (node.values[i] != TOMBSTONE) {
+                break;
+            }
+            i++;
+        }
+
+        preserve(node);
+        V deletedValue = node.values[i];
+        node.values[i] = (V) TOMBSTONE;
+        tombstones++;
+        summarizePath(path, -1);
+        return deletedValue;
+    }
+
+    /**
+     * 将删除直接作用于叶子节点。
+     *
+     * @param key
+     * @return
+     */
+    V applyDelete(K key) {
+        // 首先处理树为空的情况
+        Node root = this.root;
+        if (root == null) {
+            return null;
+        }
+
+        // 定位删除点
+        Path path = this.path;
+        LeafNode node = searchLeaf(root, key, path);
+        int r = littleLess(node.keys, node.size, key);
+        // 处理关键码不存在的情况
+        if (r+1 >= node.size || node.keys[r+1].compareTo(key) > 0) {
+            return null;
+        }
+
+        boolean shouldTryUpdateNextLeafNodeIndexKey = r+2 == node.size && node.next != null;
+        // 删除
+        V deletedValue = removeAt(node, r+1);
+        summarizePath(path, -1);
+        // 尝试更新索引
+        tryUpdateIndexKeyAfterDelete(path, shouldTryUpdateNextLeafNodeIndexKey);
+        // 尝试解决下溢
+        trySolveUnderflow(node, path, path.depth);
+
+        return deletedValue;
+    }
+
+    /**
+     * M4.范围遍历。
+     * <p>按升序惰性遍历关键码位于from与to之间的键值对，重复关键码按照search的可见顺序依次返回。
+     * from或to为null表示对应方向无界。
+     * 仅在起点处执行一次A6，此后沿叶子节点的next指针逐个返回，不会构造中间集合。
+     * 遍历期间修改B+树的行为是未定义的。
+     *
+     * @param from
+     * @param fromInclusive
+     * @param to
+     * @param toInclusive
+     * @return
+     */
+    public Iterator<Map.Entry<K, V>> range(K from, boolean fromInclusive, K to, boolean toInclusive) {
+        flush();
+        RangeIterator iter = new RangeIterator(true, to, toInclusive);
+        if (from == null) {
+            iter.seekFirst();
+        } else {
+            iter.seekCeiling(from, fromInclusive);
+        }
+        return iter;
+    }
+
+    /**
+     * M4.范围遍历。
+     * <p>按降序惰性遍历关键码位于from与to之间的键值对，返回顺序与{@link #range(Comparable, boolean, Comparable, boolean)}恰好相反。
+     *
+     * @param from
+     * @param fromInclusive
+     * @param to
+     * @param toInclusive
+     * @return
+     */
+    public Iterator<Map.Entry<K, V>> descendingRange(K from, boolean fromInclusive, K to, boolean toInclusive) {
+        flush();
+        RangeIterator iter = new RangeIterator(false, from, fromInclusive);
+        if (to == null) {
+            iter.seekLast();
+        } else {
+            iter.seekFloor(to, toInclusive);
+        }
+        return iter;
+    }
+
+    /**
+     * 按升序遍历全部键值对。
+     *
+     * @return
+     */
+    public Iterator<Map.Entry<K, V>> ascending() {
+        return range(null, true, null, true);
+    }
+
+    /**
+     * 按降序遍历全部键值对。
+     *
+     * @return
+     */
+    public Iterator<Map.Entry<K, V>> descending() {
+        return descendingRange(null, true, null, true);
+    }
+
+    /**
+     * 沿叶子节点兄弟指针双向移动的范围迭代器。
+     */
+    class RangeIterator implements Iterator<Map.Entry<K, V>> {
+
+        /**
+         * true-沿next升序遍历，false-沿prev降序遍历。
+         */
+        final boolean ascending;
+
+        /**
+         * 遍历终点，为null表示无界。
+         */
+        final K bound;
+
+        /**
+         * 终点是否包含在遍历范围内。
+         */
+        final boolean boundInclusive;
+
+        /**
+         * 下一个元素所在叶子节点，为null表示遍历结束。
+         */
+        LeafNode leaf;
+
+        /**
+         * 下一个元素在leaf中的下标。
+         */
+        int index;
+
+        RangeIterator(boolean ascending, K bound, boolean boundInclusive) {
+            this.ascending = ascending;
+            this.bound = bound;
+            this.boundInclusive = boundInclusive;
+        }
+
+        /**
+         * 定位到全树首个元素。
+         */
+        void seekFirst() {
+            if (root != null) {
+                leaf = firstLeaf(root);
+                index = 0;
+            }
+            normalize();
+        }
+
+        /**
+         * 定位到全树最后一个元素。
+         */
+        void seekLast() {
+            if (root != null) {
+                leaf = lastLeaf(root);
+                index = leaf.size-1;
+            }
+            normalize();
+        }
+
+        /**
+         * 定位到首个大于等于（inclusive为true）或大于key的元素。
+         *
+         * @param key
+         * @param inclusive
+         */
+        void seekCeiling(K key, boolean inclusive) {
+            if (root != null) {
+                leaf = searchLeaf(root, key);
+                index = seekIndex(leaf, key, inclusive);
+                // 排除key时需要越过可能跨越多个叶子节点的重复关键码。
+                while (index == leaf.size && leaf.next != null) {
+                    leaf = leaf.next;
+                    index = seekIndex(leaf, key, inclusive);
+                }
+            }
+            normalize();
+        }
+
+        int seekIndex(LeafNode leaf, K key, boolean inclusive) {
+            return (inclusive ? littleLess(leaf.keys, leaf.size, key) : littleLessOrEqual(leaf.keys, leaf.size, key)) + 1;
+        }
+
+        /**
+         * 定位到最后一个小于等于（inclusive为true）或小于key的元素。
+         *
+         * @param key
+         * @param inclusive
+         */
+        void seekFloor(K key, boolean inclusive) {
+            if (root != null) {
+                // A6定位到的是key可能存在的最左侧叶子节点，其前一叶子节点中的关键码均小于key。
+                leaf = searchLeaf(root, key);
+                if (inclusive) {
+                    index = littleLessOrEqual(leaf.keys, leaf.size, key);
+                    while (index == leaf.size-1 && leaf.next != null && leaf.next.keys[0].compareTo(key) <= 0) {
+                        leaf = leaf.next;
+                        index = littleLessOrEqual(leaf.keys, leaf.size, key);
+                    }
+                } else {
+                    index = littleLess(leaf.keys, leaf.size, key);
+                }
+            }
+            normalize();
+        }
+
+        /**
+         * 越过叶子节点边界时沿兄弟指针跳转，跳过墓碑，越过终点时结束遍历。
+         */
+        void normalize() {
+            while (true) {
+                if (ascending) {
+                    while (leaf != null && index >= leaf.size) {
+                        leaf = leaf.next;
+                        index = 0;
+                    }
+                } else {
+                    while (leaf != null && index < 0) {
+                        leaf = leaf.prev;
+                        index = leaf == null ? 0 : leaf.size-1;
+                    }
+                }
+                if (leaf == null || leaf.values[index] != TOMBSTONE) {
+                    break;
+                }
+                index += ascending ? 1 : -1;
+            }
+            if (leaf != null && bound != null) {
+                int c = leaf.keys[index].compareTo(bound);
+                if (ascending ? c > 0 : c < 0) {
+                    leaf = null;
+                } else if (c == 0 && !boundInclusive) {
+                    leaf = null;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return leaf != null;
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (leaf == null) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<K, V> entry = new AbstractMap.SimpleImmutableEntry<>(leaf.keys[index], leaf.values[index]);
+            advance();
+            return entry;
+        }
+
+        /**
+         * 移动到下一个元素。
+         */
+        void advance() {
+            index += ascending ? 1 : -1;
+            normalize();
+        }
+
+    }
+
+    /**
+     * 只返回值的迭代器，避免为每个元素构造键值对。
+     */
+    class ValueIterator implements Iterator<V> {
+
+        final RangeIterator iter;
+
+        ValueIterator(RangeIterator iter) {
+            this.iter = iter;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iter.hasNext();
+        }
+
+        @Override
+        public V next() {
+            if (!iter.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            V value = iter.leaf.values[iter.index];
+            iter.advance();
+            return value;
+        }
+
+    }
+
+    /**
+     * M5.搜索全部。
+     * <p>惰性返回关键码key所对应的全部值，顺序与逐次调用search与delete所观察到的顺序一致。
+     * 通过A6定位到首个key后沿叶子链表遍历重复关键码，遍历期间修改B+树的行为是未定义的。
+     *
+     * @param key
+     * @return
+     */
+    public Iterator<V> searchAll(K key) {
+        Objects.requireNonNull(key, "Key cannot be null.");
+
+        flush();
+        RangeIterator iter = new RangeIterator(true, key, true);
+        iter.seekCeiling(key, true);
+        return new ValueIterator(iter);
+    }
+
+    /**
+     * M5.搜索全部。
+     * <p>统计关键码key所对应值的数量，在每个叶子节点中使用二分查找确定重复关键码区间，无需逐个访问。
+     * 开启顺序统计时直接通过子树元素数量计算，无需遍历重复关键码所在的叶子节点。
+     *
+     * @param key
+     * @return
+     */
+    public int count(K key) {
+        Objects.requireNonNull(key, "Key cannot be null.");
+
+        flush();
+        Node root = this.root;
+        if (root == null) {
+            return 0;
+        }
+        if (orderStatistics) {
+            return position(key, true) - position(key, false);
+        }
+
+        LeafNode node = searchLeaf(root, key);
+        int lo = littleLess(node.keys, node.size, key) + 1;
+        int count = 0;
+        while (node != null) {
+            int hi = littleLessOrEqual(node.keys, node.size, key) + 1;
+            count += hi - lo;
+            if (tombstones > 0) {
+                for (int i = lo; i < hi; i++) {
+                    if (node.values[i] == TOMBSTONE) {
+                        count--;
+                    }
+                }
+            }
+            if (hi < node.size) {
+                break;
+            }
+            // 重复关键码可能延续到下一个叶子节点，其中的关键码均不小于key。
+            node = node.next;
+            lo = 0;
+        }
+        return count;
+    }
+
+    /**
+     * M6.删除全部。
+     * <p>删除关键码为key的全部节点，并返回被删除的数量。
+     * 每次通过A6定位到重复关键码所在的叶子节点后一次性移除该叶子中的整段关键码，
+     * 因此索引更新与下溢处理按叶子节点而非按关键码执行。
+     *
+     * @param key
+     * @return
+     */
+    public int deleteAll(K key) {
+        Objects.requireNonNull(key, "Key cannot be null.");
+
+        flush();
+        int deleted = 0;
+        Path path = this.path;
+        Node root;
+        while ((root = this.root) != null) {
+            // 定位删除区间
+            LeafNode node = searchLeaf(root, key, path);
+            int lo = littleLess(node.keys, node.size, key) + 1;
+            int hi = littleLessOrEqual(node.keys, node.size, key) + 1;
+            // 关键码已不存在
+            if (lo >= hi) {
+                break;
+            }
+
+            boolean shouldTryUpdateNextLeafNodeIndexKey = hi == node.size && node.next != null;
+            // 删除，区间中的墓碑一并移除，但不计入删除数量。
+            int live = liveCount(node, lo, hi);
+            tombstones -= hi - lo - live;
+            removeRange(node, lo, hi);
+            summarizePath(path, -live);
+            deleted += live;
+            // 尝试更新索引
+            tryUpdateIndexKeyAfterDelete(path, shouldTryUpdateNextLeafNodeIndexKey);
+            // 尝试解决下溢
+            trySolveUnderflow(node, path, path.depth);
+        }
+        return deleted;
+    }
+
+    /**
+     * M7.批量构建。
+     * <p>从按关键码升序排列的键值对构建一棵m阶B+树，重复关键码保持输入顺序，search返回其中首个值。
+     * 叶子节点按照fillFactor填充并依次链接，随后自底向上逐层构建内部节点，整个过程只需线性扫描一次输入。
+     *
+     * @param sorted 按关键码升序排列的键值对。
+     * @param m 阶次。
+     * @param fillFactor 节点填充率，取值范围(0, 1]，实际填充数量不会低于节点的下溢界限。
+     * @return
+     */
+    public static <K extends Comparable<K>, V> BPlusTree<K, V> bulkLoad(Iterator<? extends Map.Entry<? extends K, ? extends V>> sorted, int m, double fillFactor) {
+        return bulkLoad(sorted, m, fillFactor, false);
+    }
+
+    /**
+     * M7.批量构建。
+     * <p>与{@link #bulkLoad(Iterator, int, double)}相同，orderStatistics指定是否维护子树元素数量。
+     *
+     * @param sorted 按关键码升序排列的键值对。
+     * @param m 阶次。
+     * @param fillFactor 节点填充率，取值范围(0, 1]，实际填充数量不会低于节点的下溢界限。
+     * @param orderStatistics 是否维护子树元素数量。
+     * @return
+     */
+    public static <K extends Comparable<K>, V> BPlusTree<K, V> bulkLoad(Iterator<? extends Map.Entry<? extends K, ? extends V>> sorted, int m, double fillFactor, boolean orderStatistics) {
+        Objects.requireNonNull(sorted, "Iterator cannot be null.");
+        if (!(fillFactor > 0 && fillFactor <= 1)) {
+            throw new IllegalArgumentException("Fill factor must be in (0, 1].");
+        }
+
+        BPlusTree<K, V> bpTree = new BPlusTree<>(m, orderStatistics);
+        bpTree.root = bpTree.buildBottomUp(sorted, fillFactor);
+        return bpTree;
+    }
+
+    /**
+     * 自底向上构建B+树，返回根节点。
+     *
+     * @param sorted
+     * @param fillFactor
+     * @return
+     */
+    Node buildBottomUp(Iterator<? extends Map.Entry<? extends K, ? extends V>> sorted, double fillFactor) {
+        int leafFill = fillCount(m-1, Math.max(1, (m+1)/2-1), fillFactor);
+        List<Node> level = new ArrayList<>();
+        LeafNode leaf = null;
+        K lastKey = null;
+        while (sorted.hasNext()) {
+            Map.Entry<? extends K, ? extends V> entry = sorted.next();
+            K key = Objects.requireNonNull(entry.getKey(), "Key cannot be null.");
+            V value = Objects.requireNonNull(entry.getValue(), "Value cannot be null.");
+            if (lastKey != null && lastKey.compareTo(key) > 0) {
+                throw new IllegalArgumentException("Input is not sorted.");
+            }
+            if (leaf == null || leaf.size == leafFill) {
+                LeafNode newLeaf = newLeafNode(leaf, null);
+                if (leaf != null) {
+                    leaf.next = newLeaf;
+                }
+                leaf = newLeaf;
+                level.add(leaf);
+            }
+            leaf.keys[leaf.size] = key;
+            leaf.values[leaf.size] = value;
+            leaf.size++;
+            lastKey = key;
+        }
+
+        if (level.isEmpty()) {
+            return null;
+        }
+
+        // 最后一个叶子节点可能下溢，与前一叶子节点合并或者均分。
+        // 此时尚未设置根节点，不能使用A3判断。
+        if (level.size() > 1 && leaf.size < (m+1)/2-1) {
+            LeafNode prev = leaf.prev;
+            int total = prev.size + leaf.size;
+            if (total <= m-1) {
+                moveTail(leaf, 0, prev);
+                prev.next = null;
+                level.remove(level.size()-1);
+            } else {
+                moveTailToHead(prev, total/2 - leaf.size, leaf);
+            }
+        }
+
+        while (level.size() > 1) {
+            level = buildInternalLevel(level, fillFactor);
+        }
+        return level.get(0);
+    }
+
+    /**
+     * 以children为子节点构建上一层内部节点，并按照A8与A9的性质设置索引。
+     *
+     * @param children
+     * @param fillFactor
+     * @return
+     */
+    List<Node> buildInternalLevel(List<Node> children, double fillFactor) {
+        int fanout = fillCount(m, Math.max(2, (m+1)/2), fillFactor);
+        List<Node> level = new ArrayList<>((children.size() + fanout - 1) / fanout);
+        InternalNode node = null;
+        for (Node child : children) {
+            if (node == null || node.size == fanout) {
+                node = newInternalNode();
+                level.add(node);
+            }
+            insertAt(node, node.size, null, child);
+        }
+
+        // 最后一个内部节点可能下溢，与前一内部节点合并或者均分。
+        if (level.size() > 1 && node.size < (m+1)/2) {
+            @SuppressWarnings("unchecked")
+            InternalNode prev = (InternalNode) level.get(level.size()-2);
+            int total = prev.size + node.size;
+            if (total <= m) {
+                moveTail(node, 0, prev);
+                level.remove(level.size()-1);
+            } else {
+                moveTailToHead(prev, total/2 - node.size, node);
+            }
+        }
+
+        // 叶子节点的索引依赖于prev，此时叶子链表已经完整，可以直接计算。
+        for (Node parent : level) {
+            @SuppressWarnings("unchecked")
+            InternalNode internal = (InternalNode) parent;
+            for (int i = 0; i < internal.size; i++) {
+                internal.keys[i] = getIndexKey(internal.children[i]);
+            }
+        }
+        return level;
+    }
+
+    /**
+     * 按照填充率计算节点填充数量，结果位于[min, max]区间。
+     *
+     * @param max
+     * @param min
+     * @param fillFactor
+     * @return
+     */
+    int fillCount(int max, int min, double fillFactor) {
+        return Math.max(min, Math.min(max, (int) Math.ceil(max * fillFactor)));
+    }
+
+    /**
+     * M8.批量插入。
+     * <p>插入一批键值对，结果与按照集合迭代顺序逐个调用insert一致。
+     * 首先将整批数据按关键码排序，此后每个目标叶子节点只执行一次A6，将落入该叶子的数据一次性归并后再执行索引更新与A10。
+     *
+     * @param entries
+     */
+    public void insertAll(Collection<? extends Map.Entry<? extends K, ? extends V>> entries) {
+        Objects.requireNonNull(entries, "Entries cannot be null.");
+
+        flush();
+        int n = entries.size();
+        K[] keys = newKeys(n);
+        V[] values = newValues(n);
+        sortBatch(entries, keys, values);
+        insertSorted(keys, values, n);
+    }
+
+    /**
+     * 将keys与values中前n个按关键码升序排列的数据逐叶子归并到B+树中，关键码相同时排在前面的数据插入后同样位于前面。
+     *
+     * @param keys
+     * @param values
+     * @param n
+     */
+    void insertSorted(K[] keys, V[] values, int n) {
+        Path path = this.path;
+        int i = 0;
+        while (i < n) {
+            // 定位插入点
+            Node root = this.root;
+            LeafNode node;
+            if (root == null) {
+                node = newLeafNode(null, null);
+                this.root = node;
+                path.depth = 0;
+            } else {
+                node = searchLeaf(root, keys[i], path);
+            }
+            // 不大于叶子末尾关键码的数据都会通过A6定位到当前叶子，最后一个叶子则接收剩余全部数据。
+            int j = node.next != null ? upperBound(keys, i, n, node.keys[node.size-1]) : n;
+            // 插入
+            mergeInto(node, keys, values, i, j);
+            summarizePath(path, j - i);
+            // 尝试更新索引
+            tryUpdateIndexKeyAfterInsert(path);
+            // 尝试解决上溢
+            trySolveOverflow(node, path, path.depth);
+            i = j;
+        }
+    }
+
+    /**
+     * 将一批键值对按关键码升序写入keys与values，关键码相同时后插入的排在前面，与逐个insert的顺序保持一致。
+     *
+     * @param entries
+     * @param keys
+     * @param values
+     */
+    void sortBatch(Collection<? extends Map.Entry<? extends K, ? extends V>> entries, K[] keys, V[] values) {
+        List<Map.Entry<? extends K, ? extends V>> sorted = new ArrayList<>(entries);
+        for (Map.Entry<? extends K, ? extends V> entry : sorted) {
+            Objects.requireNonNull(entry.getKey(), "Key cannot be null.");
+            Objects.requireNonNull(entry.getValue(), "Value cannot be null.");
+        }
+        // 稳定排序，随后翻转每段相同关键码。
+        sorted.sort((e1, e2) -> e1.getKey().compareTo(e2.getKey()));
+        int n = sorted.size();
+        for (int lo = 0, hi; lo < n; lo = hi) {
+            hi = lo + 1;
+            while (hi < n && sorted.get(hi).getKey().compareTo(sorted.get(lo).getKey()) == 0) {
+                hi++;
+            }
+            for (int k = lo; k < hi; k++) {
+                Map.Entry<? extends K, ? extends V> entry = sorted.get(lo + hi - 1 - k);
+                keys[k] = entry.getKey();
+                values[k] = entry.getValue();
+            }
+        }
+    }
+
+    /**
+     * 查找keys中[from, to)区间首个大于key的下标。
+     *
+     * @param keys
+     * @param from
+     * @param to
+     * @param key
+     * @return
+     */
+    int upperBound(K[] keys, int from, int to, K key) {
+        int lo = from, hi = to;
+        while (lo < hi) {
+            int mi = (lo + hi) >>> 1;
+            if (keys[mi].compareTo(key) <= 0) {
+                lo = mi + 1;
+            } else {
+                hi = mi;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * 将keys与values中[from, to)区间的有序数据从后向前归并到叶子节点中，关键码相同时新数据排在已有数据之前。
+     *
+     * @param node
+     * @param keys
+     * @param values
+     * @param from
+     * @param to
+     */
+    void mergeInto(LeafNode node, K[] keys, V[] values, int from, int to) {
+        int p = node.size-1;
+        int q = to-1;
+        int w = node.size + (to-from) - 1;
+        preserve(node);
+        ensureCapacity(node, w+1);
+        while (q >= from) {
+            if (p >= 0 && node.keys[p].compareTo(keys[q]) >= 0) {
+                node.keys[w] = node.keys[p];
+                node.values[w] = node.values[p];
+                p--;
+            } else {
+                node.keys[w] = keys[q];
+                node.values[w] = values[q];
+                q--;
+            }
+            w--;
+        }
+        node.size += to-from;
+    }
+
+    /**
+     * M9.批量删除。
+     * <p>删除关键码属于keys的全部节点，并返回被删除的数量，结果与对每个关键码调用deleteAll一致。
+     * 首先将关键码排序去重，此后每个目标叶子节点只执行一次A6，一次性移除其中全部待删除的关键码后再执行索引更新与A11。
+     *
+     * @param keys
+     * @return
+     */
+    public int deleteAll(Collection<? extends K> keys) {
+        Objects.requireNonNull(keys, "Keys cannot be null.");
+
+        flush();
+        K[] sorted = sortDistinct(keys);
+        int n = sorted.length;
+        int deleted = 0;
+        Path path = this.path;
+        int i = 0;
+        Node root;
+        while (i < n && (root = this.root) != null) {
+            // 定位删除点
+            LeafNode node = searchLeaf(root, sorted[i], path);
+            K lastKey = node.keys[node.size-1];
+            boolean hasNext = node.next != null;
+            int j = hasNext ? upperBound(sorted, i, n, lastKey) : n;
+
+            // 删除
+            int size = node.size;
+            int removed = removeKeys(node, sorted, i, j);
+            if (node.size < size) {
+                summarizePath(path, -removed);
+                deleted += removed;
+                boolean shouldTryUpdateNextLeafNodeIndexKey = hasNext && (node.size == 0 || node.keys[node.size-1].compareTo(lastKey) != 0);
+                // 尝试更新索引
+                tryUpdateIndexKeyAfterDelete(path, shouldTryUpdateNextLeafNodeIndexKey);
+                // 尝试解决下溢
+                trySolveUnderflow(node, path, path.depth);
+            }
+
+            // 与叶子末尾相同的关键码可能延续到后续叶子节点，需要重新定位处理。
+            i = hasNext && sorted[j-1].compareTo(lastKey) == 0 ? j-1 : j;
+        }
+        return deleted;
+    }
+
+    /**
+     * 对关键码排序去重。
+     *
+     * @param keys
+     * @return
+     */
+    K[] sortDistinct(Collection<? extends K> keys) {
+        K[] sorted = newKeys(keys.size());
+        int n = 0;
+        for (K key : keys) {
+            sorted[n++] = Objects.requireNonNull(key, "Key cannot be null.");
+        }
+        Arrays.sort(sorted, 0, n);
+        int distinct = 0;
+        for (int i = 0; i < n; i++) {
+            if (distinct == 0 || sorted[distinct-1].compareTo(sorted[i]) != 0) {
+                sorted[distinct++] = sorted[i];
+            }
+        }
+        return Arrays.copyOf(sorted, distinct);
+    }
+
+    /**
+     * 移除叶子节点中关键码属于有序关键码区间keys[from, to)的全部元素，墓碑一并移除，返回其中未被删除的元素数量。
+     *
+     * @param node
+     * @param keys
+     * @param from
+     * @param to
+     * @return
+     */
+    int removeKeys(LeafNode node, K[] keys, int from, int to) {
+        preserve(node);
+        int w = 0;
+        int q = from;
+        int dead = 0;
+        for (int r = 0; r < node.size; r++) {
+            K k = node.keys[r];
+            while (q < to && keys[q].compareTo(k) < 0) {
+                q++;
+            }
+            if (q < to && keys[q].compareTo(k) == 0) {
+                if (node.values[r] == TOMBSTONE) {
+                    dead++;
+                }
+                continue;
+            }
+            node.keys[w] = k;
+            node.values[w] = node.values[r];
+            w++;
+        }
+        tombstones -= dead;
+        int removed = node.size-w-dead;
+        Arrays.fill(node.keys, w, node.size, null);
+        Arrays.fill(node.values, w, node.size, null);
+        node.size = w;
+        return removed;
+    }
+
+    /**
+     * M10.快照。
+     * <p>以O(1)的代价返回当前时刻的只读视图，此后对B+树的修改对快照不可见。
+     * 快照只记录根节点与纪元，节点在快照创建后首次被修改时才将修改前的内容冻结（见{@link #preserve(Node)}），
+     * 因此快照占用的额外内存与其存活期间被修改的节点数量成正比。
+     * 快照沿根到叶子的路径遍历而不使用叶子节点的兄弟指针，可以在其它线程中与修改并发读取，但创建快照与修改必须是互斥的。
+     * 快照使用完毕后应调用{@link Snapshot#close()}释放，未释放的快照会使被修改节点的历史内容一直保留。
+     *
+     * @return
+     */
+    public Snapshot snapshot() {
+        flush();
+        Snapshot snapshot = new Snapshot(root, epoch);
+        synchronized (snapshots) {
+            snapshots.add(epoch);
+            liveSnapshots = snapshots.size();
+        }
+        epoch++;
+        return snapshot;
+    }
+
+    /**
+     * B+树在某一纪元的只读视图。
+     */
+    public class Snapshot implements AutoCloseable {
+
+        final Node root;
+
+        /**
+         * 快照的纪元。
+         */
+        final long epoch;
+
+        volatile boolean closed;
+
+        Snapshot(Node root, long epoch) {
+            this.root = root;
+            this.epoch = epoch;
+        }
+
+        /**
+         * 搜索快照中关键码key所对应的值，语义与{@link BPlusTree#search(Comparable)}一致。
+         *
+         * @param key
+         * @return
+         */
+        public V search(K key) {
+            Objects.requireNonNull(key, "Key cannot be null.");
+
+            SnapshotIterator iter = new SnapshotIterator(this, key, true);
+            iter.seek(key, true);
+            return iter.hasNext() ? iter.leaf.values[iter.index] : null;
+        }
+
+        /**
+         * 按升序惰性遍历快照中关键码位于from与to之间的键值对，语义与{@link BPlusTree#range(Comparable, boolean, Comparable, boolean)}一致。
+         *
+         * @param from
+         * @param fromInclusive
+         * @param to
+         * @param toInclusive
+         * @return
+         */
+        public Iterator<Map.Entry<K, V>> range(K from, boolean fromInclusive, K to, boolean toInclusive) {
+            SnapshotIterator iter = new SnapshotIterator(this, to, toInclusive);
+            iter.seek(from, fromInclusive);
+            return iter;
+        }
+
+        /**
+         * 按升序遍历快照中的全部键值对。
+         *
+         * @return
+         */
+        public Iterator<Map.Entry<K, V>> ascending() {
+            return range(null, true, null, true);
+        }
+
+        void checkOpen() {
+            if (closed) {
+                throw new IllegalStateException("Snapshot is closed.");
+            }
+        }
+
+        /**
+         * 释放快照，被修改节点中只有该快照需要的历史内容会在下次修改时丢弃。
+         */
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            synchronized (snapshots) {
+                snapshots.remove(epoch);
+                liveSnapshots = snapshots.size();
+            }
+        }
+
+    }
+
+    /**
+     * 快照的范围迭代器，通过记录根到当前叶子的路径移动到下一个叶子节点。
+     */
+    class SnapshotIterator implements Iterator<Map.Entry<K, V>> {
+
+        final Snapshot snapshot;
+
+        /**
+         * 遍历终点，为null表示无界。
+         */
+        final K bound;
+
+        final boolean boundInclusive;
+
+        /**
+         * path[i]为路径上第i层的内部节点内容，pos[i]为路径在其中经过的分支下标。
+         */
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        FrozenNode[] path = (FrozenNode[]) new BPlusTree.FrozenNode[8];
+
+        int[] pos = new int[8];
+
+        int depth;
+
+        /**
+         * 下一个元素所在叶子节点的内容，为null表示遍历结束。
+         */
+        FrozenNode leaf;
+
+        int index;
+
+        SnapshotIterator(Snapshot snapshot, K bound, boolean boundInclusive) {
+            this.snapshot = snapshot;
+            this.bound = bound;
+            this.boundInclusive = boundInclusive;
+        }
+
+        /**
+         * 定位到首个大于等于（inclusive为true）或大于key的元素，key为null时定位到首个元素。
+         *
+         * @param key
+         * @param inclusive
+         */
+        void seek(K key, boolean inclusive) {
+            snapshot.checkOpen();
+            if (snapshot.root != null) {
+                descend(snapshot.root, key);
+                if (key != null) {
+                    index = seekIndex(key, inclusive);
+                    // 与A5相同，key大于叶子节点全部关键码时移动到后续叶子节点，重复关键码可能跨越多个叶子节点。
+                    while (index == leaf.size && nextLeaf()) {
+                        index = seekIndex(key, inclusive);
+                    }
+                }
+            }
+            normalize();
+        }
+
+        int seekIndex(K key, boolean inclusive) {
+            return (inclusive ? littleLess(leaf.keys, leaf.size, key) : littleLessOrEqual(leaf.keys, leaf.size, key)) + 1;
+        }
+
+        /**
+         * 从node下降到叶子节点并记录路径，key为null时沿最左侧分支下降。
+         */
+        void descend(Node node, K key) {
+            while (true) {
+                FrozenNode frozen = frozenAt(node, snapshot.epoch);
+                if (frozen.isLeaf()) {
+                    leaf = frozen;
+                    index = 0;
+                    return;
+                }
+                int i = key == null ? 0 : locateChildIndex(frozen.keys, frozen.size, key);
+                if (depth == path.length) {
+                    path = Arrays.copyOf(path, depth << 1);
+                    pos = Arrays.copyOf(pos, depth << 1);
+                }
+                path[depth] = frozen;
+                pos[depth] = i;
+                depth++;
+                node = frozen.children[i];
+            }
+        }
+
+        /**
+         * 沿路径回溯到下一个叶子节点，不存在时结束遍历并返回false。
+         */
+        boolean nextLeaf() {
+            while (depth > 0 && pos[depth-1] + 1 >= path[depth-1].size) {
+                depth--;
+            }
+            if (depth == 0) {
+                leaf = null;
+                return false;
+            }
+            descend(path[depth-1].children[++pos[depth-1]], null);
+            return true;
+        }
+
+        /**
+         * 跳过墓碑，越过叶子节点边界时移动到下一个叶子节点，越过终点时结束遍历。
+         */
+        void normalize() {
+            while (leaf != null && (index >= leaf.size || leaf.values[index] == TOMBSTONE)) {
+                if (index >= leaf.size) {
+                    nextLeaf();
+                } else {
+                    index++;
+                }
+            }
+            if (leaf != null && bound != null) {
+                int c = leaf.keys[index].compareTo(bound);
+                if (c > 0 || (c == 0 && !boundInclusive)) {
+                    leaf = null;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return leaf != null;
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (leaf == null) {
+                throw new NoSuchElementException();
+            }
+            snapshot.checkOpen();
+            Map.Entry<K, V> entry = new AbstractMap.SimpleImmutableEntry<>(leaf.keys[index], leaf.values[index]);
+            index++;
+            normalize();
+            return entry;
+        }
+
+    }
+
+    /**
+     * M11.并行遍历。
+     * <p>返回按升序覆盖关键码位于from与to之间键值对的可分割迭代器，from或to为null表示对应方向无界。
+     * 分割沿内部节点的分支进行：未开始遍历时迭代器表示某个节点中连续的一段分支，分割时取走前一半分支，
+     * 仅剩一个分支时下降到该分支继续分割，因此每个分割结果都是若干完整子树对应的连续叶子节点，可以独立遍历而无需沿next协调。
+     * 遍历期间修改B+树的行为是未定义的。
+     *
+     * @param from
+     * @param fromInclusive
+     * @param to
+     * @param toInclusive
+     * @return
+     */
+    public Spliterator<Map.Entry<K, V>> spliterator(K from, boolean fromInclusive, K to, boolean toInclusive) {
+        flush();
+        return new TreeSpliterator(root, from, fromInclusive, to, toInclusive);
+    }
+
+    /**
+     * 返回覆盖全部键值对的可分割迭代器。
+     *
+     * @return
+     */
+    public Spliterator<Map.Entry<K, V>> spliterator() {
+        return spliterator(null, true, null, true);
+    }
+
+    /**
+     * 按升序返回关键码位于from与to之间的键值对流，调用parallel()后按子树并行处理。
+     *
+     * @param from
+     * @param fromInclusive
+     * @param to
+     * @param toInclusive
+     * @return
+     */
+    public Stream<Map.Entry<K, V>> stream(K from, boolean fromInclusive, K to, boolean toInclusive) {
+        return StreamSupport.stream(spliterator(from, fromInclusive, to, toInclusive), false);
+    }
+
+    /**
+     * 按升序返回全部键值对的流。
+     *
+     * @return
+     */
+    public Stream<Map.Entry<K, V>> stream() {
+        return stream(null, true, null, true);
+    }
+
+    /**
+     * 按升序返回全部键值对的并行流。
+     *
+     * @return
+     */
+    public Stream<Map.Entry<K, V>> parallelStream() {
+        return stream().parallel();
+    }
+
+    /**
+     * 按子树分割的迭代器。
+     */
+    class TreeSpliterator implements Spliterator<Map.Entry<K, V>> {
+
+        final K from;
+
+        final boolean fromInclusive;
+
+        final K to;
+
+        final boolean toInclusive;
+
+        /**
+         * 尚未开始遍历时覆盖node中[lo, hi)区间的分支，node为叶子节点时覆盖整个叶子节点。
+         */
+        Node node;
+
+        int lo, hi;
+
+        /**
+         * node到叶子节点的层数，叶子节点为0。
+         */
+        int height;
+
+        /**
+         * 下一个元素所在叶子节点，为null表示尚未开始遍历或者遍历结束。
+         */
+        LeafNode leaf;
+
+        int index;
+
+        /**
+         * 遍历范围内的最后一个叶子节点。
+         */
+        LeafNode lastLeaf;
+
+        /**
+         * 已越过起点，之后的元素无需再与from比较。
+         */
+        boolean pastFrom;
+
+        boolean done;
+
+        TreeSpliterator(Node root, K from, boolean fromInclusive, K to, boolean toInclusive) {
+            this.from = from;
+            this.fromInclusive = fromInclusive;
+            this.to = to;
+            this.toInclusive = toInclusive;
+            this.pastFrom = from == null;
+            if (root == null) {
+                done = true;
+                return;
+            }
+            for (Node n = root; n instanceof BPlusTree.InternalNode; n = ((InternalNode) n).children[0]) {
+                height++;
+            }
+            bound(root);
+        }
+
+        TreeSpliterator(TreeSpliterator parent, int lo, int hi) {
+            this.from = parent.from;
+            this.fromInclusive = parent.fromInclusive;
+            this.to = parent.to;
+            this.toInclusive = parent.toInclusive;
+            this.pastFrom = parent.pastFrom;
+            this.node = parent.node;
+            this.height = parent.height;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        /**
+         * 以node的全部分支为范围，并根据from与to裁剪。
+         * <p>非空索引严格递增，不大于from的最后一个非空索引之前的分支中所有关键码都小于该索引，因此可以跳过；
+         * 大于to的首个非空索引所在分支中可能仍有延续的重复关键码，但其后分支中的关键码都大于to，因此可以跳过。
+         */
+        @SuppressWarnings("unchecked")
+        void bound(Node node) {
+            this.node = node;
+            if (!(node instanceof BPlusTree.InternalNode)) {
+                return;
+            }
+            InternalNode internal = (InternalNode) node;
+            lo = from == null ? 0 : locateChildIndex(internal.keys, internal.size, from);
+            hi = internal.size;
+            if (to != null) {
+                int r = locateChildIndex(internal.keys, internal.size, to);
+                for (int i = Math.max(r, lo) + 1; i < internal.size; i++) {
+                    if (internal.keys[i] != null && internal.keys[i].compareTo(to) > 0) {
+                        hi = i + 1;
+                        break;
+                    }
+                }
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Spliterator<Map.Entry<K, V>> trySplit() {
+            if (done || leaf != null) {
+                return null;
+            }
+            while (node instanceof BPlusTree.InternalNode && hi - lo == 1) {
+                height--;
+                bound(((InternalNode) node).children[lo]);
+            }
+            if (!(node instanceof BPlusTree.InternalNode)) {
+                return null;
+            }
+            int mid = (lo + hi) >>> 1;
+            TreeSpliterator prefix = new TreeSpliterator(this, lo, mid);
+            lo = mid;
+            return prefix;
+        }
+
+        @SuppressWarnings("unchecked")
+        void start() {
+            if (node instanceof BPlusTree.InternalNode) {
+                InternalNode internal = (InternalNode) node;
+                leaf = firstLeaf(internal.children[lo]);
+                lastLeaf = lastLeaf(internal.children[hi-1]);
+            } else {
+                leaf = lastLeaf = (LeafNode) node;
+            }
+            index = 0;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Map.Entry<K, V>> action) {
+            if (done) {
+                return false;
+            }
+            if (leaf == null) {
+                start();
+            }
+            while (true) {
+                if (index == leaf.size) {
+                    if (leaf == lastLeaf) {
+                        done = true;
+                        return false;
+                    }
+                    leaf = leaf.next;
+                    index = 0;
+                    continue;
+                }
+                K key = leaf.keys[index];
+                V value = leaf.values[index];
+                index++;
+                if (value == TOMBSTONE) {
+                    continue;
+                }
+                if (!pastFrom) {
+                    int c = key.compareTo(from);
+                    if (c < 0 || c == 0 && !fromInclusive) {
+                        continue;
+                    }
+                    pastFrom = true;
+                }
+                if (to != null) {
+                    int c = key.compareTo(to);
+                    if (c > 0 || c == 0 && !toInclusive) {
+                        done = true;
+                        return false;
+                    }
+                }
+                action.accept(new AbstractMap.SimpleImmutableEntry<>(key, value));
+                return true;
+            }
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super Map.Entry<K, V>> action) {
+            while (tryAdvance(action)) {
+            }
+        }
+
+        @Override
+        public long estimateSize() {
+            if (done) {
+                return 0;
+            }
+            if (!(node instanceof BPlusTree.InternalNode)) {
+                return leaf == null ? node.size : leaf.size - index;
+            }
+            // 按照每个节点约3m/4个分支估算。
+            double estimate = (hi - lo) * Math.pow(Math.max(m * 3 / 4.0, 2), height);
+            return estimate >= Long.MAX_VALUE ? Long.MAX_VALUE : (long) estimate;
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.ORDERED | Spliterator.NONNULL;
+        }
+
+    }
+
+    /**
+     * M12.顺序统计。
+     * <p>返回关键码小于key的元素数量，即key在升序遍历中首次出现的位置。
+     *
+     * @param key
+     * @return
+     */
+    public int rank(K key) {
+        Objects.requireNonNull(key, "Key cannot be null.");
+        requireOrderStatistics();
+
+        flush();
+        return position(key, false);
+    }
+
+    /**
+     * M12.顺序统计。
+     * <p>返回升序遍历中第k个（从0开始）键值对，沿路径按照子树元素数量选择分支。
+     *
+     * @param k
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public Map.Entry<K, V> select(int k) {
+        requireOrderStatistics();
+
+        flush();
+        Node node = root;
+        if (k < 0 || node == null || k >= total(node)) {
+            throw new IndexOutOfBoundsException("Index: " + k);
+        }
+        while (node instanceof BPlusTree.InternalNode) {
+            InternalNode internal = (InternalNode) node;
+            int i = 0;
+            while (k >= internal.counts[i]) {
+                k -= internal.counts[i];
+                i++;
+            }
+            node = internal.children[i];
+        }
+        LeafNode leaf = (LeafNode) node;
+        // 跳过墓碑，定位叶子节点中第k个未被删除的元素。
+        int i = 0;
+        while (leaf.values[i] == TOMBSTONE || k-- > 0) {
+            i++;
+        }
+        return new AbstractMap.SimpleImmutableEntry<>(leaf.keys[i], leaf.values[i]);
+    }
+
+    /**
+     * M12.顺序统计。
+     * <p>统计关键码位于from与to之间的元素数量，from或to为null表示对应方向无界。
+     *
+     * @param from
+     * @param fromInclusive
+     * @param to
+     * @param toInclusive
+     * @return
+     */
+    public int count(K from, boolean fromInclusive, K to, boolean toInclusive) {
+        requireOrderStatistics();
+
+        flush();
+        int hi = to == null ? (root == null ? 0 : total(root)) : position(to, toInclusive);
+        int lo = from == null ? 0 : position(from, !fromInclusive);
+        return Math.max(0, hi - lo);
+    }
+
+    void requireOrderStatistics() {
+        if (!orderStatistics) {
+            throw new UnsupportedOperationException("Order statistics are not enabled.");
+        }
+    }
+
+    /**
+     * 返回关键码小于key（inclusive为true时不大于key）的元素数量。
+     *
+     * @param key
+     * @param inclusive
+     * @return
+     */
+    int position(K key, boolean inclusive) {
+        if (root == null) {
+            return 0;
+        }
+        Path p = new Path();
+        int i = boundary(key, inclusive, p);
+        int position = 0;
+        for (int l = 0; l < p.depth; l++) {
+            for (int c = 0; c < p.slots[l]; c++) {
+                position += p.nodes[l].counts[c];
+            }
+        }
+        return position + liveCount(leafOf(p), 0, i);
+    }
+
+    /**
+     * 定位首个关键码不小于key（inclusive为true时大于key）的元素，将下降路径记录到p中并返回该元素在叶子节点中的下标，
+     * 不存在这样的元素时定位到最后一个叶子节点的末尾。
+     * <p>设r为A4给出的分支，j为r之后首个非空索引的分支：r之前分支中的关键码都小于children[r]的索引，因此都在边界之前；
+     * r与j之间的分支索引为空，其中只有children[r]最后关键码D的重复，children[j]也以若干个D开头，其余关键码都不小于keys[j]，因此都在边界之后。
+     * 沿A4下降到叶子节点后就能知道D是否在边界之前：叶子节点中存在不满足条件的关键码时边界就在该叶子节点中，
+     * 否则边界是D的重复之后的首个元素，它位于最深一层存在j的节点的children[j]中，从该层截断路径，沿首个非空索引的分支下降并在叶子节点中跳过D的重复即可。
+     * 每层只需一次A4与一次向右的扫描，不需要为了比较D再从每层分别下降到最右侧的叶子节点。
+     *
+     * @param key
+     * @param inclusive
+     * @param p
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    int boundary(K key, boolean inclusive, Path p) {
+        p.depth = 0;
+        Node node = root;
+        // 最深一层存在j的节点所在的层与j。
+        int level = -1, next = 0;
+        while (node instanceof BPlusTree.InternalNode) {
+            InternalNode internal = (InternalNode) node;
+            int r = locateChildIndex(internal.keys, internal.size, key);
+            int j = r+1;
+            while (j < internal.size && internal.keys[j] == null) {
+                j++;
+            }
+            if (j < internal.size) {
+                level = p.depth;
+                next = j;
+            }
+            p.push(internal, r);
+            node = internal.children[r];
+        }
+
+        LeafNode leaf = (LeafNode) node;
+        int i = leafPosition(leaf, key, inclusive);
+        if (i < leaf.size || leaf.size == 0) {
+            return i;
+        }
+        if (level < 0) {
+            // D的重复一直延续到全树末尾。
+            return descendLast(p);
+        }
+
+        K last = leaf.keys[leaf.size-1];
+        p.depth = level+1;
+        p.slots[level] = next;
+        node = p.nodes[level].children[next];
+        while (node instanceof BPlusTree.InternalNode) {
+            InternalNode internal = (InternalNode) node;
+            int c = 0;
+            while (internal.keys[c] == null) {
+                c++;
+            }
+            p.push(internal, c);
+            node = internal.children[c];
+        }
+        leaf = (LeafNode) node;
+        i = 0;
+        while (leaf.keys[i].compareTo(last) == 0) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * 将p记录为到全树首个叶子节点的路径，返回0。
+     *
+     * @param p
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    int descendFirst(Path p) {
+        p.depth = 0;
+        Node node = root;
+        while (node instanceof BPlusTree.InternalNode) {
+            InternalNode internal = (InternalNode) node;
+            p.push(internal, 0);
+            node = internal.children[0];
+        }
+        return 0;
+    }
+
+    /**
+     * 将p记录为到全树最后一个叶子节点的路径，返回该叶子节点的大小。
+     *
+     * @param p
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    int descendLast(Path p) {
+        p.depth = 0;
+        Node node = root;
+        while (node instanceof BPlusTree.InternalNode) {
+            InternalNode internal = (InternalNode) node;
+            p.push(internal, internal.size-1);
+            node = internal.children[internal.size-1];
+        }
+        return ((LeafNode) node).size;
+    }
+
+    /**
+     * 路径末端的叶子节点。
+     *
+     * @param p
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    LeafNode leafOf(Path p) {
+        return (LeafNode) (p.depth == 0 ? root : p.nodes[p.depth-1].children[p.slots[p.depth-1]]);
+    }
+
+    /**
+     * 返回叶子节点中关键码小于key（inclusive为true时不大于key）的元素数量。
+     *
+     * @param leaf
+     * @param key
+     * @param inclusive
+     * @return
+     */
+    int leafPosition(LeafNode leaf, K key, boolean inclusive) {
+        return 1 + (inclusive ? littleLessOrEqual(leaf.keys, leaf.size, key) : littleLess(leaf.keys, leaf.size, key));
+    }
+
+    /**
+     * M13.范围聚合。
+     * <p>返回关键码位于from与to之间所有值的聚合，from或to为null表示对应方向无界，需要先通过{@link #setAggregator(Aggregator)}设置聚合。
+     * 起点与终点各自沿一条边界路径下降，两条路径之间的分支直接组合缓存的聚合值，因此只需组合O(m log n)个值。
+     *
+     * @param from
+     * @param fromInclusive
+     * @param to
+     * @param toInclusive
+     * @param <A>
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public <A> A aggregate(K from, boolean fromInclusive, K to, boolean toInclusive) {
+        if (aggregator == null) {
+            throw new UnsupportedOperationException("Aggregator is not set.");
+        }
+
+        flush();
+        Node root = this.root;
+        if (root == null) {
+            return (A) aggregator.identity();
+        }
+        if (from == null && to == null) {
+            return (A) aggregateOf(root);
+        }
+        Path lo = new Path(), hi = new Path();
+        int l = from == null ? descendFirst(lo) : boundary(from, !fromInclusive, lo);
+        int h = to == null ? descendLast(hi) : boundary(to, toInclusive, hi);
+        return (A) aggregate(lo, l, hi, h);
+    }
+
+    /**
+     * 组合起点lo与终点hi之间所有值的聚合，l与h分别为二者在叶子节点中的下标。
+     * <p>两条路径在第d层分叉，起点一侧组合叶子节点中的剩余部分以及每层路径右侧的分支，终点一侧组合每层路径左侧的分支以及叶子节点中的前缀，
+     * 第d层两条路径之间的分支直接组合缓存值，组合顺序与元素的升序一致。
+     *
+     * @param lo
+     * @param l
+     * @param hi
+     * @param h
+     * @return
+     */
+    Object aggregate(Path lo, int l, Path hi, int h) {
+        int d = 0;
+        while (d < lo.depth && lo.slots[d] == hi.slots[d]) {
+            d++;
+        }
+        if (d == lo.depth) {
+            return aggregate(leafOf(lo), l, h);
+        }
+        if (lo.slots[d] > hi.slots[d]) {
+            return aggregator.identity();
+        }
+
+        LeafNode leaf = leafOf(lo);
+        Object result = aggregate(leaf, l, leaf.size);
+        for (int k = lo.depth-1; k > d; k--) {
+            for (int c = lo.slots[k]+1; c < lo.nodes[k].size; c++) {
+                result = aggregator.combine(result, lo.nodes[k].aggregates[c]);
+            }
+        }
+        for (int c = lo.slots[d]+1; c < hi.slots[d]; c++) {
+            result = aggregator.combine(result, lo.nodes[d].aggregates[c]);
+        }
+        for (int k = d+1; k < hi.depth; k++) {
+            for (int c = 0; c < hi.slots[k]; c++) {
+                result = aggregator.combine(result, hi.nodes[k].aggregates[c]);
+            }
+        }
+        return aggregator.combine(result, aggregate(leafOf(hi), 0, h));
+    }
+
+    /**
+     * 组合叶子节点中[from, to)范围内未被删除的值的聚合。
+     *
+     * @param leaf
+     * @param from
+     * @param to
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    Object aggregate(LeafNode leaf, int from, int to) {
+        Object result = aggregator.identity();
+        for (int i = from; i < to; i++) {
+            if (leaf.values[i] != TOMBSTONE) {
+                result = aggregator.combine(result, aggregator.of(leaf.values[i]));
+            }
+        }
+        return result;
+    }
 
-        Node root = this.root;
-        if (root == null) {
-            return null;
+    /**
+     * M14.写缓冲。
+     * <p>下推全部缓冲的消息，此后节点内容与逐条执行所有修改的结果一致。
+     * 开启写缓冲后，除搜索、插入与删除之外的操作都会先调用该方法，没有待处理的消息时只需一次判断。
+     */
+    public void flush() {
+        // 作用于叶子节点的修改可能将消息收回到已经遍历过的节点中，因此重复到全部消息处理完为止。
+        while (buffered > 0) {
+            flushAll(root);
         }
+    }
 
-        LeafNode node = searchLeaf(root, key);
-        int r = littleLess(node.keys, key);
-        return r+1 < node.keys.size() && node.keys.get(r+1).compareTo(key) == 0 ? node.values.get(r+1) : null;
+    /**
+     * 自顶向下下推node子树中全部缓冲的消息，遍历期间结构可能发生变化，遗漏的消息由{@link #flush()}的下一轮处理。
+     *
+     * @param node
+     */
+    @SuppressWarnings("unchecked")
+    void flushAll(Node node) {
+        if (!(node instanceof BPlusTree.InternalNode)) {
+            return;
+        }
+        InternalNode internal = (InternalNode) node;
+        flush(internal, true);
+        for (int i = 0; i < internal.size; i++) {
+            flushAll(internal.children[i]);
+        }
     }
 
     /**
-     * M2.插入。
-     * <p>向B+树中插入关键码以及对应值。
+     * 添加一条比所有已缓冲消息都新的消息，value为null表示删除。
      *
      * @param key
      * @param value
      */
-    public void insert(K key, V value) {
-        System.out.println("insert " + key + " " + value);
-        Objects.requireNonNull(key, "Key cannot be null.");
-        Objects.requireNonNull(value, "Value cannot be null.");
+    @SuppressWarnings("unchecked")
+    void addMessage(K key, V value) {
+        InternalNode root = (InternalNode) this.root;
+        root.buffer.add(key, value);
+        buffered++;
+        flush(root, false);
+    }
 
-        // 首先处理树为空的情况
-        Node root = this.root;
-        if (root == null) {
-            LeafNode newRoot = new LeafNode(null, null, null, new LinkedList<>(), new LinkedList<>());
-            newRoot.keys.add(key);
-            newRoot.values.add(value);
-            this.root = newRoot;
+    /**
+     * 下推node缓冲区中的消息，直到数量不超过容量，all为true时下推全部消息。
+     * <p>作用于叶子节点的修改可能使node被合并，此时其缓冲区已转移给兄弟节点并被清空，循环随之结束。
+     *
+     * @param node
+     * @param all
+     */
+    void flush(InternalNode node, boolean all) {
+        int limit = all ? 0 : bufferCapacity;
+        while (node.buffer.size > limit) {
+            flushChild(node, all);
+        }
+    }
+
+    /**
+     * 将node缓冲区中路由到同一分支且数量最多的一批消息下推到该分支，分支为叶子节点时直接作用。
+     *
+     * @param node
+     * @param all
+     */
+    @SuppressWarnings("unchecked")
+    void flushChild(InternalNode node, boolean all) {
+        Buffer buffer = node.buffer;
+        // 缓冲区按关键码有序，路由到同一分支的消息连续排列。
+        int best = 0, bestFrom = 0, bestTo = 0;
+        for (int from = 0; from < buffer.size; ) {
+            int i = locateChildIndex(node.keys, node.size, buffer.keys[from]);
+            int to = routedFrom(node, i+1);
+            if (to-from > bestTo-bestFrom) {
+                best = i;
+                bestFrom = from;
+                bestTo = to;
+            }
+            from = to;
+        }
+
+        Node child = node.children[best];
+        if (child instanceof BPlusTree.InternalNode) {
+            InternalNode internal = (InternalNode) child;
+            internal.buffer.merge(buffer, bestFrom, bestTo, false);
+            buffer.remove(bestFrom, bestTo);
+            flush(internal, all);
+        } else {
+            Buffer batch = new Buffer();
+            batch.merge(buffer, bestFrom, bestTo, false);
+            buffer.remove(bestFrom, bestTo);
+            apply(batch);
+        }
+    }
+
+    /**
+     * 将一批消息作用于叶子节点。
+     * <p>同一关键码的消息从旧到新依次抵消：删除优先弹出本批中更早的插入，不足时才删除叶子节点中已有的值。
+     * 抵消后剩余的插入已按关键码有序，通过M8的方式每个叶子节点只需一次A6。
+     *
+     * @param batch
+     */
+    void apply(Buffer batch) {
+        while (batch != null) {
+            buffered -= batch.size;
+            K[] keys = newKeys(batch.size);
+            V[] values = newValues(batch.size);
+            int n = 0;
+            for (int lo = 0, hi; lo < batch.size; lo = hi) {
+                hi = lo+1;
+                while (hi < batch.size && batch.keys[hi].compareTo(batch.keys[lo]) == 0) {
+                    hi++;
+                }
+                int pushed = n;
+                for (int k = lo; k < hi; k++) {
+                    if (batch.values[k] != null) {
+                        keys[n] = batch.keys[k];
+                        values[n++] = batch.values[k];
+                    } else if (n > pushed) {
+                        n--;
+                    } else {
+                        applyDelete(batch.keys[k]);
+                    }
+                }
+                // 逐个insert时后插入的值排在前面。
+                for (int l = pushed, r = n-1; l < r; l++, r--) {
+                    V value = values[l];
+                    values[l] = values[r];
+                    values[r] = value;
+                }
+            }
+            insertSorted(keys, values, n);
+            // 根节点退化为叶子节点时遗留的消息。
+            batch = orphans;
+            orphans = null;
+        }
+    }
+
+    /**
+     * 返回node缓冲区中首个路由到第i个或之后分支的消息下标，i大于0。
+     *
+     * @param node
+     * @param i
+     * @return
+     */
+    int routedFrom(InternalNode node, int i) {
+        while (i < node.size && node.keys[i] == null) {
+            i++;
+        }
+        return i < node.size ? node.buffer.lowerBound(node.keys[i]) : node.buffer.size;
+    }
+
+    /**
+     * parent中第i个分支的索引改变后，将受影响子树中不再经过原分支路由的消息收回到parent的缓冲区。
+     * <p>索引是分支中首个“新”的关键码，例如删除分支的首个关键码会使索引增大，原本路由到该分支的一段关键码改为路由到前一个非空索引的分支，
+     * 反之前一个分支也可能失去一段关键码。这些关键码小于或大于分支内的全部索引，因此相应的消息只可能位于分支的最左或最右路径上。
+     * 借用与合并时移动的分支带着所在节点中的索引，它可能与父节点中尚未更新的索引不同，因此衔接处的分支同样需要收回。
+     * 收回的消息都比parent缓冲区中相同关键码的消息更旧，之后由parent按新的索引重新下推。
+     *
+     * @param parent
+     * @param i
+     */
+    @SuppressWarnings("unchecked")
+    void rehome(InternalNode parent, int i) {
+        if (!(parent.children[i] instanceof BPlusTree.InternalNode)) {
             return;
         }
+        Buffer stranded = collectStranded(parent, i, (InternalNode) parent.children[i], true, true, null);
+        int p = i-1;
+        while (p > 0 && parent.keys[p] == null) {
+            p--;
+        }
+        if (p >= 0) {
+            stranded = collectStranded(parent, p, (InternalNode) parent.children[p], true, true, stranded);
+        }
+        if (stranded != null) {
+            parent.buffer.merge(stranded, 0, stranded.size, true);
+        }
+    }
 
-        // 定位插入点
-        LeafNode node = searchLeaf(root, key);
-        int r = littleLess(node.keys, key);
-        // 插入
-        node.keys.add(r+1, key);
-        node.values.add(r+1, value);
-        // 尝试更新索引
-        tryUpdateIndexKeyAfterInsert(node);
-        // 尝试解决上溢
-        trySolveOverflow(node);
+    /**
+     * 沿node的最左路径（low）与最右路径（high）自底向上收集不再路由到parent第i个分支的消息，按从旧到新的顺序加入stranded。
+     *
+     * @param parent
+     * @param i
+     * @param node
+     * @param low
+     * @param high
+     * @param stranded 为null时按需创建。
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    Buffer collectStranded(InternalNode parent, int i, InternalNode node, boolean low, boolean high, Buffer stranded) {
+        if (node.children[0] instanceof BPlusTree.InternalNode) {
+            // 大于全部索引的关键码路由到最后一个非空索引的分支。
+            int last = node.size-1;
+            while (last > 0 && node.keys[last] == null) {
+                last--;
+            }
+            if (last == 0) {
+                stranded = collectStranded(parent, i, (InternalNode) node.children[0], low, high, stranded);
+            } else {
+                if (low) {
+                    stranded = collectStranded(parent, i, (InternalNode) node.children[0], true, false, stranded);
+                }
+                if (high) {
+                    stranded = collectStranded(parent, i, (InternalNode) node.children[last], false, true, stranded);
+                }
+            }
+        }
+
+        Buffer buffer = node.buffer;
+        int kept = 0;
+        for (int j = 0; j < buffer.size; j++) {
+            if (locateChildIndex(parent.keys, parent.size, buffer.keys[j]) == i) {
+                buffer.keys[kept] = buffer.keys[j];
+                buffer.values[kept++] = buffer.values[j];
+            } else {
+                if (stranded == null) {
+                    stranded = new Buffer();
+                }
+                stranded.add(buffer.keys[j], buffer.values[j]);
+            }
+        }
+        Arrays.fill(buffer.keys, kept, buffer.size, null);
+        Arrays.fill(buffer.values, kept, buffer.size, null);
+        buffer.size = kept;
+        return stranded;
     }
 
     /**
-     * M3.删除。
-     * <p>删除关键码为key的节点，并返回被删除的值。
-     * 由于当前B+树实现约束中不支持存放空的值，因此一旦返回null则表明关键码key在当前B树中不存在。
+     * 根节点退化时将其缓冲区交给新的根节点，其中的消息比新根节点中的消息更新，新的根节点为叶子节点时交给正在进行的下推。
+     *
+     * @param oldRoot
+     * @param newRoot
+     */
+    @SuppressWarnings("unchecked")
+    void inheritBuffer(InternalNode oldRoot, Node newRoot) {
+        Buffer buffer = oldRoot.buffer;
+        if (buffer.size == 0) {
+            return;
+        }
+        if (newRoot instanceof BPlusTree.InternalNode) {
+            ((InternalNode) newRoot).buffer.merge(buffer, 0, buffer.size, false);
+        } else {
+            if (orphans == null) {
+                orphans = new Buffer();
+            }
+            orphans.merge(buffer, 0, buffer.size, false);
+        }
+        buffer.remove(0, buffer.size);
+    }
+
+    /**
+     * 沿路径从根节点开始检查缓冲区中关键码为key的消息，从新到旧逐条作用后得到search的结果。
+     * <p>同一关键码的值按栈的方式可见：插入压入、删除弹出、搜索返回栈顶，因此只需统计被更新的删除弹出的数量，
+     * 遇到未被弹出的插入即为结果，否则在叶子节点中跳过同样数量的重复值。
      *
+     * @param root
      * @param key
      * @return
      */
-    public V delete(K key) {
-        System.out.println("delete " + key);
-        Objects.requireNonNull(key, "Key cannot be null.");
+    @SuppressWarnings("unchecked")
+    V searchBuffered(Node root, K key) {
+        int popped = 0;
+        Node node = root;
+        while (node instanceof BPlusTree.InternalNode) {
+            InternalNode internal = (InternalNode) node;
+            Buffer buffer = internal.buffer;
+            for (int i = buffer.upperBound(key)-1; i >= 0 && buffer.keys[i].compareTo(key) == 0; i--) {
+                if (buffer.values[i] == null) {
+                    popped++;
+                } else if (popped == 0) {
+                    return buffer.values[i];
+                } else {
+                    popped--;
+                }
+            }
+            node = locateChildByKey(internal, key);
+        }
 
-        // 首先处理树为空的情况
-        Node root = this.root;
-        if (root == null) {
-            return null;
+        LeafNode leaf = locateLeafByKey((LeafNode) node, key, null);
+        int i = littleLess(leaf.keys, leaf.size, key)+1+popped;
+        while (i >= leaf.size && leaf.next != null) {
+            i -= leaf.size;
+            leaf = leaf.next;
         }
+        return i < leaf.size && leaf.keys[i].compareTo(key) == 0 ? leaf.values[i] : null;
+    }
 
-        // 定位删除点
-        LeafNode node = searchLeaf(root, key);
-        int r = littleLess(node.keys, key);
-        // 处理关键码不存在的情况
-        if (r+1 > node.keys.size() || node.keys.get(r+1).compareTo(key) > 0) {
-            return null;
+    /**
+     * M15.压缩。
+     * <p>回收延迟删除产生的全部墓碑。沿叶子链表找到含有墓碑的叶子节点，每个叶子节点只执行一次A6，
+     * 一次性移除其中全部墓碑后再执行M3中的索引更新与A11，因此合并与借用按叶子节点而非按删除次数执行。
+     * 没有墓碑时只需一次判断。
+     */
+    public void compact() {
+        Path path = this.path;
+        LeafNode leaf = tombstones > 0 ? firstLeaf(root) : null;
+        while (leaf != null && tombstones > 0) {
+            if (hasTombstone(leaf)) {
+                leaf = compact(leaf, path);
+            } else {
+                leaf = leaf.next;
+            }
+        }
+    }
+
+    boolean hasTombstone(LeafNode leaf) {
+        for (int i = 0; i < leaf.size; i++) {
+            if (leaf.values[i] == TOMBSTONE) {
+                return true;
+            }
         }
+        return false;
+    }
+
+    /**
+     * 移除leaf中的全部墓碑并解决下溢，返回之后需要继续检查的叶子节点。
+     * <p>从右兄弟借用或与右兄弟合并可能带来新的墓碑，因此仍从包含leaf原有内容的叶子节点继续检查，其左侧的叶子节点不再含有墓碑。
+     *
+     * @param leaf
+     * @param path
+     * @return
+     */
+    LeafNode compact(LeafNode leaf, Path path) {
+        locateLeaf(leaf, path);
+        K lastKey = leaf.keys[leaf.size-1];
+        boolean hasNext = leaf.next != null;
 
-        boolean shouldTryUpdateNextLeafNodeIndexKey = r+2 == node.keys.size() && node.next != null;
         // 删除
-        node.keys.remove(r+1);
-        V deletedValue = node.values.remove(r+1);
+        // 子树元素数量与聚合值在延迟删除时已经扣除，移除墓碑不改变二者。
+        int removed = removeTombstones(leaf);
+        tombstones -= removed;
+        // 叶子节点被清空时，后一叶子节点的索引需要依据解决下溢后真正的前一叶子节点计算，因此推迟到A11之后。
+        boolean emptied = leaf.size == 0 && hasNext;
+        boolean shouldTryUpdateNextLeafNodeIndexKey = hasNext && !emptied && leaf.keys[leaf.size-1].compareTo(lastKey) != 0;
         // 尝试更新索引
-        tryUpdateIndexKeyAfterDelete(node, shouldTryUpdateNextLeafNodeIndexKey);
+        tryUpdateIndexKeyAfterDelete(path, shouldTryUpdateNextLeafNodeIndexKey);
         // 尝试解决下溢
-        trySolveUnderflow(node);
+        LeafNode prev = leaf.prev;
+        trySolveUnderflow(leaf, path, path.depth);
+        // 与左兄弟合并后leaf已脱离叶子链表，其内容位于prev中。
+        LeafNode node = prev != null && prev.next != leaf ? prev : leaf;
+        if (emptied) {
+            // 借用与合并只更新父节点中的索引，不会向上传递，因此沿完整路径重新计算接收了原内容的叶子节点及其后一叶子节点的索引。
+            refreshIndexKey(node, path);
+            if (node.next != null) {
+                refreshIndexKey(node.next, path);
+            }
+        }
+        return node;
+    }
+
+    /**
+     * 沿从根节点到叶子节点leaf的路径自底向上重新计算每一层的索引。
+     * <p>中间某层的索引可能已被借用或合并更新而其上层仍未更新，因此不在未变化的层次停止。
+     *
+     * @param leaf
+     * @param path
+     */
+    void refreshIndexKey(LeafNode leaf, Path path) {
+        locateLeaf(leaf, path);
+        for (int level = path.depth; level > 0; level--) {
+            updateIndexKey(path.parent(level), path.slot(level));
+        }
+    }
+
+    /**
+     * 获取从根节点到叶子节点leaf的路径。
+     *
+     * @param leaf
+     * @param path
+     */
+    void locateLeaf(LeafNode leaf, Path path) {
+        // 重复关键码可能跨越多个叶子节点，A6定位到的是其中最左侧的叶子节点。
+        LeafNode node = searchLeaf(root, leaf.keys[0], path);
+        while (node != leaf) {
+            node = node.next;
+            path.advance();
+        }
+    }
+
+    /**
+     * 移除叶子节点中的全部墓碑，返回移除数量。
+     *
+     * @param node
+     * @return
+     */
+    int removeTombstones(LeafNode node) {
+        preserve(node);
+        int w = 0;
+        for (int r = 0; r < node.size; r++) {
+            if (node.values[r] != TOMBSTONE) {
+                node.keys[w] = node.keys[r];
+                node.values[w] = node.values[r];
+                w++;
+            }
+        }
+        int removed = node.size-w;
+        Arrays.fill(node.keys, w, node.size, null);
+        Arrays.fill(node.values, w, node.size, null);
+        node.size = w;
+        return removed;
+    }
+
+    /**
+     * M16.保存。
+     * <p>按升序将全部键值对写入out，格式见{@link #writeTo(WritableByteChannel, Codec, Codec)}，不会关闭out。
+     *
+     * @param out
+     * @param keyCodec
+     * @param valueCodec
+     * @throws IOException
+     */
+    public void writeTo(OutputStream out, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+        writeTo(Channels.newChannel(out), keyCodec, valueCodec);
+    }
+
+    /**
+     * M16.保存。
+     * <p>沿叶子链表按升序写出全部键值对，写出期间不构造中间集合也不修改B+树（写缓冲中的消息会先下推，墓碑被跳过）。
+     * 首部依次为魔数、阶次、标志位、关键码宽度、值宽度与元素数量，元素数量通过累加叶子节点的大小得到，无需额外遍历元素；
+     * 之后每条记录为定长的关键码与值编码，因此可以直接映射到内存中解码。
+     * channel为{@link FileChannel}时从其当前位置开始写出，同一文件中可以依次写入多棵树。
+     *
+     * @param channel
+     * @param keyCodec
+     * @param valueCodec
+     * @throws IOException
+     */
+    @SuppressWarnings("unchecked")
+    public void writeTo(WritableByteChannel channel, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+        Objects.requireNonNull(channel, "Channel cannot be null.");
+        Objects.requireNonNull(keyCodec, "Key codec cannot be null.");
+        Objects.requireNonNull(valueCodec, "Value codec cannot be null.");
+
+        flush();
+        Node root = this.root;
+        LeafNode first = root == null ? null : firstLeaf(root);
+        long count = -tombstones;
+        for (LeafNode leaf = first; leaf != null; leaf = leaf.next) {
+            count += leaf.size;
+        }
+
+        int keyWidth = keyCodec.width();
+        int width = keyWidth + valueCodec.width();
+        ByteBuffer buf = ByteBuffer.allocate(Math.max(HEADER, Math.max(1, IO_BUFFER_SIZE / width) * width));
+        buf.putInt(MAGIC);
+        buf.putInt(m);
+        buf.putInt(orderStatistics ? FLAG_ORDER_STATISTICS : 0);
+        buf.putInt(keyWidth);
+        buf.putInt(valueCodec.width());
+        buf.putLong(count);
+        for (LeafNode leaf = first; leaf != null; leaf = leaf.next) {
+            for (int i = 0; i < leaf.size; i++) {
+                if (leaf.values[i] == TOMBSTONE) {
+                    continue;
+                }
+                if (buf.remaining() < width) {
+                    drain(channel, buf);
+                }
+                int offset = buf.position();
+                keyCodec.write(buf, offset, leaf.keys[i]);
+                valueCodec.write(buf, offset + keyWidth, leaf.values[i]);
+                ((java.nio.Buffer) buf).position(offset + width);
+            }
+        }
+        drain(channel, buf);
+    }
+
+    static void drain(WritableByteChannel channel, ByteBuffer buf) throws IOException {
+        ((java.nio.Buffer) buf).flip();
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+        ((java.nio.Buffer) buf).clear();
+    }
+
+    /**
+     * M16.恢复。
+     * <p>从in中读取{@link #writeTo(OutputStream, Codec, Codec)}写出的数据，按照M7自底向上构建B+树，阶次与是否开启顺序统计与写出时相同。
+     * 只读取属于该树的数据，不会关闭in。
+     *
+     * @param in
+     * @param keyCodec 必须与写出时使用的编解码器相同。
+     * @param valueCodec 必须与写出时使用的编解码器相同。
+     * @param fillFactor 节点填充率，取值范围(0, 1]，见{@link #bulkLoad(Iterator, int, double)}。
+     * @return
+     * @throws IOException
+     */
+    public static <K extends Comparable<K>, V> BPlusTree<K, V> readFrom(InputStream in, Codec<K> keyCodec, Codec<V> valueCodec, double fillFactor) throws IOException {
+        Objects.requireNonNull(in, "Input stream cannot be null.");
+
+        ReadableByteChannel channel = Channels.newChannel(in);
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        while (header.hasRemaining()) {
+            if (channel.read(header) < 0) {
+                throw new EOFException();
+            }
+        }
+        return readFrom(header, channel, null, 0, keyCodec, valueCodec, fillFactor);
+    }
+
+    /**
+     * M16.恢复。
+     * <p>从channel的当前位置读取{@link #writeTo(WritableByteChannel, Codec, Codec)}写出的数据。
+     * 记录区间以只读方式映射到内存后直接解码，不经过用户空间的缓冲区复制，恢复完成后channel的位置移动到该树数据的末尾。
+     *
+     * @param channel
+     * @param keyCodec 必须与写出时使用的编解码器相同。
+     * @param valueCodec 必须与写出时使用的编解码器相同。
+     * @param fillFactor 节点填充率，取值范围(0, 1]，见{@link #bulkLoad(Iterator, int, double)}。
+     * @return
+     * @throws IOException
+     */
+    public static <K extends Comparable<K>, V> BPlusTree<K, V> readFrom(FileChannel channel, Codec<K> keyCodec, Codec<V> valueCodec, double fillFactor) throws IOException {
+        Objects.requireNonNull(channel, "Channel cannot be null.");
+
+        long position = channel.position();
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        while (header.hasRemaining()) {
+            if (channel.read(header, position + header.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        return readFrom(header, null, channel, position + HEADER, keyCodec, valueCodec, fillFactor);
+    }
+
+    /**
+     * 校验首部后自底向上构建B+树，记录从in中读取，in为null时从file的position处映射。
+     */
+    static <K extends Comparable<K>, V> BPlusTree<K, V> readFrom(ByteBuffer header, ReadableByteChannel in, FileChannel file, long position,
+                                                                  Codec<K> keyCodec, Codec<V> valueCodec, double fillFactor) throws IOException {
+        Objects.requireNonNull(keyCodec, "Key codec cannot be null.");
+        Objects.requireNonNull(valueCodec, "Value codec cannot be null.");
+        if (!(fillFactor > 0 && fillFactor <= 1)) {
+            throw new IllegalArgumentException("Fill factor must be in (0, 1].");
+        }
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException("Not a tree snapshot.");
+        }
+        if (header.getInt(12) != keyCodec.width() || header.getInt(16) != valueCodec.width()) {
+            throw new IOException("Codec widths do not match the snapshot.");
+        }
+        int m = header.getInt(4);
+        boolean orderStatistics = (header.getInt(8) & FLAG_ORDER_STATISTICS) != 0;
+        long count = header.getLong(20);
+        long length = count * (keyCodec.width() + valueCodec.width());
+        if (file != null && file.size() - position < length) {
+            throw new EOFException();
+        }
+
+        BPlusTree<K, V> bpTree = new BPlusTree<>(m, orderStatistics);
+        try {
+            bpTree.root = bpTree.buildBottomUp(bpTree.new RecordIterator(in, file, position, keyCodec, valueCodec, count), fillFactor);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (file != null) {
+            file.position(position + length);
+        }
+        return bpTree;
+    }
+
+    /**
+     * 按顺序解码保存的记录，buf中[position, limit)区间为尚未解码的数据，不足一条记录时从输入中补充。
+     */
+    class RecordIterator implements Iterator<Map.Entry<K, V>> {
+
+        final ReadableByteChannel in;
+
+        /**
+         * 不为null时通过映射补充数据。
+         */
+        final FileChannel file;
+
+        final Codec<K> keyCodec;
+
+        final Codec<V> valueCodec;
+
+        final int width;
+
+        ByteBuffer buf;
+
+        /**
+         * 下一次映射在file中的位置。
+         */
+        long position;
+
+        long remaining;
+
+        RecordIterator(ReadableByteChannel in, FileChannel file, long position, Codec<K> keyCodec, Codec<V> valueCodec, long count) {
+            this.in = in;
+            this.file = file;
+            this.position = position;
+            this.keyCodec = keyCodec;
+            this.valueCodec = valueCodec;
+            this.width = keyCodec.width() + valueCodec.width();
+            this.remaining = count;
+            if (file == null) {
+                buf = ByteBuffer.allocate(Math.max(1, IO_BUFFER_SIZE / width) * width);
+                ((java.nio.Buffer) buf).limit(0);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (remaining == 0) {
+                throw new NoSuchElementException();
+            }
+            if (buf == null || buf.remaining() < width) {
+                fill();
+            }
+            int offset = buf.position();
+            K key = keyCodec.read(buf, offset);
+            V value = valueCodec.read(buf, offset + keyCodec.width());
+            ((java.nio.Buffer) buf).position(offset + width);
+            remaining--;
+            return new AbstractMap.SimpleImmutableEntry<>(key, value);
+        }
+
+        void fill() {
+            try {
+                if (file != null) {
+                    // 单次映射不能超过2GB，按整数条记录分段映射。
+                    long size = Math.min(remaining, Integer.MAX_VALUE / width) * width;
+                    buf = file.map(FileChannel.MapMode.READ_ONLY, position, size);
+                    position += size;
+                    return;
+                }
+                buf.compact();
+                // 只读取剩余记录，避免越过该树数据的末尾，剩余记录的总长度包含已读入的部分。
+                long left = remaining * width;
+                if (left < buf.capacity()) {
+                    ((java.nio.Buffer) buf).limit((int) left);
+                }
+                while (buf.position() < width) {
+                    if (in.read(buf) < 0) {
+                        throw new EOFException();
+                    }
+                }
+                ((java.nio.Buffer) buf).flip();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
 
-        return deletedValue;
     }
 
     @SuppressWarnings("unchecked")
@@ -841,7 +4381,9 @@ public class BPlusTree<K extends Comparable<K>, V> {
             Node cur = curQueue.poll();
             builder.append(cur).append(' ');
             if (cur instanceof BPlusTree.InternalNode) {
-                for (Node child : ((InternalNode) cur).children) {
+                InternalNode internal = (InternalNode) cur;
+                for (int i = 0; i < internal.size; i++) {
+                    Node child = internal.children[i];
                     if (child != null) {
                         nextQueue.offer(child);
                     }
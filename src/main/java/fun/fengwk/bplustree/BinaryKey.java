@@ -0,0 +1,152 @@
+package fun.fengwk.bplustree;
+
+import java.util.Arrays;
+
+/**
+ * 规范化的二进制关键码，按照无符号字节的字典序比较。
+ *
+ * <p>通过{@link KeyEncoder}将任意关键码编码为保序的字节序列后，B+树中所有的比较都只是对字节数组的逐字节比较，
+ * 由于该类是final的，B+树中的compareTo调用点只会看到这一个实现，组合关键码也不再需要逐字段调用各自的compareTo。
+ *
+ * @author fengwk
+ */
+public final class BinaryKey implements Comparable<BinaryKey> {
+
+    final byte[] bytes;
+
+    /**
+     * 使用编码后的字节构造二进制关键码，调用方之后不能再修改bytes。
+     *
+     * @param bytes
+     */
+    public BinaryKey(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * 编码后的字节数量。
+     *
+     * @return
+     */
+    public int length() {
+        return bytes.length;
+    }
+
+    /**
+     * 编码后字节的副本。
+     *
+     * @return
+     */
+    public byte[] toByteArray() {
+        return bytes.clone();
+    }
+
+    @Override
+    public int compareTo(BinaryKey other) {
+        byte[] a = bytes, b = other.bytes;
+        int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; i++) {
+            int c = (a[i] & 0xff) - (b[i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof BinaryKey && Arrays.equals(bytes, ((BinaryKey) o).bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(bytes);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >>> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 二进制关键码构建器，{@link KeyEncoder}通过它追加编码。
+     */
+    public static final class Builder {
+
+        byte[] buf;
+
+        int size;
+
+        public Builder() {
+            this(16);
+        }
+
+        public Builder(int capacity) {
+            this.buf = new byte[Math.max(capacity, 1)];
+        }
+
+        void ensure(int n) {
+            if (size + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length << 1, size + n));
+            }
+        }
+
+        /**
+         * 追加一个字节。
+         *
+         * @param b
+         * @return
+         */
+        public Builder put(int b) {
+            ensure(1);
+            buf[size++] = (byte) b;
+            return this;
+        }
+
+        /**
+         * 以大端序追加long的低width个字节。
+         *
+         * @param v
+         * @param width
+         * @return
+         */
+        public Builder putBigEndian(long v, int width) {
+            ensure(width);
+            for (int i = width-1; i >= 0; i--) {
+                buf[size++] = (byte) (v >>> (i << 3));
+            }
+            return this;
+        }
+
+        /**
+         * 将from之后追加的所有字节按位取反，用于降序编码。
+         *
+         * @param from
+         */
+        void invert(int from) {
+            for (int i = from; i < size; i++) {
+                buf[i] = (byte) ~buf[i];
+            }
+        }
+
+        /**
+         * 当前已追加的字节数量。
+         *
+         * @return
+         */
+        public int size() {
+            return size;
+        }
+
+        public BinaryKey build() {
+            return new BinaryKey(Arrays.copyOf(buf, size));
+        }
+
+    }
+
+}
@@ -0,0 +1,37 @@
+package fun.fengwk.bplustree;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 定长编解码器，将对象以固定宽度写入页面或从页面中读出。
+ *
+ * @author fengwk
+ */
+public interface Codec<T> {
+
+    /**
+     * 编码后的字节宽度，所有对象的编码宽度必须相同。
+     *
+     * @return
+     */
+    int width();
+
+    /**
+     * 将value写入buf中offset开始的width()个字节。
+     *
+     * @param buf
+     * @param offset
+     * @param value
+     */
+    void write(ByteBuffer buf, int offset, T value);
+
+    /**
+     * 读取buf中offset开始的width()个字节。
+     *
+     * @param buf
+     * @param offset
+     * @return
+     */
+    T read(ByteBuffer buf, int offset);
+
+}
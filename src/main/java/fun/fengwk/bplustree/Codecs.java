@@ -0,0 +1,95 @@
+package fun.fengwk.bplustree;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 常用的定长编解码器。
+ *
+ * @author fengwk
+ */
+public class Codecs {
+
+    private Codecs() {}
+
+    /**
+     * long编解码器，占用8个字节。
+     */
+    public static final KeyCodec<Long> LONG = new KeyCodec<Long>() {
+
+        @Override
+        public int width() {
+            return Long.BYTES;
+        }
+
+        @Override
+        public void write(ByteBuffer buf, int offset, Long value) {
+            buf.putLong(offset, value);
+        }
+
+        @Override
+        public Long read(ByteBuffer buf, int offset) {
+            return buf.getLong(offset);
+        }
+
+        @Override
+        public int compare(ByteBuffer buf, int offset, Long key) {
+            return Long.compare(buf.getLong(offset), key);
+        }
+
+    };
+
+    /**
+     * int编解码器，占用4个字节。
+     */
+    public static final KeyCodec<Integer> INT = new KeyCodec<Integer>() {
+
+        @Override
+        public int width() {
+            return Integer.BYTES;
+        }
+
+        @Override
+        public void write(ByteBuffer buf, int offset, Integer value) {
+            buf.putInt(offset, value);
+        }
+
+        @Override
+        public Integer read(ByteBuffer buf, int offset) {
+            return buf.getInt(offset);
+        }
+
+        @Override
+        public int compare(ByteBuffer buf, int offset, Integer key) {
+            return Integer.compare(buf.getInt(offset), key);
+        }
+
+    };
+
+    /**
+     * double编解码器，占用8个字节。
+     */
+    public static final KeyCodec<Double> DOUBLE = new KeyCodec<Double>() {
+
+        @Override
+        public int width() {
+            return Double.BYTES;
+        }
+
+        @Override
+        public void write(ByteBuffer buf, int offset, Double value) {
+            buf.putDouble(offset, value);
+        }
+
+        @Override
+        public Double read(ByteBuffer buf, int offset) {
+            return buf.getDouble(offset);
+        }
+
+        @Override
+        public int compare(ByteBuffer buf, int offset, Double key) {
+            return Double.compare(buf.getDouble(offset), key);
+        }
+
+    };
+
+}
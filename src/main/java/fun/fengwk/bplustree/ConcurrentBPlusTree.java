@@ -0,0 +1,692 @@
+package fun.fengwk.bplustree;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * <h1>线程安全的B+树
+ * <p>在{@link BPlusTree}的基础上为每个叶子节点增加读写闩锁，并为整棵树增加一个读写闩锁。
+ *
+ * <p>当前实现中分裂、合并、借用以及索引更新都可能跨越兄弟子树（叶子节点的索引依赖前一个叶子节点，删除叶子节点最后一个关键码会更新后一个叶子节点的索引），
+ * 因此无法在下降过程中可靠地判断一个内部节点是否安全。这里将安全的判断推迟到叶子节点：
+ * <ol>
+ * <li>快速路径：持有树的共享闩锁自上而下定位叶子节点，内部节点只会在排他模式下被修改，因此下降过程中无需闩锁。
+ * 搜索获取叶子节点的共享闩锁，向右移动时先获取下一个叶子节点的闩锁再释放当前叶子节点；插入与删除获取叶子节点的排他闩锁，
+ * 如果修改只涉及该叶子节点（不上溢、不下溢、不改变该叶子节点与后一个叶子节点的索引且无需向右移动），则直接修改并释放。
+ * <li>排他路径：其余情况释放所有闩锁，持有树的排他闩锁执行{@link BPlusTree}的原始算法。
+ * </ol>
+ * 因此关键码不同的插入与删除只要落在不同的叶子节点上就可以并行执行。
+ *
+ * <p>树闩锁与叶子节点闩锁都是{@link StampedLock}，其版本号在每次获取排他闩锁时改变。搜索、升序范围遍历、搜索全部与计数不获取任何闩锁，
+ * 而是乐观地读取后校验版本号：
+ * <ol>
+ * <li>树的版本号改变说明排他路径修改了结构，从根节点重新下降。
+ * <li>只有叶子节点的版本号改变说明快速路径修改了该叶子节点，只在该叶子节点上重试。
+ * <li>叶子节点的next指针作为右链接，关键码大于叶子节点最后关键码时沿next向右移动而无需回到根节点。
+ * </ol>
+ * 乐观读取连续失败MAX_OPTIMISTIC_ATTEMPTS次后退化为获取共享闩锁，保证读取总能完成。
+ *
+ * <p>降序范围遍历与批量操作在树的排他闩锁下执行，降序范围遍历返回调用时的快照。
+ *
+ * <p>{@link #snapshot()}同样在排他路径中创建，快照可以在任意线程中与修改并发读取。
+ *
+ * @author fengwk
+ */
+public class ConcurrentBPlusTree<K extends Comparable<K>, V> extends BPlusTree<K, V> {
+
+    /**
+     * 带读写闩锁的叶子节点
+     */
+    class LatchedLeafNode extends LeafNode {
+
+        final StampedLock latch = new StampedLock();
+
+        LatchedLeafNode(LeafNode prev, LeafNode next, K[] keys, V[] values) {
+            super(prev, next, keys, values);
+        }
+
+    }
+
+    /**
+     * 快速路径无法完成操作。
+     */
+    static final Object RETRY = new Object();
+
+    /**
+     * 乐观读取的最大尝试次数，超过后获取共享闩锁读取。
+     */
+    static final int MAX_OPTIMISTIC_ATTEMPTS = 16;
+
+    /**
+     * 树闩锁，快速路径持有共享闩锁，排他路径持有排他闩锁。
+     */
+    final StampedLock treeLatch = new StampedLock();
+
+    /**
+     * 构造一棵m阶线程安全B+树。
+     *
+     * @param m
+     */
+    public ConcurrentBPlusTree(int m) {
+        super(m);
+    }
+
+    @Override
+    LeafNode newLeafNode(LeafNode prev, LeafNode next) {
+        return new LatchedLeafNode(prev, next, newKeys(m), newValues(m));
+    }
+
+    StampedLock latch(LeafNode leaf) {
+        return ((LatchedLeafNode) leaf).latch;
+    }
+
+    /**
+     * 不经过A5定位叶子节点，内部节点在快速路径中不会被修改。
+     */
+    @SuppressWarnings("unchecked")
+    LeafNode descend(Node node, K key) {
+        while (node instanceof BPlusTree.InternalNode) {
+            node = locateChildByKey((InternalNode) node, key);
+        }
+        return (LeafNode) node;
+    }
+
+    /**
+     * 定位key所在叶子节点的父节点，根节点是叶子节点时返回null。
+     */
+    @SuppressWarnings("unchecked")
+    InternalNode descendToParent(Node node, K key) {
+        InternalNode parent = null;
+        while (node instanceof BPlusTree.InternalNode) {
+            parent = (InternalNode) node;
+            node = locateChildByKey(parent, key);
+        }
+        return parent;
+    }
+
+    /* 主算法 */
+
+    @Override
+    V doSearch(K key) {
+        Objects.requireNonNull(key, "Key cannot be null.");
+
+        for (int attempt = 0; attempt < MAX_OPTIMISTIC_ATTEMPTS; attempt++) {
+            long ts = treeLatch.tryOptimisticRead();
+            if (ts == 0) {
+                // 排他路径正在修改结构。
+                Thread.yield();
+                continue;
+            }
+            try {
+                Node root = this.root;
+                if (root == null) {
+                    if (treeLatch.validate(ts)) {
+                        return null;
+                    }
+                    continue;
+                }
+                LeafNode leaf = descend(root, key);
+                // 结构未变时只在叶子层重试。
+                while (attempt < MAX_OPTIMISTIC_ATTEMPTS && treeLatch.validate(ts)) {
+                    StampedLock latch = latch(leaf);
+                    long ls = latch.tryOptimisticRead();
+                    if (ls == 0) {
+                        attempt++;
+                        Thread.yield();
+                        continue;
+                    }
+                    K[] keys = leaf.keys;
+                    int size = leaf.size;
+                    LeafNode next = leaf.next;
+                    if (key.compareTo(keys[size-1]) > 0 && next != null) {
+                        // A5，沿右链接移动。
+                        if (latch.validate(ls)) {
+                            leaf = next;
+                        } else {
+                            attempt++;
+                        }
+                        continue;
+                    }
+                    int r = littleLess(keys, size, key);
+                    V value = r+1 < size && keys[r+1].compareTo(key) == 0 ? leaf.values[r+1] : null;
+                    if (latch.validate(ls) && treeLatch.validate(ts)) {
+                        return value;
+                    }
+                    attempt++;
+                }
+            } catch (RuntimeException e) {
+                // 读取到不一致的状态，重新尝试，真实的异常会在获取共享闩锁后再次抛出。
+            }
+        }
+
+        long ts = treeLatch.readLock();
+        try {
+            Node root = this.root;
+            if (root == null) {
+                return null;
+            }
+
+            LeafNode leaf = descend(root, key);
+            StampedLock latch = latch(leaf);
+            long ls = latch.readLock();
+            try {
+                // A5，先获取下一个叶子节点的闩锁再释放当前叶子节点。
+                while (key.compareTo(leaf.keys[leaf.size-1]) > 0 && leaf.next != null) {
+                    LeafNode next = leaf.next;
+                    StampedLock nextLatch = latch(next);
+                    long nls = nextLatch.readLock();
+                    latch.unlockRead(ls);
+                    leaf = next;
+                    latch = nextLatch;
+                    ls = nls;
+                }
+                int r = littleLess(leaf.keys, leaf.size, key);
+                return r+1 < leaf.size && leaf.keys[r+1].compareTo(key) == 0 ? leaf.values[r+1] : null;
+            } finally {
+                latch.unlockRead(ls);
+            }
+        } finally {
+            treeLatch.unlockRead(ts);
+        }
+    }
+
+    @Override
+    void doInsert(K key, V value) {
+        Objects.requireNonNull(key, "Key cannot be null.");
+        Objects.requireNonNull(value, "Value cannot be null.");
+
+        if (!tryInsertInLeaf(key, value)) {
+            long ts = treeLatch.writeLock();
+            try {
+                super.doInsert(key, value);
+            } finally {
+                treeLatch.unlockWrite(ts);
+            }
+        }
+    }
+
+    /**
+     * 快速路径插入。
+     *
+     * @param key
+     * @param value
+     * @return true-插入成功，false-需要在排他路径中插入。
+     */
+    boolean tryInsertInLeaf(K key, V value) {
+        long ts = treeLatch.readLock();
+        try {
+            Node root = this.root;
+            if (root == null) {
+                return false;
+            }
+
+            // 叶子节点的索引从父节点中读取，父节点在快速路径中不会被修改。
+            InternalNode parent = descendToParent(root, key);
+            int slot = parent == null ? -1 : locateChildIndex(parent.keys, parent.size, key);
+            LeafNode leaf = parent == null ? (LeafNode) root : (LeafNode) parent.children[slot];
+            StampedLock latch = latch(leaf);
+            long ls = latch.writeLock();
+            try {
+                // 上溢或需要向右移动。
+                if (leaf.size+1 > m-1 || key.compareTo(leaf.keys[leaf.size-1]) > 0 && leaf.next != null) {
+                    return false;
+                }
+                // 叶子节点的索引是首个大于前一个叶子节点最后关键码的关键码，只要key大于当前索引，插入后索引不变。
+                // 等于索引的关键码会插入到重复关键码的最前面成为新的索引对象，交给排他路径处理。
+                if (parent != null) {
+                    K indexKey = parent.keys[slot];
+                    if (indexKey == null || key.compareTo(indexKey) <= 0) {
+                        return false;
+                    }
+                }
+                int r = littleLess(leaf.keys, leaf.size, key);
+                insertAt(leaf, r+1, key, value);
+                return true;
+            } finally {
+                latch.unlockWrite(ls);
+            }
+        } finally {
+            treeLatch.unlockRead(ts);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    V doDelete(K key) {
+        Objects.requireNonNull(key, "Key cannot be null.");
+
+        Object deleted = tryDeleteInLeaf(key);
+        if (deleted != RETRY) {
+            return (V) deleted;
+        }
+        long ts = treeLatch.writeLock();
+        try {
+            return super.doDelete(key);
+        } finally {
+            treeLatch.unlockWrite(ts);
+        }
+    }
+
+    /**
+     * 快速路径删除。
+     *
+     * @param key
+     * @return 被删除的值，不存在则返回null，需要在排他路径中删除则返回RETRY。
+     */
+    Object tryDeleteInLeaf(K key) {
+        long ts = treeLatch.readLock();
+        try {
+            Node root = this.root;
+            if (root == null) {
+                return null;
+            }
+
+            InternalNode parent = descendToParent(root, key);
+            int slot = parent == null ? -1 : locateChildIndex(parent.keys, parent.size, key);
+            LeafNode leaf = parent == null ? (LeafNode) root : (LeafNode) parent.children[slot];
+            StampedLock latch = latch(leaf);
+            long ls = latch.writeLock();
+            try {
+                int size = leaf.size;
+                // 需要向右移动。
+                if (key.compareTo(leaf.keys[size-1]) > 0 && leaf.next != null) {
+                    return RETRY;
+                }
+                int r = littleLess(leaf.keys, size, key);
+                if (r+1 >= size || leaf.keys[r+1].compareTo(key) > 0) {
+                    return null;
+                }
+                // 删除最后一个关键码会影响后一个叶子节点的索引。
+                if (r+2 == size && leaf.next != null) {
+                    return RETRY;
+                }
+                // 下溢。
+                if (parent == null ? size-1 < 1 : size-1 < (m+1)/2-1) {
+                    return RETRY;
+                }
+                // 删除索引关键码会改变索引。
+                K indexKey = parent == null ? null : parent.keys[slot];
+                if (indexKey != null && key.compareTo(indexKey) == 0) {
+                    return RETRY;
+                }
+                return removeAt(leaf, r+1);
+            } finally {
+                latch.unlockWrite(ls);
+            }
+        } finally {
+            treeLatch.unlockRead(ts);
+        }
+    }
+
+    @Override
+    public Iterator<Map.Entry<K, V>> range(K from, boolean fromInclusive, K to, boolean toInclusive) {
+        return new OptimisticRangeIterator(from, fromInclusive, to, toInclusive);
+    }
+
+    /**
+     * 内部节点会在排他路径中被修改，无法安全地按子树分割，因此基于弱一致的范围遍历，由流框架按批次分割。
+     */
+    @Override
+    public Spliterator<Map.Entry<K, V>> spliterator(K from, boolean fromInclusive, K to, boolean toInclusive) {
+        return Spliterators.spliteratorUnknownSize(range(from, fromInclusive, to, toInclusive), Spliterator.ORDERED | Spliterator.NONNULL);
+    }
+
+    /**
+     * 快速路径在共享锁存下只修改叶子节点，无法同时维护祖先中缓存的聚合值，因此不支持范围聚合。
+     */
+    @Override
+    public void setAggregator(Aggregator<? super V, ?> aggregator) {
+        throw new UnsupportedOperationException("Concurrent tree does not support aggregator.");
+    }
+
+    /**
+     * 缓冲的消息需要在下推时调整多层节点的结构，与按叶子加锁的快速路径不兼容，因此不支持写缓冲，只接受表示关闭的0。
+     */
+    @Override
+    public void setBufferCapacity(int capacity) {
+        if (capacity > 0) {
+            throw new UnsupportedOperationException("Concurrent tree does not support write buffer.");
+        }
+        super.setBufferCapacity(capacity);
+    }
+
+    /**
+     * 乐观读取与快速路径直接读写叶子节点中的值而不识别墓碑，因此不支持延迟删除，只接受表示关闭的false。
+     */
+    @Override
+    public void setLazyDeletion(boolean lazyDeletion) {
+        if (lazyDeletion) {
+            throw new UnsupportedOperationException("Concurrent tree does not support lazy deletion.");
+        }
+        super.setLazyDeletion(false);
+    }
+
+    @Override
+    public Iterator<V> searchAll(K key) {
+        Objects.requireNonNull(key, "Key cannot be null.");
+
+        OptimisticRangeIterator iter = new OptimisticRangeIterator(key, true, key, true);
+        return new Iterator<V>() {
+
+            @Override
+            public boolean hasNext() {
+                return iter.hasNext();
+            }
+
+            @Override
+            public V next() {
+                return iter.next().getValue();
+            }
+
+        };
+    }
+
+    @Override
+    public int count(K key) {
+        Objects.requireNonNull(key, "Key cannot be null.");
+
+        int count = 0;
+        for (OptimisticRangeIterator iter = new OptimisticRangeIterator(key, true, key, true); iter.hasNext(); iter.next()) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 乐观升序范围迭代器。
+     * <p>每次将一个叶子节点中位于范围内的元素复制到缓冲区，校验通过后再逐个返回。
+     * 树的版本号改变后，从最后返回的关键码处重新定位，并跳过已经返回的重复关键码，因此遍历是弱一致的：
+     * 每个元素至多返回一次，遍历期间未被修改的元素一定会被返回。
+     */
+    class OptimisticRangeIterator implements Iterator<Map.Entry<K, V>> {
+
+        final K from;
+        final boolean fromInclusive;
+        final K to;
+        final boolean toInclusive;
+
+        /**
+         * 缓冲区。
+         */
+        final Object[] bufferKeys = new Object[m];
+        final Object[] bufferValues = new Object[m];
+        int bufferSize;
+        int bufferIndex;
+
+        /**
+         * 下一个要读取的叶子节点，以及获得该叶子节点时树的版本号。
+         */
+        LeafNode leaf;
+        long leafStamp;
+
+        /**
+         * leaf是定位得到的，需要从seekKey处开始读取并跳过skip个与seekKey相等的元素。
+         */
+        boolean seeking;
+        K seekKey;
+        boolean seekInclusive;
+        int skip;
+
+        /**
+         * 最后放入缓冲区的关键码及其已经放入缓冲区的数量。
+         */
+        K lastKey;
+        int lastKeyCount;
+
+        boolean done;
+
+        OptimisticRangeIterator(K from, boolean fromInclusive, K to, boolean toInclusive) {
+            this.from = from;
+            this.fromInclusive = fromInclusive;
+            this.to = to;
+            this.toInclusive = toInclusive;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (bufferIndex == bufferSize && !done) {
+                fill();
+            }
+            return bufferIndex < bufferSize;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Map.Entry<K, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            K key = (K) bufferKeys[bufferIndex];
+            V value = (V) bufferValues[bufferIndex];
+            bufferKeys[bufferIndex] = null;
+            bufferValues[bufferIndex] = null;
+            bufferIndex++;
+            return new AbstractMap.SimpleImmutableEntry<>(key, value);
+        }
+
+        /**
+         * 读取一个叶子节点，乐观读取连续失败后获取共享闩锁读取。
+         */
+        void fill() {
+            for (int attempt = 0; attempt < MAX_OPTIMISTIC_ATTEMPTS; attempt++) {
+                try {
+                    if (read(false)) {
+                        return;
+                    }
+                } catch (RuntimeException e) {
+                    // 读取到不一致的状态，重新尝试。
+                }
+                Thread.yield();
+            }
+
+            long ts = treeLatch.readLock();
+            try {
+                read(true);
+            } finally {
+                treeLatch.unlockRead(ts);
+            }
+        }
+
+        /**
+         * 读取一个叶子节点。
+         *
+         * @param locked 是否已持有树的共享闩锁。
+         * @return true-读取成功，false-校验失败。
+         */
+        boolean read(boolean locked) {
+            long ts = treeLatch.tryOptimisticRead();
+            if (ts == 0) {
+                return false;
+            }
+            if (leaf == null || !treeLatch.validate(leafStamp)) {
+                // 首次读取或结构已经改变，重新定位。
+                Node root = ConcurrentBPlusTree.this.root;
+                if (root == null) {
+                    if (locked || treeLatch.validate(ts)) {
+                        done = true;
+                        return true;
+                    }
+                    return false;
+                }
+                if (lastKey != null) {
+                    seekKey = lastKey;
+                    seekInclusive = true;
+                    skip = lastKeyCount;
+                } else {
+                    seekKey = from;
+                    seekInclusive = fromInclusive;
+                    skip = 0;
+                }
+                leaf = seekKey == null ? firstLeaf(root) : descend(root, seekKey);
+                leafStamp = ts;
+                seeking = seekKey != null;
+            }
+
+            StampedLock latch = latch(leaf);
+            long ls = locked ? latch.readLock() : latch.tryOptimisticRead();
+            if (ls == 0) {
+                return false;
+            }
+            try {
+                K[] keys = leaf.keys;
+                V[] values = leaf.values;
+                int size = leaf.size;
+                LeafNode next = leaf.next;
+
+                int i = 0;
+                if (seeking) {
+                    i = (seekInclusive ? littleLess(keys, size, seekKey) : littleLessOrEqual(keys, size, seekKey)) + 1;
+                }
+                // 叶子节点中没有不小于seekKey的关键码时，需要在后续叶子节点中继续定位。
+                boolean stillSeeking = seeking && i == size;
+                K lk = lastKey;
+                int lc = lastKeyCount;
+                int sk = skip;
+                int n = 0;
+                boolean end = false;
+                for (; i < size; i++) {
+                    K key = keys[i];
+                    if (sk > 0 && key.compareTo(seekKey) == 0) {
+                        sk--;
+                        continue;
+                    }
+                    sk = 0;
+                    if (to != null) {
+                        int cmp = key.compareTo(to);
+                        if (cmp > 0 || cmp == 0 && !toInclusive) {
+                            end = true;
+                            break;
+                        }
+                    }
+                    bufferKeys[n] = key;
+                    bufferValues[n] = values[i];
+                    n++;
+                    if (lk != null && key.compareTo(lk) == 0) {
+                        lc++;
+                    } else {
+                        lk = key;
+                        lc = 1;
+                    }
+                }
+                if (!locked && !(latch.validate(ls) && treeLatch.validate(ts))) {
+                    Arrays.fill(bufferKeys, 0, n, null);
+                    Arrays.fill(bufferValues, 0, n, null);
+                    return false;
+                }
+
+                bufferSize = n;
+                bufferIndex = 0;
+                lastKey = lk;
+                lastKeyCount = lc;
+                skip = sk;
+                seeking = stillSeeking || sk > 0;
+                leaf = end ? null : next;
+                done = end || next == null;
+                return true;
+            } finally {
+                if (locked) {
+                    latch.unlockRead(ls);
+                }
+            }
+        }
+
+    }
+
+    /* 排他路径 */
+
+    List<Map.Entry<K, V>> collect(Iterator<Map.Entry<K, V>> iterator) {
+        List<Map.Entry<K, V>> entries = new ArrayList<>();
+        iterator.forEachRemaining(entries::add);
+        return Collections.unmodifiableList(entries);
+    }
+
+    @Override
+    public Iterator<Map.Entry<K, V>> descendingRange(K from, boolean fromInclusive, K to, boolean toInclusive) {
+        long ts = treeLatch.writeLock();
+        try {
+            return collect(super.descendingRange(from, fromInclusive, to, toInclusive)).iterator();
+        } finally {
+            treeLatch.unlockWrite(ts);
+        }
+    }
+
+    /**
+     * 在排他路径中创建快照，保证快照不会观察到快速路径修改到一半的叶子节点。
+     */
+    @Override
+    public Snapshot snapshot() {
+        long ts = treeLatch.writeLock();
+        try {
+            return super.snapshot();
+        } finally {
+            treeLatch.unlockWrite(ts);
+        }
+    }
+
+    @Override
+    public int deleteAll(K key) {
+        long ts = treeLatch.writeLock();
+        try {
+            return super.deleteAll(key);
+        } finally {
+            treeLatch.unlockWrite(ts);
+        }
+    }
+
+    @Override
+    public void insertAll(Collection<? extends Map.Entry<? extends K, ? extends V>> entries) {
+        long ts = treeLatch.writeLock();
+        try {
+            super.insertAll(entries);
+        } finally {
+            treeLatch.unlockWrite(ts);
+        }
+    }
+
+    @Override
+    public int deleteAll(Collection<? extends K> keys) {
+        long ts = treeLatch.writeLock();
+        try {
+            return super.deleteAll(keys);
+        } finally {
+            treeLatch.unlockWrite(ts);
+        }
+    }
+
+    /**
+     * 写出期间持有树的排他闩锁，保证写出的是某一时刻完整的内容。
+     */
+    @Override
+    public void writeTo(WritableByteChannel channel, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+        long ts = treeLatch.writeLock();
+        try {
+            super.writeTo(channel, keyCodec, valueCodec);
+        } finally {
+            treeLatch.unlockWrite(ts);
+        }
+    }
+
+    @Override
+    public String toString() {
+        long ts = treeLatch.writeLock();
+        try {
+            return super.toString();
+        } finally {
+            treeLatch.unlockWrite(ts);
+        }
+    }
+
+}
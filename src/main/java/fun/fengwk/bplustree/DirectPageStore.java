@@ -0,0 +1,125 @@
+package fun.fengwk.bplustree;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 基于直接内存的页面存储。
+ *
+ * <p>页面按块分配在堆外的直接缓冲区中，堆内只保留每个页面的切片视图，因此堆占用与页面数量而非元素数量成正比。
+ * 被释放的页面进入空闲列表供后续复用，直接内存在存储对象被回收时释放。
+ *
+ * @author fengwk
+ */
+public class DirectPageStore implements PageStore {
+
+    /**
+     * 默认每个块包含的页面数量。
+     */
+    static final int DEFAULT_PAGES_PER_CHUNK = 1024;
+
+    final int pageSize;
+
+    final int pagesPerChunk;
+
+    /**
+     * 页面切片，pages[i]为页号i的页面。
+     */
+    ByteBuffer[] pages = new ByteBuffer[0];
+
+    /**
+     * 已创建的页面数量。
+     */
+    int pageCount;
+
+    /**
+     * 空闲页号栈。
+     */
+    int[] freePages = new int[16];
+
+    int freeCount;
+
+    /**
+     * 构造直接内存页面存储。
+     *
+     * @param pageSize
+     */
+    public DirectPageStore(int pageSize) {
+        this(pageSize, DEFAULT_PAGES_PER_CHUNK);
+    }
+
+    /**
+     * 构造直接内存页面存储。
+     *
+     * @param pageSize
+     * @param pagesPerChunk 每次向操作系统申请的页面数量。
+     */
+    public DirectPageStore(int pageSize, int pagesPerChunk) {
+        if (pageSize <= 0 || pagesPerChunk <= 0) {
+            throw new IllegalArgumentException("Page size and pages per chunk must be positive.");
+        }
+        this.pageSize = pageSize;
+        this.pagesPerChunk = pagesPerChunk;
+    }
+
+    @Override
+    public int pageSize() {
+        return pageSize;
+    }
+
+    @Override
+    public int pageCount() {
+        return pageCount;
+    }
+
+    @Override
+    public int allocate() {
+        if (freeCount > 0) {
+            return freePages[--freeCount];
+        }
+        if (pageCount == pages.length) {
+            allocateChunk();
+        }
+        return pageCount++;
+    }
+
+    void allocateChunk() {
+        ByteBuffer chunk = ByteBuffer.allocateDirect(pageSize * pagesPerChunk);
+        pages = Arrays.copyOf(pages, pages.length + pagesPerChunk);
+        for (int i = 0; i < pagesPerChunk; i++) {
+            // 通过Buffer调用position与limit以兼容Java 8。
+            ((Buffer) chunk).limit((i+1) * pageSize);
+            ((Buffer) chunk).position(i * pageSize);
+            pages[pageCount + i] = chunk.slice();
+        }
+    }
+
+    @Override
+    public void free(int page) {
+        if (freeCount == freePages.length) {
+            freePages = Arrays.copyOf(freePages, freeCount << 1);
+        }
+        freePages[freeCount++] = page;
+    }
+
+    @Override
+    public ByteBuffer read(int page) {
+        return pages[page];
+    }
+
+    @Override
+    public ByteBuffer write(int page) {
+        return pages[page];
+    }
+
+    /**
+     * 正在使用的页面数量。
+     *
+     * @return
+     */
+    public int usedPages() {
+        return pageCount - freeCount;
+    }
+
+}
@@ -0,0 +1,479 @@
+package fun.fengwk.bplustree;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.zip.CRC32;
+
+/**
+ * <h1>持久化B+树
+ * <p>在内存中的{@link BPlusTree}外增加预写日志，insert与delete在修改B+树之前先将操作追加到日志，重启时加载最近的检查点并重放其后的日志。
+ *
+ * <p>目录中包含两个文件：
+ * <ol>
+ * <li>snapshot：检查点，依次存放魔数、代数与元素数量，之后按升序存放所有元素。
+ * <li>wal：预写日志，首部存放代数，之后每条记录依次为类型、关键码、值（仅插入）与CRC32校验码。
+ * </ol>
+ *
+ * <p>检查点先写入临时文件再原子替换，并同步目录使替换落盘，之后以代数+1重置日志。重启时只重放代数大于检查点代数的日志，
+ * 因此在替换检查点与重置日志之间崩溃也不会重复重放。日志尾部不完整或校验失败的记录视为崩溃时未写完，会被截断。
+ *
+ * <p>组提交：每syncEvery次修改强制落盘一次日志，syncEvery为1时每次修改都落盘，更大的值以崩溃时丢失最近至多syncEvery-1次修改为代价换取吞吐量。
+ *
+ * @author fengwk
+ */
+public class DurableBPlusTree<K extends Comparable<K>, V> implements Closeable {
+
+    static final int MAGIC = 0x42505443;
+
+    static final byte INSERT = 1;
+    static final byte DELETE = 2;
+
+    static final String SNAPSHOT = "snapshot";
+    static final String SNAPSHOT_TMP = "snapshot.tmp";
+    static final String WAL = "wal";
+
+    static final int WAL_HEADER = 8;
+
+    /**
+     * 日志缓冲区大小。
+     */
+    static final int LOG_BUFFER_SIZE = 64 * 1024;
+
+    final Path dir;
+
+    final int m;
+
+    final Codec<K> keyCodec;
+
+    final Codec<V> valueCodec;
+
+    /**
+     * 每syncEvery次修改强制落盘一次日志。
+     */
+    final int syncEvery;
+
+    /**
+     * 每checkpointEvery次修改自动进行一次检查点，0表示不自动进行检查点。
+     */
+    final int checkpointEvery;
+
+    /**
+     * 内存中的B+树。
+     */
+    BPlusTree<K, V> tree;
+
+    /**
+     * 内存中B+树的元素数量，写入检查点时无需再次遍历。
+     */
+    long size;
+
+    FileChannel wal;
+
+    /**
+     * 当前日志代数。
+     */
+    long generation;
+
+    /**
+     * 尚未写入日志文件的记录。
+     */
+    final ByteBuffer logBuffer = ByteBuffer.allocate(LOG_BUFFER_SIZE);
+
+    final CRC32 crc = new CRC32();
+
+    /**
+     * 上次落盘后的修改次数。
+     */
+    int unsynced;
+
+    /**
+     * 上次检查点后的修改次数。
+     */
+    int uncheckpointed;
+
+    /**
+     * 打开或创建持久化B+树。
+     *
+     * @param dir 数据目录，不存在时创建。
+     * @param m
+     * @param keyCodec
+     * @param valueCodec
+     * @param syncEvery 每syncEvery次修改强制落盘一次日志，必须大于0。
+     * @param checkpointEvery 每checkpointEvery次修改自动进行一次检查点，0表示不自动进行检查点。
+     * @throws IOException
+     */
+    public DurableBPlusTree(Path dir, int m, Codec<K> keyCodec, Codec<V> valueCodec, int syncEvery, int checkpointEvery) throws IOException {
+        if (syncEvery <= 0 || checkpointEvery < 0) {
+            throw new IllegalArgumentException("Sync interval must be positive and checkpoint interval cannot be negative.");
+        }
+        if (1 + keyCodec.width() + valueCodec.width() + 4 > LOG_BUFFER_SIZE) {
+            throw new IllegalArgumentException("Codec width is too large.");
+        }
+        this.dir = dir;
+        this.m = m;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.syncEvery = syncEvery;
+        this.checkpointEvery = checkpointEvery;
+        Files.createDirectories(dir);
+        recover();
+    }
+
+    /* 恢复 */
+
+    /**
+     * 加载检查点并重放日志。
+     */
+    void recover() throws IOException {
+        long snapshotGeneration = loadSnapshot();
+        wal = FileChannel.open(dir.resolve(WAL), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(WAL_HEADER);
+        if (readFully(wal, header, 0) && header.getLong(0) > snapshotGeneration) {
+            generation = header.getLong(0);
+            replay();
+        } else {
+            // 没有日志、日志首部不完整或日志已被检查点包含。
+            resetWal(snapshotGeneration + 1);
+            syncDirectory();
+        }
+    }
+
+    /**
+     * 加载检查点，返回检查点代数，检查点不存在时返回0。
+     */
+    long loadSnapshot() throws IOException {
+        Path snapshot = dir.resolve(SNAPSHOT);
+        if (!Files.exists(snapshot)) {
+            tree = new BPlusTree<>(m);
+            return 0;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a snapshot file: " + snapshot + ".");
+            }
+            long snapshotGeneration = in.readLong();
+            long count = in.readLong();
+            tree = BPlusTree.bulkLoad(new SnapshotIterator(in, count), m, 1);
+            size = count;
+            return snapshotGeneration;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * 按顺序读取检查点中的元素。
+     */
+    class SnapshotIterator implements Iterator<Map.Entry<K, V>> {
+
+        final DataInputStream in;
+
+        final byte[] record = new byte[keyCodec.width() + valueCodec.width()];
+
+        final ByteBuffer buf = ByteBuffer.wrap(record);
+
+        long remaining;
+
+        SnapshotIterator(DataInputStream in, long count) {
+            this.in = in;
+            this.remaining = count;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (remaining == 0) {
+                throw new NoSuchElementException();
+            }
+            try {
+                in.readFully(record);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            remaining--;
+            return new AbstractMap.SimpleImmutableEntry<>(keyCodec.read(buf, 0), valueCodec.read(buf, keyCodec.width()));
+        }
+
+    }
+
+    /**
+     * 重放日志，截断尾部不完整或校验失败的记录。
+     */
+    void replay() throws IOException {
+        int kw = keyCodec.width(), vw = valueCodec.width();
+        byte[] record = new byte[1 + kw + vw + 4];
+        ByteBuffer buf = ByteBuffer.wrap(record);
+        long position = WAL_HEADER;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(dir.resolve(WAL)))) {
+            skipFully(in, WAL_HEADER);
+            while (true) {
+                int type = in.read();
+                if (type != INSERT && type != DELETE) {
+                    break;
+                }
+                record[0] = (byte) type;
+                int length = type == INSERT ? 1 + kw + vw : 1 + kw;
+                if (!readFully(in, record, 1, length + 3)) {
+                    break;
+                }
+                crc.reset();
+                crc.update(record, 0, length);
+                if ((int) crc.getValue() != buf.getInt(length)) {
+                    break;
+                }
+                K key = keyCodec.read(buf, 1);
+                if (type == INSERT) {
+                    tree.insert(key, valueCodec.read(buf, 1 + kw));
+                    size++;
+                } else if (tree.delete(key) != null) {
+                    size--;
+                }
+                position += length + 4;
+                uncheckpointed++;
+            }
+        }
+        wal.truncate(position);
+        wal.position(position);
+    }
+
+    /* 日志 */
+
+    void resetWal(long generation) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(WAL_HEADER);
+        header.putLong(0, generation);
+        wal.truncate(0);
+        writeFully(wal, header, 0);
+        wal.force(true);
+        wal.position(WAL_HEADER);
+        this.generation = generation;
+        this.unsynced = 0;
+        this.uncheckpointed = 0;
+    }
+
+    /**
+     * 追加一条日志记录，达到syncEvery次修改时落盘。
+     */
+    void append(byte type, K key, V value) {
+        int kw = keyCodec.width();
+        int length = type == INSERT ? 1 + kw + valueCodec.width() : 1 + kw;
+        try {
+            if (logBuffer.remaining() < length + 4) {
+                writeLog();
+            }
+            int start = logBuffer.position();
+            logBuffer.put(start, type);
+            keyCodec.write(logBuffer, start + 1, key);
+            if (type == INSERT) {
+                valueCodec.write(logBuffer, start + 1 + kw, value);
+            }
+            crc.reset();
+            crc.update(logBuffer.array(), start, length);
+            logBuffer.putInt(start + length, (int) crc.getValue());
+            ((Buffer) logBuffer).position(start + length + 4);
+            if (++unsynced >= syncEvery) {
+                sync();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 将日志缓冲区写入日志文件，不落盘。
+     */
+    void writeLog() throws IOException {
+        ((Buffer) logBuffer).flip();
+        while (logBuffer.hasRemaining()) {
+            wal.write(logBuffer);
+        }
+        ((Buffer) logBuffer).clear();
+    }
+
+    /**
+     * 将所有已记录的修改强制落盘。
+     *
+     * @throws IOException
+     */
+    public void sync() throws IOException {
+        writeLog();
+        wal.force(false);
+        unsynced = 0;
+    }
+
+    /**
+     * 检查点，将当前B+树写入检查点文件并重置日志，重启时只需重放此后的日志。
+     *
+     * @throws IOException
+     */
+    public void checkpoint() throws IOException {
+        // 先将日志落盘，检查点写入失败时仍可通过日志恢复。
+        sync();
+        Path tmp = dir.resolve(SNAPSHOT_TMP);
+        try (FileOutputStream fos = new FileOutputStream(tmp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos))) {
+            out.writeInt(MAGIC);
+            out.writeLong(generation);
+            out.writeLong(size);
+            byte[] record = new byte[keyCodec.width() + valueCodec.width()];
+            ByteBuffer buf = ByteBuffer.wrap(record);
+            for (Iterator<Map.Entry<K, V>> it = tree.ascending(); it.hasNext(); ) {
+                Map.Entry<K, V> entry = it.next();
+                keyCodec.write(buf, 0, entry.getKey());
+                valueCodec.write(buf, keyCodec.width(), entry.getValue());
+                out.write(record);
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmp, dir.resolve(SNAPSHOT), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // 替换必须先于重置日志落盘，否则崩溃后可能看到旧检查点与新代数的日志，丢失两者之间的修改。
+        syncDirectory();
+        resetWal(generation + 1);
+    }
+
+    /**
+     * 同步数据目录，使其中文件的创建与替换落盘。
+     */
+    void syncDirectory() throws IOException {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    void mutated() {
+        if (checkpointEvery > 0 && ++uncheckpointed >= checkpointEvery) {
+            try {
+                checkpoint();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /* 主算法 */
+
+    /**
+     * 搜索。
+     *
+     * @param key
+     * @return
+     */
+    public V search(K key) {
+        return tree.search(key);
+    }
+
+    /**
+     * 插入，先记录日志再修改B+树。
+     *
+     * @param key
+     * @param value
+     */
+    public void insert(K key, V value) {
+        // 定长编码无法表示空值。
+        Objects.requireNonNull(key, "Key cannot be null.");
+        Objects.requireNonNull(value, "Value cannot be null.");
+        append(INSERT, key, value);
+        tree.insert(key, value);
+        size++;
+        mutated();
+    }
+
+    /**
+     * 删除，先记录日志再修改B+树。
+     *
+     * @param key
+     * @return
+     */
+    public V delete(K key) {
+        Objects.requireNonNull(key, "Key cannot be null.");
+        append(DELETE, key, null);
+        V deleted = tree.delete(key);
+        if (deleted != null) {
+            size--;
+        }
+        mutated();
+        return deleted;
+    }
+
+    /**
+     * 落盘并关闭日志。
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        sync();
+        wal.close();
+    }
+
+    /* IO */
+
+    static boolean readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, position);
+            if (n < 0) {
+                return false;
+            }
+            position += n;
+        }
+        return true;
+    }
+
+    static void writeFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            position += channel.write(buf, position);
+        }
+    }
+
+    static boolean readFully(InputStream in, byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = in.read(b, off, len);
+            if (n < 0) {
+                return false;
+            }
+            off += n;
+            len -= n;
+        }
+        return true;
+    }
+
+    static void skipFully(InputStream in, long n) throws IOException {
+        while (n > 0) {
+            long skipped = in.skip(n);
+            if (skipped <= 0) {
+                throw new EOFException();
+            }
+            n -= skipped;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return tree.toString();
+    }
+
+}
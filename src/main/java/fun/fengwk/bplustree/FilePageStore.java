@@ -0,0 +1,365 @@
+package fun.fengwk.bplustree;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 基于文件的页面存储。
+ *
+ * <p>文件首个页面大小的区域为文件头，依次存放魔数、页面大小、页面数量、空闲页链表头与关闭状态，页号为i的页面位于文件偏移(i+1)*pageSize处。
+ * 被释放的页面通过页面的前4个字节串成空闲链表。
+ *
+ * <p>页面数量与空闲页链表头只在flush与close时写入文件头，打开期间缓冲池也会随时写回脏页，因此文件只有在正常关闭后才是一致的。
+ * 打开时文件头的关闭状态被改写为未关闭并强制落盘，只有close在写回所有脏页后才将其标记为已关闭，
+ * 打开一个未正常关闭的文件会抛出{@link IllegalStateException}，而不是从过期的文件头恢复出错误的页面数量与空闲链表。
+ *
+ * <p>页面通过容量固定的缓冲池访问，缓冲池使用时钟算法淘汰页面：每个帧有一个访问位，命中时置位，淘汰时指针扫过的帧清除访问位，
+ * 首个访问位已清除的帧被淘汰，脏帧在淘汰前写回文件。命中、未命中、淘汰与写回次数可以用于评估缓冲池大小。
+ *
+ * @author fengwk
+ */
+public class FilePageStore implements PageStore, Closeable {
+
+    static final int MAGIC = 0x42505453;
+
+    static final int HEADER_MAGIC = 0;
+    static final int HEADER_PAGE_SIZE = 4;
+    static final int HEADER_PAGE_COUNT = 8;
+    static final int HEADER_FREE_HEAD = 12;
+    static final int HEADER_STATE = 16;
+    static final int HEADER_SIZE = 20;
+
+    static final int STATE_OPEN = 1;
+    static final int STATE_CLOSED = 2;
+
+    static final int NIL = -1;
+
+    final FileChannel channel;
+
+    final int pageSize;
+
+    /**
+     * 已创建的页面数量。
+     */
+    int pageCount;
+
+    /**
+     * 空闲页链表头。
+     */
+    int freeHead = NIL;
+
+    /* 缓冲池 */
+
+    /**
+     * 帧缓冲区。
+     */
+    final ByteBuffer[] frames;
+
+    /**
+     * framePages[i]为帧i中的页号，NIL表示空闲帧。
+     */
+    final int[] framePages;
+
+    final boolean[] dirty;
+
+    final boolean[] referenced;
+
+    /**
+     * 页号到帧的映射。
+     */
+    final Map<Integer, Integer> pageTable = new HashMap<>();
+
+    /**
+     * 已使用的帧数量，缓冲池未满时不会淘汰。
+     */
+    int usedFrames;
+
+    /**
+     * 时钟指针。
+     */
+    int hand;
+
+    long hits;
+    long misses;
+    long evictions;
+    long writeBacks;
+
+    /**
+     * 打开或创建文件页面存储。
+     *
+     * @param path
+     * @param pageSize 页面大小，打开已有文件时必须与创建时一致。
+     * @param poolPages 缓冲池容纳的页面数量。
+     * @throws IOException
+     */
+    public FilePageStore(Path path, int pageSize, int poolPages) throws IOException {
+        if (pageSize < HEADER_SIZE) {
+            throw new IllegalArgumentException("Page size must be at least " + HEADER_SIZE + ".");
+        }
+        if (poolPages < 2) {
+            throw new IllegalArgumentException("Pool pages must be at least 2.");
+        }
+        this.pageSize = pageSize;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() >= HEADER_SIZE) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(header, 0);
+            if (header.getInt(HEADER_MAGIC) != MAGIC) {
+                channel.close();
+                throw new IllegalArgumentException("Not a page store file: " + path + ".");
+            }
+            if (header.getInt(HEADER_PAGE_SIZE) != pageSize) {
+                channel.close();
+                throw new IllegalArgumentException("Page size mismatch, file page size is " + header.getInt(HEADER_PAGE_SIZE) + ".");
+            }
+            if (header.getInt(HEADER_STATE) != STATE_CLOSED) {
+                channel.close();
+                throw new IllegalStateException("Page store was not closed cleanly: " + path + ".");
+            }
+            this.pageCount = header.getInt(HEADER_PAGE_COUNT);
+            this.freeHead = header.getInt(HEADER_FREE_HEAD);
+        }
+        try {
+            writeHeader(STATE_OPEN);
+            channel.force(true);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        this.frames = new ByteBuffer[poolPages];
+        this.framePages = new int[poolPages];
+        this.dirty = new boolean[poolPages];
+        this.referenced = new boolean[poolPages];
+        ByteBuffer chunk = ByteBuffer.allocateDirect(pageSize * poolPages);
+        for (int i = 0; i < poolPages; i++) {
+            // 通过Buffer调用position与limit以兼容Java 8。
+            ((Buffer) chunk).limit((i+1) * pageSize);
+            ((Buffer) chunk).position(i * pageSize);
+            frames[i] = chunk.slice();
+            framePages[i] = NIL;
+        }
+    }
+
+    @Override
+    public int pageSize() {
+        return pageSize;
+    }
+
+    @Override
+    public int pageCount() {
+        return pageCount;
+    }
+
+    @Override
+    public int allocate() {
+        if (freeHead != NIL) {
+            int page = freeHead;
+            freeHead = read(page).getInt(0);
+            return page;
+        }
+        return pageCount++;
+    }
+
+    @Override
+    public void free(int page) {
+        write(page).putInt(0, freeHead);
+        freeHead = page;
+    }
+
+    @Override
+    public ByteBuffer read(int page) {
+        return frames[fetch(page)];
+    }
+
+    @Override
+    public ByteBuffer write(int page) {
+        int frame = fetch(page);
+        dirty[frame] = true;
+        return frames[frame];
+    }
+
+    /**
+     * 获取页面所在的帧，未命中时从文件加载。
+     */
+    int fetch(int page) {
+        Integer frame = pageTable.get(page);
+        if (frame != null) {
+            hits++;
+            referenced[frame] = true;
+            return frame;
+        }
+
+        misses++;
+        int f = usedFrames < frames.length ? usedFrames++ : evict();
+        load(page, f);
+        pageTable.put(page, f);
+        framePages[f] = page;
+        referenced[f] = true;
+        return f;
+    }
+
+    /**
+     * 时钟算法选择并淘汰一个帧。
+     */
+    int evict() {
+        while (true) {
+            int f = hand;
+            hand = (hand + 1) % frames.length;
+            if (referenced[f]) {
+                referenced[f] = false;
+            } else {
+                writeBack(f);
+                pageTable.remove(framePages[f]);
+                framePages[f] = NIL;
+                evictions++;
+                return f;
+            }
+        }
+    }
+
+    void load(int page, int frame) {
+        ByteBuffer buf = frames[frame];
+        ((Buffer) buf).clear();
+        try {
+            readFully(buf, offset(page));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // 文件末尾之后的部分视为0。
+        while (buf.hasRemaining()) {
+            buf.put((byte) 0);
+        }
+        dirty[frame] = false;
+    }
+
+    void writeBack(int frame) {
+        if (!dirty[frame]) {
+            return;
+        }
+        ByteBuffer buf = frames[frame];
+        ((Buffer) buf).clear();
+        try {
+            writeFully(buf, offset(framePages[frame]));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        dirty[frame] = false;
+        writeBacks++;
+    }
+
+    long offset(int page) {
+        return (long) (page+1) * pageSize;
+    }
+
+    void readFully(ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, position);
+            if (n < 0) {
+                return;
+            }
+            position += n;
+        }
+    }
+
+    void writeFully(ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            position += channel.write(buf, position);
+        }
+    }
+
+    /**
+     * 将所有脏页与文件头写回文件并强制落盘，文件头仍标记为未关闭，之后的写回可能使文件与文件头不一致。
+     *
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        writeBackAll();
+        writeHeader(STATE_OPEN);
+        channel.force(true);
+    }
+
+    /**
+     * 写回所有脏页，落盘后再将文件头标记为已关闭并关闭文件。
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            writeBackAll();
+            writeHeader(STATE_OPEN);
+            channel.force(true);
+            // 页面落盘后再写入关闭状态，避免关闭状态先于页面到达磁盘。
+            writeHeader(STATE_CLOSED);
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    void writeBackAll() throws IOException {
+        for (int i = 0; i < usedFrames; i++) {
+            try {
+                writeBack(i);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    void writeHeader(int state) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(HEADER_MAGIC, MAGIC);
+        header.putInt(HEADER_PAGE_SIZE, pageSize);
+        header.putInt(HEADER_PAGE_COUNT, pageCount);
+        header.putInt(HEADER_FREE_HEAD, freeHead);
+        header.putInt(HEADER_STATE, state);
+        writeFully(header, 0);
+    }
+
+    /**
+     * 缓冲池命中次数。
+     *
+     * @return
+     */
+    public long hits() {
+        return hits;
+    }
+
+    /**
+     * 缓冲池未命中次数，每次未命中都会从文件加载一个页面。
+     *
+     * @return
+     */
+    public long misses() {
+        return misses;
+    }
+
+    /**
+     * 淘汰次数。
+     *
+     * @return
+     */
+    public long evictions() {
+        return evictions;
+    }
+
+    /**
+     * 脏页写回次数。
+     *
+     * @return
+     */
+    public long writeBacks() {
+        return writeBacks;
+    }
+
+}
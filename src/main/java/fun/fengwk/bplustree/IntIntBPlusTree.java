@@ -0,0 +1,127 @@
+package fun.fengwk.bplustree;
+
+/**
+ * <h1>int-int B+树
+ * <p>关键码与值均为int的B+树，定义、约定与算法与{@link BPlusTree}一致，关键码与值直接存放在int[]中，插入、搜索与删除不会为每个元素分配对象。
+ *
+ * <p>与泛型实现的差异：
+ * <ol>
+ * <li>基本类型无法表示空关键码，内部节点通过present[i]标识keys[i]是否存在，present[i]为false对应泛型实现中的空关键码。
+ * <li>基本类型无法表示空值，构造时指定noValue，search与delete在关键码不存在时返回noValue，因此不允许插入noValue。
+ * </ol>
+ *
+ * @author fengwk
+ */
+public class IntIntBPlusTree extends PrimitiveBPlusTree {
+
+    /**
+     * 表示值不存在，不允许插入。
+     */
+    final int noValue;
+
+    /**
+     * 构造一棵m阶B+树。
+     *
+     * @param m
+     * @param noValue 关键码不存在时search与delete的返回值。
+     */
+    public IntIntBPlusTree(int m, int noValue) {
+        super(m);
+        this.noValue = noValue;
+    }
+
+    @Override
+    Object newKeys(int n) {
+        return new int[n];
+    }
+
+    @Override
+    Object newValues(int n) {
+        return new int[n];
+    }
+
+    @Override
+    int compare(Object a, int i, Object b, int j) {
+        return Integer.compare(((int[]) a)[i], ((int[]) b)[j]);
+    }
+
+    /**
+     * M1.搜索。
+     *
+     * @param key
+     * @return 关键码key对应的值，不存在则返回noValue。
+     */
+    public int search(int key) {
+        Node root = this.root;
+        if (root == null) {
+            return noValue;
+        }
+
+        LeafNode node = searchLeaf(root, key, null);
+        int[] keys = (int[]) node.keys;
+        int r = littleLess(keys, node.size, key);
+        return r+1 < node.size && keys[r+1] == key ? ((int[]) node.values)[r+1] : noValue;
+    }
+
+    /**
+     * M2.插入。
+     *
+     * @param key
+     * @param value
+     */
+    public void insert(int key, int value) {
+        if (value == noValue) {
+            throw new IllegalArgumentException("Value cannot be noValue.");
+        }
+
+        // 首先处理树为空的情况
+        Node root = this.root;
+        if (root == null) {
+            LeafNode newRoot = newLeafNode(null, null);
+            set(newRoot, 0, key, value);
+            this.root = newRoot;
+            return;
+        }
+
+        // 定位插入点
+        LeafNode node = searchLeaf(root, key, path);
+        int r = littleLess((int[]) node.keys, node.size, key);
+        // 插入
+        set(node, r+1, key, value);
+        afterInsert(node, path);
+    }
+
+    void set(LeafNode node, int i, int key, int value) {
+        openAt(node, i);
+        ((int[]) node.keys)[i] = key;
+        ((int[]) node.values)[i] = value;
+    }
+
+    /**
+     * M3.删除。
+     *
+     * @param key
+     * @return 被删除的值，不存在则返回noValue。
+     */
+    public int delete(int key) {
+        // 首先处理树为空的情况
+        Node root = this.root;
+        if (root == null) {
+            return noValue;
+        }
+
+        // 定位删除点
+        LeafNode node = searchLeaf(root, key, path);
+        int[] keys = (int[]) node.keys;
+        int r = littleLess(keys, node.size, key);
+        // 处理关键码不存在的情况
+        if (r+1 >= node.size || keys[r+1] > key) {
+            return noValue;
+        }
+
+        int deletedValue = ((int[]) node.values)[r+1];
+        deleteAt(node, r+1, path);
+        return deletedValue;
+    }
+
+}
@@ -0,0 +1,24 @@
+package fun.fengwk.bplustree;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 关键码编解码器，除编解码外还负责比较页面中的关键码与给定关键码。
+ *
+ * @author fengwk
+ */
+public interface KeyCodec<K extends Comparable<K>> extends Codec<K> {
+
+    /**
+     * 比较buf中offset处编码的关键码与key，默认解码后比较，实现类可以直接比较编码以避免解码。
+     *
+     * @param buf
+     * @param offset
+     * @param key
+     * @return
+     */
+    default int compare(ByteBuffer buf, int offset, K key) {
+        return read(buf, offset).compareTo(key);
+    }
+
+}
@@ -0,0 +1,34 @@
+package fun.fengwk.bplustree;
+
+/**
+ * 保序关键码编码器，将关键码编码为字节序列，使得编码按无符号字节字典序比较的结果与关键码的顺序一致。
+ *
+ * <p>作为组合关键码的字段时，编码必须是自定界的，即任何一个值的编码都不是另一个值编码的真前缀，
+ * 这样前一个字段的比较结果不会受到后一个字段的影响，并且按位取反后可以得到相反的顺序。
+ * {@link KeyEncoders}中的编码器都满足该性质。
+ *
+ * @author fengwk
+ */
+public interface KeyEncoder<T> {
+
+    /**
+     * 将value的编码追加到out。
+     *
+     * @param value
+     * @param out
+     */
+    void encode(T value, BinaryKey.Builder out);
+
+    /**
+     * 将value编码为二进制关键码。
+     *
+     * @param value
+     * @return
+     */
+    default BinaryKey encode(T value) {
+        BinaryKey.Builder out = new BinaryKey.Builder();
+        encode(value, out);
+        return out.build();
+    }
+
+}
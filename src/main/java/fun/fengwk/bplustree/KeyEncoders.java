@@ -0,0 +1,81 @@
+package fun.fengwk.bplustree;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 常用的保序关键码编码器。
+ *
+ * @author fengwk
+ */
+public class KeyEncoders {
+
+    private KeyEncoders() {}
+
+    /**
+     * int编码器，翻转符号位后以大端序写入4个字节。
+     */
+    public static final KeyEncoder<Integer> INT = (value, out) -> out.putBigEndian(value ^ Integer.MIN_VALUE, Integer.BYTES);
+
+    /**
+     * long编码器，翻转符号位后以大端序写入8个字节。
+     */
+    public static final KeyEncoder<Long> LONG = (value, out) -> out.putBigEndian(value ^ Long.MIN_VALUE, Long.BYTES);
+
+    /**
+     * double编码器，顺序与{@link Double#compare(double, double)}一致，非负数翻转符号位，负数翻转所有位，写入8个字节。
+     */
+    public static final KeyEncoder<Double> DOUBLE = (value, out) -> {
+        long bits = Double.doubleToLongBits(value);
+        out.putBigEndian(bits ^ (bits >> 63 | Long.MIN_VALUE), Long.BYTES);
+    };
+
+    /**
+     * 字符串编码器，写入UTF-8编码，其中的0x00写作0x00 0xFF，最后以0x00 0x01结尾，因此编码是自定界的。
+     * <p>顺序为Unicode码点顺序，与{@link String#compareTo(String)}仅在增补字符与U+E000至U+FFFF之间的字符比较时不同。
+     */
+    public static final KeyEncoder<String> STRING = (value, out) -> {
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        for (byte b : utf8) {
+            out.put(b);
+            if (b == 0) {
+                out.put(0xff);
+            }
+        }
+        out.put(0).put(1);
+    };
+
+    /**
+     * 降序编码器，将encoder的编码按位取反，encoder的编码必须是自定界的。
+     *
+     * @param encoder
+     * @param <T>
+     * @return
+     */
+    public static <T> KeyEncoder<T> descending(KeyEncoder<T> encoder) {
+        return (value, out) -> {
+            int from = out.size();
+            encoder.encode(value, out);
+            out.invert(from);
+        };
+    }
+
+    /**
+     * 组合关键码编码器，按字段顺序依次写入每个字段的编码，fields[i]用于编码第i个字段，除最后一个字段外的编码必须是自定界的。
+     *
+     * @param fields
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public static KeyEncoder<Object[]> tuple(KeyEncoder<?>... fields) {
+        KeyEncoder<Object>[] encoders = (KeyEncoder<Object>[]) fields.clone();
+        return (value, out) -> {
+            if (value.length != encoders.length) {
+                throw new IllegalArgumentException("Tuple size must be " + encoders.length + ".");
+            }
+            for (int i = 0; i < encoders.length; i++) {
+                encoders[i].encode(value[i], out);
+            }
+        };
+    }
+
+}
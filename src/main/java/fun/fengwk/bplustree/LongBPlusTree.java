@@ -0,0 +1,121 @@
+package fun.fengwk.bplustree;
+
+import java.util.Objects;
+
+/**
+ * <h1>long B+树
+ * <p>关键码为long的B+树，定义、约定与算法与{@link BPlusTree}一致，关键码直接存放在long[]中，比较无需装箱与调用compareTo。
+ *
+ * <p>与泛型实现的差异：基本类型无法表示空关键码，内部节点通过present[i]标识keys[i]是否存在，present[i]为false对应泛型实现中的空关键码。
+ *
+ * @author fengwk
+ */
+public class LongBPlusTree<V> extends PrimitiveBPlusTree {
+
+    /**
+     * 构造一棵m阶B+树。
+     *
+     * @param m
+     */
+    public LongBPlusTree(int m) {
+        super(m);
+    }
+
+    @Override
+    Object newKeys(int n) {
+        return new long[n];
+    }
+
+    @Override
+    Object newValues(int n) {
+        return new Object[n];
+    }
+
+    @Override
+    int compare(Object a, int i, Object b, int j) {
+        return Long.compare(((long[]) a)[i], ((long[]) b)[j]);
+    }
+
+    /**
+     * M1.搜索。
+     *
+     * @param key
+     * @return 关键码key对应的值，不存在则返回null。
+     */
+    public V search(long key) {
+        Node root = this.root;
+        if (root == null) {
+            return null;
+        }
+
+        LeafNode node = searchLeaf(root, key, null);
+        long[] keys = (long[]) node.keys;
+        int r = littleLess(keys, node.size, key);
+        return r+1 < node.size && keys[r+1] == key ? valueAt(node, r+1) : null;
+    }
+
+    /**
+     * M2.插入。
+     *
+     * @param key
+     * @param value
+     */
+    public void insert(long key, V value) {
+        Objects.requireNonNull(value, "Value cannot be null.");
+
+        // 首先处理树为空的情况
+        Node root = this.root;
+        if (root == null) {
+            LeafNode newRoot = newLeafNode(null, null);
+            set(newRoot, 0, key, value);
+            this.root = newRoot;
+            return;
+        }
+
+        // 定位插入点
+        LeafNode node = searchLeaf(root, key, path);
+        int r = littleLess((long[]) node.keys, node.size, key);
+        // 插入
+        set(node, r+1, key, value);
+        afterInsert(node, path);
+    }
+
+    void set(LeafNode node, int i, long key, V value) {
+        openAt(node, i);
+        ((long[]) node.keys)[i] = key;
+        ((Object[]) node.values)[i] = value;
+    }
+
+    @SuppressWarnings("unchecked")
+    V valueAt(LeafNode node, int i) {
+        return (V) ((Object[]) node.values)[i];
+    }
+
+    /**
+     * M3.删除。
+     *
+     * @param key
+     * @return 被删除的值，不存在则返回null。
+     */
+    public V delete(long key) {
+        // 首先处理树为空的情况
+        Node root = this.root;
+        if (root == null) {
+            return null;
+        }
+
+        // 定位删除点
+        LeafNode node = searchLeaf(root, key, path);
+        long[] keys = (long[]) node.keys;
+        int r = littleLess(keys, node.size, key);
+        // 处理关键码不存在的情况
+        if (r+1 >= node.size || keys[r+1] > key) {
+            return null;
+        }
+
+        V deletedValue = valueAt(node, r+1);
+        deleteAt(node, r+1, path);
+        return deletedValue;
+    }
+
+}
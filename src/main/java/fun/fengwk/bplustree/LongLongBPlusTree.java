@@ -0,0 +1,127 @@
+package fun.fengwk.bplustree;
+
+/**
+ * <h1>long-long B+树
+ * <p>关键码与值均为long的B+树，定义、约定与算法与{@link BPlusTree}一致，关键码与值直接存放在long[]中，插入、搜索与删除不会为每个元素分配对象。
+ *
+ * <p>与泛型实现的差异：
+ * <ol>
+ * <li>基本类型无法表示空关键码，内部节点通过present[i]标识keys[i]是否存在，present[i]为false对应泛型实现中的空关键码。
+ * <li>基本类型无法表示空值，构造时指定noValue，search与delete在关键码不存在时返回noValue，因此不允许插入noValue。
+ * </ol>
+ *
+ * @author fengwk
+ */
+public class LongLongBPlusTree extends PrimitiveBPlusTree {
+
+    /**
+     * 表示值不存在，不允许插入。
+     */
+    final long noValue;
+
+    /**
+     * 构造一棵m阶B+树。
+     *
+     * @param m
+     * @param noValue 关键码不存在时search与delete的返回值。
+     */
+    public LongLongBPlusTree(int m, long noValue) {
+        super(m);
+        this.noValue = noValue;
+    }
+
+    @Override
+    Object newKeys(int n) {
+        return new long[n];
+    }
+
+    @Override
+    Object newValues(int n) {
+        return new long[n];
+    }
+
+    @Override
+    int compare(Object a, int i, Object b, int j) {
+        return Long.compare(((long[]) a)[i], ((long[]) b)[j]);
+    }
+
+    /**
+     * M1.搜索。
+     *
+     * @param key
+     * @return 关键码key对应的值，不存在则返回noValue。
+     */
+    public long search(long key) {
+        Node root = this.root;
+        if (root == null) {
+            return noValue;
+        }
+
+        LeafNode node = searchLeaf(root, key, null);
+        long[] keys = (long[]) node.keys;
+        int r = littleLess(keys, node.size, key);
+        return r+1 < node.size && keys[r+1] == key ? ((long[]) node.values)[r+1] : noValue;
+    }
+
+    /**
+     * M2.插入。
+     *
+     * @param key
+     * @param value
+     */
+    public void insert(long key, long value) {
+        if (value == noValue) {
+            throw new IllegalArgumentException("Value cannot be noValue.");
+        }
+
+        // 首先处理树为空的情况
+        Node root = this.root;
+        if (root == null) {
+            LeafNode newRoot = newLeafNode(null, null);
+            set(newRoot, 0, key, value);
+            this.root = newRoot;
+            return;
+        }
+
+        // 定位插入点
+        LeafNode node = searchLeaf(root, key, path);
+        int r = littleLess((long[]) node.keys, node.size, key);
+        // 插入
+        set(node, r+1, key, value);
+        afterInsert(node, path);
+    }
+
+    void set(LeafNode node, int i, long key, long value) {
+        openAt(node, i);
+        ((long[]) node.keys)[i] = key;
+        ((long[]) node.values)[i] = value;
+    }
+
+    /**
+     * M3.删除。
+     *
+     * @param key
+     * @return 被删除的值，不存在则返回noValue。
+     */
+    public long delete(long key) {
+        // 首先处理树为空的情况
+        Node root = this.root;
+        if (root == null) {
+            return noValue;
+        }
+
+        // 定位删除点
+        LeafNode node = searchLeaf(root, key, path);
+        long[] keys = (long[]) node.keys;
+        int r = littleLess(keys, node.size, key);
+        // 处理关键码不存在的情况
+        if (r+1 >= node.size || keys[r+1] > key) {
+            return noValue;
+        }
+
+        long deletedValue = ((long[]) node.values)[r+1];
+        deleteAt(node, r+1, path);
+        return deletedValue;
+    }
+
+}
@@ -0,0 +1,58 @@
+package fun.fengwk.bplustree;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 页面存储，页面是固定大小的字节区域，通过从0开始的页号引用。
+ *
+ * <p>read与write返回的缓冲区只保证在下一次访问页面存储之前有效，调用方不应跨越其它页面访问持有缓冲区。
+ *
+ * @author fengwk
+ */
+public interface PageStore {
+
+    /**
+     * 页面大小。
+     *
+     * @return
+     */
+    int pageSize();
+
+    /**
+     * 曾经分配过的页面数量，即下一个新页面的页号，空存储为0。
+     *
+     * @return
+     */
+    int pageCount();
+
+    /**
+     * 分配一个页面，返回页号。
+     *
+     * @return
+     */
+    int allocate();
+
+    /**
+     * 释放页面，被释放的页号可能被后续allocate复用。
+     *
+     * @param page
+     */
+    void free(int page);
+
+    /**
+     * 获取用于读取的页面缓冲区，页面内容位于[0, pageSize)区间。
+     *
+     * @param page
+     * @return
+     */
+    ByteBuffer read(int page);
+
+    /**
+     * 获取用于写入的页面缓冲区，页面内容位于[0, pageSize)区间。
+     *
+     * @param page
+     * @return
+     */
+    ByteBuffer write(int page);
+
+}
@@ -0,0 +1,905 @@
+package fun.fengwk.bplustree;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedList;
+
+/**
+ * <h1>分页B+树
+ * <p>节点存放在{@link PageStore}提供的定长页面中而非Java对象中，节点之间通过页号引用，关键码与值通过定长编解码器序列化。
+ * 定义、约定与算法与{@link BPlusTree}一致，默认使用{@link DirectPageStore}将页面放在堆外，堆内仅保留与页面数量成正比的少量对象。
+ *
+ * <p>页面布局：
+ * <pre>
+ * 头部：type(1) size(4) prev(4) next(4)
+ * 内部节点：(present(1) key(keyWidth) child(4)) * (m+1)
+ * 叶子节点：(key(keyWidth) value(valueWidth)) * m
+ * </pre>
+ * 页号NIL表示引用为空，内部节点通过present标识关键码是否存在，present为0对应泛型实现中的空关键码。
+ * 与{@link BPlusTree}相同，页面中不保存父节点页号，插入与删除在下降时记录经过的页号与分支下标，修改时通过路径定位父节点以及节点在父节点中的位置，
+ * 因此分裂、合并与借用只需写入发生变化的页面，不需要改写被移动分支的子节点页面。
+ *
+ * <p>与泛型实现的差异：值不能为空，search与delete在关键码不存在时返回null。
+ *
+ * @author fengwk
+ */
+public class PagedBPlusTree<K extends Comparable<K>, V> {
+
+    /* 页面布局 */
+
+    /**
+     * 空页号。
+     */
+    static final int NIL = -1;
+
+    static final byte LEAF = 0;
+    static final byte INTERNAL = 1;
+
+    static final int TYPE = 0;
+    static final int SIZE = 1;
+    static final int PREV = 5;
+    static final int NEXT = 9;
+    static final int HEADER = 13;
+
+    /**
+     * 元数据页号，元数据页依次存放m、关键码宽度、值宽度与根节点页号。
+     */
+    static final int META = 0;
+    static final int META_M = 0;
+    static final int META_KEY_WIDTH = 4;
+    static final int META_VALUE_WIDTH = 8;
+    static final int META_ROOT = 12;
+
+    /* B+树属性 */
+
+    /**
+     * 阶次。
+     */
+    final int m;
+
+    final KeyCodec<K> keyCodec;
+
+    final Codec<V> valueCodec;
+
+    /**
+     * 页面存储。
+     */
+    final PageStore store;
+
+    /**
+     * 关键码宽度。
+     */
+    final int kw;
+
+    /**
+     * 内部节点槽位宽度。
+     */
+    final int internalSlot;
+
+    /**
+     * 叶子节点槽位宽度。
+     */
+    final int leafSlot;
+
+    /**
+     * 页面之间移动数据时使用的缓冲区，移动时先读出源页面再写入目标页面，保证同一时刻只持有一个页面缓冲区。
+     */
+    final byte[] scratch;
+
+    /**
+     * 根节点页号。
+     */
+    int root = NIL;
+
+    /**
+     * 插入与删除复用的下降路径。
+     */
+    final Path path = new Path();
+
+    /**
+     * 删除时更新后一个叶子节点索引所用的路径。
+     */
+    final Path nextPath = new Path();
+
+    /**
+     * 构造一棵m阶B+树，页面存放在直接内存中。
+     *
+     * @param m
+     * @param keyCodec
+     * @param valueCodec
+     */
+    public PagedBPlusTree(int m, KeyCodec<K> keyCodec, Codec<V> valueCodec) {
+        this(m, keyCodec, valueCodec, new DirectPageStore(pageSize(m, keyCodec, valueCodec)));
+    }
+
+    /**
+     * 构造一棵m阶B+树，页面存放在store中。
+     *
+     * @param m
+     * @param keyCodec
+     * @param valueCodec
+     * @param store 页面大小不能小于{@link #pageSize(int, Codec, Codec)}，如果store中已有页面则从元数据页恢复B+树。
+     */
+    public PagedBPlusTree(int m, KeyCodec<K> keyCodec, Codec<V> valueCodec, PageStore store) {
+        int pageSize = pageSize(m, keyCodec, valueCodec);
+        if (store.pageSize() < pageSize) {
+            throw new IllegalArgumentException("Page size must be at least " + pageSize + ".");
+        }
+        this.m = m;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.store = store;
+        this.kw = keyCodec.width();
+        this.internalSlot = 1 + kw + 4;
+        this.leafSlot = kw + valueCodec.width();
+        this.scratch = new byte[pageSize];
+        if (store.pageCount() == 0) {
+            // 新的页面存储，首个页面作为元数据页。
+            ByteBuffer meta = store.write(store.allocate());
+            meta.putInt(META_M, m);
+            meta.putInt(META_KEY_WIDTH, kw);
+            meta.putInt(META_VALUE_WIDTH, valueCodec.width());
+            meta.putInt(META_ROOT, NIL);
+        } else {
+            // 已有的页面存储，从元数据页恢复根节点。
+            ByteBuffer meta = store.read(META);
+            if (meta.getInt(META_M) != m || meta.getInt(META_KEY_WIDTH) != kw || meta.getInt(META_VALUE_WIDTH) != valueCodec.width()) {
+                throw new IllegalArgumentException("Page store was created with a different order or codec width.");
+            }
+            this.root = meta.getInt(META_ROOT);
+        }
+    }
+
+    /**
+     * 计算m阶B+树所需的页面大小。
+     *
+     * @param m
+     * @param keyCodec
+     * @param valueCodec
+     * @return
+     */
+    public static int pageSize(int m, Codec<?> keyCodec, Codec<?> valueCodec) {
+        int internal = (1 + keyCodec.width() + 4) * (m+1);
+        int leaf = (keyCodec.width() + valueCodec.width()) * m;
+        return HEADER + Math.max(internal, leaf);
+    }
+
+    /* 下降路径 */
+
+    /**
+     * 从根节点到叶子节点的下降路径。
+     * <p>nodes[i]为第i层内部节点的页号，slots[i]为路径在其中经过的分支下标，根节点位于第0层，叶子节点位于第depth层。
+     */
+    class Path {
+
+        int[] nodes = new int[8];
+
+        int[] slots = new int[8];
+
+        /**
+         * 路径上内部节点的数量。
+         */
+        int depth;
+
+        void push(int node, int slot) {
+            if (depth == nodes.length) {
+                nodes = Arrays.copyOf(nodes, depth << 1);
+                slots = Arrays.copyOf(slots, depth << 1);
+            }
+            nodes[depth] = node;
+            slots[depth] = slot;
+            depth++;
+        }
+
+        /**
+         * 第level层节点的父节点页号，根节点返回NIL。
+         */
+        int parent(int level) {
+            return level > 0 ? nodes[level-1] : NIL;
+        }
+
+        /**
+         * 第level层节点在父节点中的位置。
+         */
+        int slot(int level) {
+            return slots[level-1];
+        }
+
+        /**
+         * 移动到下一个叶子节点的路径，调用方需保证下一个叶子节点存在。
+         */
+        void advance() {
+            int l = depth-1;
+            while (slots[l]+1 >= size(nodes[l])) {
+                l--;
+            }
+            slots[l]++;
+            for (l++; l < depth; l++) {
+                nodes[l] = child(nodes[l-1], slots[l-1]);
+                slots[l] = 0;
+            }
+        }
+
+        void copyFrom(Path path) {
+            if (nodes.length < path.depth) {
+                nodes = Arrays.copyOf(nodes, path.nodes.length);
+                slots = Arrays.copyOf(slots, path.slots.length);
+            }
+            System.arraycopy(path.nodes, 0, nodes, 0, path.depth);
+            System.arraycopy(path.slots, 0, slots, 0, path.depth);
+            depth = path.depth;
+        }
+
+    }
+
+    /* 节点存储 */
+
+    void setRoot(int root) {
+        this.root = root;
+        store.write(META).putInt(META_ROOT, root);
+    }
+
+    int newInternalNode() {
+        return newNode(INTERNAL, NIL, NIL);
+    }
+
+    int newLeafNode(int prev, int next) {
+        return newNode(LEAF, prev, next);
+    }
+
+    int newNode(byte type, int prev, int next) {
+        int node = store.allocate();
+        ByteBuffer buf = store.write(node);
+        buf.put(TYPE, type);
+        buf.putInt(SIZE, 0);
+        buf.putInt(PREV, prev);
+        buf.putInt(NEXT, next);
+        return node;
+    }
+
+    boolean isLeaf(int node) {
+        return store.read(node).get(TYPE) == LEAF;
+    }
+
+    int size(int node) {
+        return store.read(node).getInt(SIZE);
+    }
+
+    void setSize(int node, int size) {
+        store.write(node).putInt(SIZE, size);
+    }
+
+    int prev(int node) {
+        return store.read(node).getInt(PREV);
+    }
+
+    void setPrev(int node, int prev) {
+        store.write(node).putInt(PREV, prev);
+    }
+
+    int next(int node) {
+        return store.read(node).getInt(NEXT);
+    }
+
+    void setNext(int node, int next) {
+        store.write(node).putInt(NEXT, next);
+    }
+
+    int internalOffset(int i) {
+        return HEADER + i * internalSlot;
+    }
+
+    int leafOffset(int i) {
+        return HEADER + i * leafSlot;
+    }
+
+    /**
+     * 第i个关键码在页面中的偏移量，内部节点跳过present字节。
+     */
+    int keyOffset(int node, int i) {
+        return isLeaf(node) ? leafOffset(i) : internalOffset(i) + 1;
+    }
+
+    boolean present(int node, int i) {
+        return store.read(node).get(internalOffset(i)) != 0;
+    }
+
+    int child(int node, int i) {
+        return store.read(node).getInt(internalOffset(i) + 1 + kw);
+    }
+
+    K internalKey(int node, int i) {
+        return keyCodec.read(store.read(node), internalOffset(i) + 1);
+    }
+
+    K leafKey(int node, int i) {
+        return keyCodec.read(store.read(node), leafOffset(i));
+    }
+
+    V leafValue(int node, int i) {
+        return valueCodec.read(store.read(node), leafOffset(i) + kw);
+    }
+
+    int compareLeafKey(int node, int i, K key) {
+        return keyCodec.compare(store.read(node), leafOffset(i), key);
+    }
+
+    /**
+     * 将src页面[srcOffset, srcOffset+length)区间的字节复制到dst页面dstOffset处，允许重叠。
+     */
+    void copy(int src, int srcOffset, int dst, int dstOffset, int length) {
+        if (length <= 0) {
+            return;
+        }
+        ByteBuffer srcBuf = store.read(src);
+        // 通过Buffer调用position以兼容Java 8。
+        ((Buffer) srcBuf).position(srcOffset);
+        srcBuf.get(scratch, 0, length);
+        ByteBuffer dstBuf = store.write(dst);
+        ((Buffer) dstBuf).position(dstOffset);
+        dstBuf.put(scratch, 0, length);
+    }
+
+    void insertAt(int node, int i, int child) {
+        int size = size(node);
+        copy(node, internalOffset(i), node, internalOffset(i+1), (size-i) * internalSlot);
+        ByteBuffer buf = store.write(node);
+        buf.put(internalOffset(i), (byte) 0);
+        buf.putInt(internalOffset(i) + 1 + kw, child);
+        buf.putInt(SIZE, size+1);
+    }
+
+    void insertAt(int node, int i, K key, V value) {
+        int size = size(node);
+        copy(node, leafOffset(i), node, leafOffset(i+1), (size-i) * leafSlot);
+        ByteBuffer buf = store.write(node);
+        keyCodec.write(buf, leafOffset(i), key);
+        valueCodec.write(buf, leafOffset(i) + kw, value);
+        buf.putInt(SIZE, size+1);
+    }
+
+    /**
+     * 移除内部节点第i个分支，返回被移除的子节点页号。
+     */
+    int removeChildAt(int node, int i) {
+        int removed = child(node, i);
+        int size = size(node);
+        copy(node, internalOffset(i+1), node, internalOffset(i), (size-i-1) * internalSlot);
+        setSize(node, size-1);
+        return removed;
+    }
+
+    /**
+     * 移除叶子节点第i个元素，返回被移除的值。
+     */
+    V removeValueAt(int node, int i) {
+        V removed = leafValue(node, i);
+        int size = size(node);
+        copy(node, leafOffset(i+1), node, leafOffset(i), (size-i-1) * leafSlot);
+        setSize(node, size-1);
+        return removed;
+    }
+
+    void moveTail(int src, int from, int dst) {
+        int srcSize = size(src);
+        int dstSize = size(dst);
+        int moved = srcSize-from;
+        if (isLeaf(src)) {
+            copy(src, leafOffset(from), dst, leafOffset(dstSize), moved * leafSlot);
+        } else {
+            copy(src, internalOffset(from), dst, internalOffset(dstSize), moved * internalSlot);
+        }
+        setSize(dst, dstSize+moved);
+        setSize(src, from);
+    }
+
+    /* 辅助算法 */
+
+    /**
+     * A1.判断根节点。
+     */
+    boolean isRoot(int node) {
+        return node == root;
+    }
+
+    /**
+     * A2.判断上溢。
+     */
+    boolean isOverflow(int node) {
+        return isLeaf(node) ? size(node) > m-1 : size(node) > m;
+    }
+
+    /**
+     * A3.判断下溢。
+     */
+    boolean isUnderflow(int node) {
+        int size = size(node);
+        if (!isLeaf(node)) {
+            return isRoot(node) ? size < 2 : size < (m+1)/2;
+        }
+        return isRoot(node) ? size < 1 : size < (m+1)/2-1;
+    }
+
+    /**
+     * A4.key所在子树，返回分支下标。
+     */
+    int locateChildIndex(int node, K key) {
+        ByteBuffer buf = store.read(node);
+        int r = 0;
+        int lo = 0, hi = buf.getInt(SIZE)-1;
+        while (lo <= hi) {
+            int mi = (lo + hi) >>> 1;
+            int nn = mi;
+            while (nn >= lo && buf.get(internalOffset(nn)) == 0) {
+                nn--;
+            }
+            if (nn < lo) {
+                lo = mi + 1;
+            } else if (keyCodec.compare(buf, internalOffset(nn) + 1, key) > 0) {
+                hi = nn - 1;
+            } else {
+                r = nn;
+                lo = mi + 1;
+            }
+        }
+        return r;
+    }
+
+    /**
+     * A6.搜索叶子节点，path不为null时将下降路径记录到path中，A5向右跳转叶子节点时同步移动路径。
+     */
+    int searchLeaf(int node, K key, Path path) {
+        if (path != null) {
+            path.depth = 0;
+        }
+        while (!isLeaf(node)) {
+            int i = locateChildIndex(node, key);
+            if (path != null) {
+                path.push(node, i);
+            }
+            node = child(node, i);
+        }
+        // A5.key所在叶子。
+        int next;
+        while (compareLeafKey(node, size(node)-1, key) < 0 && (next = next(node)) != NIL) {
+            node = next;
+            if (path != null) {
+                path.advance();
+            }
+        }
+        return node;
+    }
+
+    /**
+     * A7.在叶子节点中查找key。
+     * 查找小于key秩最大的元素的下标。
+     */
+    int littleLess(int node, K key) {
+        ByteBuffer buf = store.read(node);
+        int lo = 0, hi = buf.getInt(SIZE);
+        while (lo < hi) {
+            int mi = (lo + hi) >>> 1;
+            if (keyCodec.compare(buf, leafOffset(mi), key) < 0) {
+                lo = mi + 1;
+            } else {
+                hi = mi;
+            }
+        }
+        return lo - 1;
+    }
+
+    /**
+     * 查找叶子节点中不大于key秩最大的元素的下标。
+     */
+    int littleLessOrEqual(int node, K key) {
+        ByteBuffer buf = store.read(node);
+        int lo = 0, hi = buf.getInt(SIZE);
+        while (lo < hi) {
+            int mi = (lo + hi) >>> 1;
+            if (keyCodec.compare(buf, leafOffset(mi), key) <= 0) {
+                lo = mi + 1;
+            } else {
+                hi = mi;
+            }
+        }
+        return lo - 1;
+    }
+
+    /**
+     * A8与A9.索引更新，将parent中第i个索引设置为其分支应对应的索引值，直接比较与复制关键码的编码。
+     *
+     * @param parent
+     * @param i
+     * @return true-进行了更新，false-未进行更新。
+     */
+    boolean updateIndexKey(int parent, int i) {
+        int child = child(parent, i);
+        int at = indexKeyAt(child);
+        boolean present = at >= 0;
+        if (present) {
+            int keyOffset = keyOffset(child, at);
+            ByteBuffer childBuf = store.read(child);
+            ((Buffer) childBuf).position(keyOffset);
+            childBuf.get(scratch, 0, kw);
+        }
+
+        int offset = internalOffset(i);
+        ByteBuffer buf = store.read(parent);
+        if ((buf.get(offset) != 0) == present && (!present || equalsScratch(buf, offset + 1))) {
+            return false;
+        }
+        buf = store.write(parent);
+        buf.put(offset, (byte) (present ? 1 : 0));
+        if (present) {
+            ((Buffer) buf).position(offset + 1);
+            buf.put(scratch, 0, kw);
+        }
+        return true;
+    }
+
+    boolean equalsScratch(ByteBuffer buf, int offset) {
+        for (int i = 0; i < kw; i++) {
+            if (buf.get(offset + i) != scratch[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 获取输入节点应对应的索引值在其关键码中的下标，-1表示索引为空。
+     *
+     * @param node
+     * @return
+     */
+    int indexKeyAt(int node) {
+        int size = size(node);
+        if (!isLeaf(node)) {
+            for (int i = 0; i < size; i++) {
+                if (present(node, i)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        // 空节点的索引为空。
+        if (size == 0) {
+            return -1;
+        }
+        // 如果前一个叶子节点不存在或者前一个叶子节点最后部分与当前叶子节点的第一个关键码不同则直接返回当前叶子节点的首个关键码即可。
+        K firstKey = leafKey(node, 0);
+        int prev = prev(node);
+        int prevSize;
+        if (prev == NIL || (prevSize = size(prev)) == 0 || compareLeafKey(prev, prevSize-1, firstKey) < 0) {
+            return 0;
+        }
+        // 查找首个大于firstKey的关键码，不存在则索引为空。
+        int at = littleLessOrEqual(node, firstKey) + 1;
+        return at < size ? at : -1;
+    }
+
+    /**
+     * 沿路径从第level层的节点开始不断地向上更新索引，直到没有更新变化或者到达根节点为止。
+     */
+    void propagateUpdateIndexKey(Path path, int level) {
+        while (level > 0 && updateIndexKey(path.parent(level), path.slot(level))) {
+            level--;
+        }
+    }
+
+    /**
+     * 插入后更新叶子节点的索引，path为到达该叶子节点的路径。
+     */
+    void tryUpdateIndexKeyAfterInsert(Path path) {
+        int level = path.depth;
+        if (level > 0 && updateIndexKey(path.parent(level), path.slot(level))) {
+            propagateUpdateIndexKey(path, level-1);
+        }
+    }
+
+    /**
+     * 删除后更新叶子节点的索引，删除了叶子节点的最后一个关键码时后一个叶子节点的索引也可能改变。
+     */
+    void tryUpdateIndexKeyAfterDelete(Path path, boolean shouldTryUpdateNextLeafNodeIndexKey) {
+        int level = path.depth;
+        if (level == 0) {
+            return;
+        }
+        boolean propagate = updateIndexKey(path.parent(level), path.slot(level));
+        boolean nextPropagate = false;
+        if (shouldTryUpdateNextLeafNodeIndexKey) {
+            nextPath.copyFrom(path);
+            nextPath.advance();
+            nextPropagate = updateIndexKey(nextPath.parent(level), nextPath.slot(level));
+        }
+        if (propagate) {
+            propagateUpdateIndexKey(path, level-1);
+        }
+        if (nextPropagate && (!propagate || nextPath.parent(level) != path.parent(level))) {
+            propagateUpdateIndexKey(nextPath, level-1);
+        }
+    }
+
+    int split(int node) {
+        /*
+         * 与泛型实现相同，内部节点左右分支数量分别为ceil(m/2)和floor(m/2)+1，叶子节点左右关键码数量分别为floor(m/2)和m+1-floor(m/2)。
+         */
+        int mi = size(node) / 2;
+        if (!isLeaf(node)) {
+            int rightNode = newInternalNode();
+            moveTail(node, mi, rightNode);
+            return rightNode;
+        }
+
+        int next = next(node);
+        int rightNode = newLeafNode(node, next);
+        if (next != NIL) {
+            setPrev(next, rightNode);
+        }
+        setNext(node, rightNode);
+        moveTail(node, mi, rightNode);
+        return rightNode;
+    }
+
+    /**
+     * 左兄弟parent中第i个分支借给右兄弟第i+1个分支一个关键码或分支。
+     */
+    void leftLendRight(int parent, int i) {
+        int left = child(parent, i);
+        int right = child(parent, i+1);
+        int leftSize = size(left);
+        if (!isLeaf(left)) {
+            int leftLastChild = removeChildAt(left, leftSize-1);
+            insertAt(right, 0, leftLastChild);
+            // 内部节点移动的分支的索引在新位置重新计算。
+            updateIndexKey(right, 0);
+        } else {
+            K leftLastKey = leafKey(left, leftSize-1);
+            V leftLastValue = removeValueAt(left, leftSize-1);
+            insertAt(right, 0, leftLastKey, leftLastValue);
+        }
+        updateIndexKey(parent, i);
+        updateIndexKey(parent, i+1);
+    }
+
+    /**
+     * 右兄弟parent中第i+1个分支借给左兄弟第i个分支一个关键码或分支。
+     */
+    void rightLendLeft(int parent, int i) {
+        int left = child(parent, i);
+        int right = child(parent, i+1);
+        int leftSize = size(left);
+        if (!isLeaf(left)) {
+            int rightFirstChild = removeChildAt(right, 0);
+            insertAt(left, leftSize, rightFirstChild);
+            updateIndexKey(left, leftSize);
+        } else {
+            K rightFirstKey = leafKey(right, 0);
+            V rightFirstValue = removeValueAt(right, 0);
+            insertAt(left, leftSize, rightFirstKey, rightFirstValue);
+        }
+        updateIndexKey(parent, i);
+        updateIndexKey(parent, i+1);
+    }
+
+    /**
+     * 合并，将parent中第i+1个分支合并到第i个分支中。
+     */
+    void merge(int parent, int i) {
+        int left = child(parent, i);
+        int right = removeChildAt(parent, i+1);
+        moveTail(right, 0, left);
+        if (isLeaf(left)) {
+            int next = next(right);
+            setNext(left, next);
+            if (next != NIL) {
+                setPrev(next, left);
+            }
+        }
+        store.free(right);
+        updateIndexKey(parent, i);
+    }
+
+    /**
+     * A10.解决上溢。
+     * <p>node位于path的第level层，沿路径向上逐层分裂。
+     */
+    void trySolveOverflow(int node, Path path, int level) {
+        while (isOverflow(node)) {
+            int rightNode = split(node);
+            int parent = path.parent(level);
+            if (parent == NIL) {
+                // 根节点被分裂了。
+                int newRoot = newInternalNode();
+                insertAt(newRoot, 0, node);
+                insertAt(newRoot, 1, rightNode);
+                updateIndexKey(newRoot, 0);
+                updateIndexKey(newRoot, 1);
+                setRoot(newRoot);
+                return;
+            }
+            // 分裂的索引更新只会影响其parent，而不会再向上传播。
+            int slot = path.slot(level);
+            updateIndexKey(parent, slot);
+            insertAt(parent, slot+1, rightNode);
+            updateIndexKey(parent, slot+1);
+            node = parent;
+            level--;
+        }
+    }
+
+    /**
+     * A11.解决下溢。
+     * <p>node位于path的第level层，沿路径向上逐层借用或合并。
+     */
+    void trySolveUnderflow(int node, Path path, int level) {
+        while (node != NIL && isUnderflow(node)) {
+            int parent = path.parent(level);
+            if (parent == NIL) {
+                // 根节点发生下溢。
+                int newRoot = isLeaf(node) ? NIL : child(node, 0);
+                store.free(node);
+                setRoot(newRoot);
+            } else {
+                int indexInParent = path.slot(level);
+                int parentSize = size(parent);
+                int leftSibling = indexInParent-1 >= 0 ? child(parent, indexInParent-1) : NIL;
+                int rightSibling = indexInParent+1 < parentSize ? child(parent, indexInParent+1) : NIL;
+
+                // 首先尝试从兄弟借，成功则无需再向上传递。
+                if (leftSibling != NIL && size(leftSibling) > (m+1)/2) {
+                    leftLendRight(parent, indexInParent-1);
+                    continue;
+                }
+                if (rightSibling != NIL && size(rightSibling) > (m+1)/2) {
+                    rightLendLeft(parent, indexInParent);
+                    continue;
+                }
+
+                // 合并。
+                if (leftSibling != NIL) {
+                    merge(parent, indexInParent-1);
+                } else {
+                    merge(parent, indexInParent);
+                }
+            }
+            node = parent;
+            level--;
+        }
+    }
+
+    /* 主算法 */
+
+    /**
+     * M1.搜索。
+     *
+     * @param key
+     * @return 关键码key对应的值，不存在则返回null。
+     */
+    public V search(K key) {
+        int root = this.root;
+        if (root == NIL) {
+            return null;
+        }
+
+        int node = searchLeaf(root, key, null);
+        int r = littleLess(node, key);
+        return r+1 < size(node) && compareLeafKey(node, r+1, key) == 0 ? leafValue(node, r+1) : null;
+    }
+
+    /**
+     * M2.插入。
+     *
+     * @param key
+     * @param value
+     */
+    public void insert(K key, V value) {
+        // 定长编码无法表示空值。
+        if (key == null || value == null) {
+            throw new NullPointerException("Key and value cannot be null.");
+        }
+
+        // 首先处理树为空的情况
+        int root = this.root;
+        if (root == NIL) {
+            int newRoot = newLeafNode(NIL, NIL);
+            insertAt(newRoot, 0, key, value);
+            setRoot(newRoot);
+            return;
+        }
+
+        // 定位插入点
+        Path path = this.path;
+        int node = searchLeaf(root, key, path);
+        int r = littleLess(node, key);
+        // 插入
+        insertAt(node, r+1, key, value);
+        // 尝试更新索引
+        tryUpdateIndexKeyAfterInsert(path);
+        // 尝试解决上溢
+        trySolveOverflow(node, path, path.depth);
+    }
+
+    /**
+     * M3.删除。
+     *
+     * @param key
+     * @return 被删除的值，不存在则返回null。
+     */
+    public V delete(K key) {
+        // 首先处理树为空的情况
+        int root = this.root;
+        if (root == NIL) {
+            return null;
+        }
+
+        // 定位删除点
+        Path path = this.path;
+        int node = searchLeaf(root, key, path);
+        int r = littleLess(node, key);
+        int size = size(node);
+        // 处理关键码不存在的情况
+        if (r+1 >= size || compareLeafKey(node, r+1, key) > 0) {
+            return null;
+        }
+
+        boolean shouldTryUpdateNextLeafNodeIndexKey = r+2 == size && next(node) != NIL;
+        // 删除
+        V deletedValue = removeValueAt(node, r+1);
+        // 尝试更新索引
+        tryUpdateIndexKeyAfterDelete(path, shouldTryUpdateNextLeafNodeIndexKey);
+        // 尝试解决下溢
+        trySolveUnderflow(node, path, path.depth);
+
+        return deletedValue;
+    }
+
+    String nodeToString(int node) {
+        StringBuilder builder = new StringBuilder();
+        builder.append('{');
+        boolean leaf = isLeaf(node);
+        for (int i = 0, size = size(node); i < size; i++) {
+            if (leaf) {
+                builder.append(leafKey(node, i)).append('=').append(leafValue(node, i));
+            } else if (present(node, i)) {
+                builder.append(internalKey(node, i));
+            } else {
+                builder.append('#');
+            }
+            builder.append(',');
+        }
+        return (builder.length() > 1 ? builder.substring(0, builder.length()-1) : builder.toString()) + '}';
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("B+Tree\n");
+        if (root == NIL) {
+            builder.append("Empty");
+            return builder.toString();
+        }
+        LinkedList<Integer> curQueue = new LinkedList<>();
+        LinkedList<Integer> nextQueue = new LinkedList<>();
+        curQueue.offer(root);
+        while (!curQueue.isEmpty()) {
+            int cur = curQueue.poll();
+            builder.append(nodeToString(cur)).append(' ');
+            if (!isLeaf(cur)) {
+                for (int i = 0, size = size(cur); i < size; i++) {
+                    nextQueue.offer(child(cur, i));
+                }
+            }
+            if (curQueue.isEmpty()) {
+                builder.append('\n');
+                LinkedList<Integer> temp = curQueue;
+                curQueue = nextQueue;
+                nextQueue = temp;
+            }
+        }
+        return builder.toString();
+    }
+
+}
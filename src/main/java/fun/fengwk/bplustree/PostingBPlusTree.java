@@ -0,0 +1,330 @@
+package fun.fengwk.bplustree;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * <h1>倒排B+树
+ * <p>适用于关键码基数较低、重复关键码较多的场景。{@link BPlusTree}将重复关键码逐个存放在叶子节点中，
+ * 热点关键码会横跨大量叶子节点，内部节点中也会出现大量空索引；当前实现中每个不同的关键码在内部的{@link BPlusTree}中只出现一次，
+ * 其所有值存放在该关键码对应的倒排表（Posting）中，因此树高只取决于不同关键码的数量。
+ *
+ * <p>倒排表按块存放值，首块容量从{@link Posting#INITIAL_CAPACITY}开始倍增直至{@link Posting#BLOCK_SIZE}，
+ * 之后每当末尾块写满时追加一个新的溢出块，追加与删除都不需要复制已有的块，每个值只占用一个引用的空间。
+ *
+ * <p>重复关键码的可见顺序与{@link BPlusTree}一致：search返回最近插入的值，delete删除最近插入的值，
+ * 升序遍历时同一关键码的值由新到旧返回，降序遍历时由旧到新返回。
+ * search、delete与count的代价均为一次B+树搜索，即O(log n)，其中n为不同关键码的数量。
+ *
+ * @author fengwk
+ */
+public class PostingBPlusTree<K extends Comparable<K>, V> {
+
+    /**
+     * 倒排表，值按插入顺序存放，末尾为最近插入的值。
+     */
+    static class Posting<V> {
+
+        static final int INITIAL_CAPACITY = 2;
+
+        static final int BLOCK_SHIFT = 8;
+
+        /**
+         * 块容量，必须是2的幂。
+         */
+        static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+
+        static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+        /**
+         * blocks[0, blockCount)为有效块，只有在仅有一个块时首块容量才可能小于BLOCK_SIZE，因此第i个值位于blocks[i/BLOCK_SIZE][i%BLOCK_SIZE]。
+         */
+        Object[][] blocks = new Object[][] { new Object[INITIAL_CAPACITY] };
+
+        int blockCount = 1;
+
+        /**
+         * 值数量。
+         */
+        int size;
+
+        void push(V value) {
+            Object[] tail = blocks[blockCount-1];
+            int offset = size & BLOCK_MASK;
+            if (blockCount == 1 && size == tail.length && size < BLOCK_SIZE) {
+                // 首块倍增。
+                tail = blocks[0] = Arrays.copyOf(tail, tail.length << 1);
+            } else if (offset == 0 && size > 0) {
+                // 末尾块已满，追加溢出块。
+                if (blockCount == blocks.length) {
+                    blocks = Arrays.copyOf(blocks, blockCount << 1);
+                }
+                tail = blocks[blockCount++] = new Object[BLOCK_SIZE];
+            }
+            tail[offset] = value;
+            size++;
+        }
+
+        @SuppressWarnings("unchecked")
+        V pop() {
+            int i = --size;
+            Object[] tail = blocks[blockCount-1];
+            V value = (V) tail[i & BLOCK_MASK];
+            tail[i & BLOCK_MASK] = null;
+            // 末尾溢出块清空后释放。
+            if ((i & BLOCK_MASK) == 0 && blockCount > 1) {
+                blocks[--blockCount] = null;
+            }
+            return value;
+        }
+
+        @SuppressWarnings("unchecked")
+        V get(int i) {
+            return (V) blocks[i >>> BLOCK_SHIFT][i & BLOCK_MASK];
+        }
+
+        V last() {
+            return get(size-1);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append('[');
+            for (int i = size-1; i >= 0; i--) {
+                builder.append(get(i));
+                if (i > 0) {
+                    builder.append(", ");
+                }
+            }
+            return builder.append(']').toString();
+        }
+
+    }
+
+    /**
+     * 每个不同的关键码只出现一次的B+树。
+     */
+    final BPlusTree<K, Posting<V>> tree;
+
+    /**
+     * 构造一棵m阶倒排B+树。
+     *
+     * @param m
+     */
+    public PostingBPlusTree(int m) {
+        this.tree = new BPlusTree<>(m);
+    }
+
+    /* 主算法 */
+
+    /**
+     * 搜索，返回关键码key最近插入的值。
+     *
+     * @param key
+     * @return
+     */
+    public V search(K key) {
+        Posting<V> posting = tree.search(key);
+        return posting == null ? null : posting.last();
+    }
+
+    /**
+     * 插入，关键码已存在时追加到其倒排表末尾。
+     *
+     * @param key
+     * @param value
+     */
+    public void insert(K key, V value) {
+        Objects.requireNonNull(key, "Key cannot be null.");
+        Objects.requireNonNull(value, "Value cannot be null.");
+
+        Posting<V> posting = tree.search(key);
+        if (posting == null) {
+            posting = new Posting<>();
+            tree.insert(key, posting);
+        }
+        posting.push(value);
+    }
+
+    /**
+     * 删除关键码key最近插入的值，倒排表为空时从B+树中删除该关键码。
+     *
+     * @param key
+     * @return
+     */
+    public V delete(K key) {
+        Posting<V> posting = tree.search(key);
+        if (posting == null) {
+            return null;
+        }
+        V deleted = posting.pop();
+        if (posting.size == 0) {
+            tree.delete(key);
+        }
+        return deleted;
+    }
+
+    /**
+     * 惰性返回关键码key所对应的全部值，顺序与逐次调用search与delete所观察到的顺序一致。
+     *
+     * @param key
+     * @return
+     */
+    public Iterator<V> searchAll(K key) {
+        Posting<V> posting = tree.search(key);
+        return posting == null ? Collections.emptyIterator() : new PostingIterator<>(posting, true);
+    }
+
+    /**
+     * 统计关键码key所对应值的数量，代价为一次B+树搜索。
+     *
+     * @param key
+     * @return
+     */
+    public int count(K key) {
+        Posting<V> posting = tree.search(key);
+        return posting == null ? 0 : posting.size;
+    }
+
+    /**
+     * 删除关键码key所对应的全部值。
+     *
+     * @param key
+     * @return 被删除值的数量。
+     */
+    public int deleteAll(K key) {
+        Posting<V> posting = tree.delete(key);
+        return posting == null ? 0 : posting.size;
+    }
+
+    /**
+     * 按升序惰性遍历关键码位于from与to之间的键值对，from或to为null表示对应方向无界。
+     * 遍历期间修改B+树的行为是未定义的。
+     *
+     * @param from
+     * @param fromInclusive
+     * @param to
+     * @param toInclusive
+     * @return
+     */
+    public Iterator<Map.Entry<K, V>> range(K from, boolean fromInclusive, K to, boolean toInclusive) {
+        return new EntryIterator(tree.range(from, fromInclusive, to, toInclusive), true);
+    }
+
+    /**
+     * 按降序惰性遍历关键码位于from与to之间的键值对，返回顺序与{@link #range(Comparable, boolean, Comparable, boolean)}恰好相反。
+     *
+     * @param from
+     * @param fromInclusive
+     * @param to
+     * @param toInclusive
+     * @return
+     */
+    public Iterator<Map.Entry<K, V>> descendingRange(K from, boolean fromInclusive, K to, boolean toInclusive) {
+        return new EntryIterator(tree.descendingRange(from, fromInclusive, to, toInclusive), false);
+    }
+
+    /**
+     * 按升序遍历全部键值对。
+     *
+     * @return
+     */
+    public Iterator<Map.Entry<K, V>> ascending() {
+        return range(null, true, null, true);
+    }
+
+    /**
+     * 按降序遍历全部键值对。
+     *
+     * @return
+     */
+    public Iterator<Map.Entry<K, V>> descending() {
+        return descendingRange(null, true, null, true);
+    }
+
+    /**
+     * 倒排表迭代器，newestFirst为true时由新到旧返回。
+     */
+    static class PostingIterator<V> implements Iterator<V> {
+
+        final Posting<V> posting;
+
+        final boolean newestFirst;
+
+        int remaining;
+
+        PostingIterator(Posting<V> posting, boolean newestFirst) {
+            this.posting = posting;
+            this.newestFirst = newestFirst;
+            this.remaining = posting.size;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+
+        @Override
+        public V next() {
+            if (remaining == 0) {
+                throw new NoSuchElementException();
+            }
+            remaining--;
+            return posting.get(newestFirst ? remaining : posting.size - remaining - 1);
+        }
+
+    }
+
+    /**
+     * 将每个关键码的倒排表展开为键值对。
+     */
+    class EntryIterator implements Iterator<Map.Entry<K, V>> {
+
+        final Iterator<Map.Entry<K, Posting<V>>> keys;
+
+        final boolean ascending;
+
+        K key;
+
+        PostingIterator<V> values;
+
+        EntryIterator(Iterator<Map.Entry<K, Posting<V>>> keys, boolean ascending) {
+            this.keys = keys;
+            this.ascending = ascending;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (values == null || !values.hasNext()) {
+                if (!keys.hasNext()) {
+                    return false;
+                }
+                Map.Entry<K, Posting<V>> entry = keys.next();
+                key = entry.getKey();
+                values = new PostingIterator<>(entry.getValue(), ascending);
+            }
+            return true;
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return new AbstractMap.SimpleImmutableEntry<>(key, values.next());
+        }
+
+    }
+
+    @Override
+    public String toString() {
+        return "Posting " + tree;
+    }
+
+}
@@ -0,0 +1,795 @@
+package fun.fengwk.bplustree;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.LinkedList;
+
+/**
+ * <h1>基本类型B+树的公共实现
+ * <p>{@link LongLongBPlusTree}、{@link LongBPlusTree}与{@link IntIntBPlusTree}共享的节点结构与算法，定义、约定与算法与{@link BPlusTree}一致。
+ * 关键码与值存放在基本类型数组中，这里以Object引用数组并通过{@link System#arraycopy}移动元素，
+ * 分裂、借用、合并与索引更新只需按下标比较关键码，由子类通过{@link #compare(Object, int, Object, int)}提供；
+ * 搜索路径上的二分查找按关键码类型分别实现，避免装箱与虚调用。
+ *
+ * <p>节点不保存父节点指针，插入与删除在下降时记录路径，修改时通过路径定位父节点以及节点在父节点中的位置。
+ *
+ * <p>基本类型无法表示空关键码，内部节点通过present[i]标识keys[i]是否存在，present[i]为false对应泛型实现中的空关键码。
+ *
+ * @author fengwk
+ */
+abstract class PrimitiveBPlusTree {
+
+    /* 数据结构定义 */
+
+    /**
+     * 抽象节点
+     */
+    abstract static class Node {
+
+        /**
+         * 关键码数组，按照升序列排列，类型为long[]或int[]。
+         */
+        final Object keys;
+
+        /**
+         * 有效关键码数量，keys中仅[0, size)区间有效。
+         */
+        int size;
+
+        Node(Object keys) {
+            this.keys = keys;
+        }
+
+    }
+
+    /**
+     * 内部节点
+     */
+    static class InternalNode extends Node {
+
+        /**
+         * keys[i]是否存在，false对应泛型实现中的空关键码。
+         */
+        final boolean[] present;
+
+        /**
+         * 子节点数组，children[i]是keys[i]的右子树。
+         */
+        final Node[] children;
+
+        InternalNode(Object keys, boolean[] present, Node[] children) {
+            super(keys);
+            this.present = present;
+            this.children = children;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append('{');
+            for (int i = 0; i < size; i++) {
+                if (present[i]) {
+                    builder.append(Array.get(keys, i));
+                } else {
+                    builder.append('#');
+                }
+                builder.append(',');
+            }
+            return (builder.length() > 1 ? builder.substring(0, builder.length()-1) : builder.toString()) + '}';
+        }
+
+    }
+
+    /**
+     * 叶子节点
+     */
+    static class LeafNode extends Node {
+
+        /**
+         * 指向前一个叶子节点。
+         */
+        LeafNode prev;
+
+        /**
+         * 指向后一个叶子节点。
+         */
+        LeafNode next;
+
+        /**
+         * 值数组，keys[i]与values[i]对应，类型为基本类型数组或Object[]。
+         */
+        final Object values;
+
+        LeafNode(LeafNode prev, LeafNode next, Object keys, Object values) {
+            super(keys);
+            this.prev = prev;
+            this.next = next;
+            this.values = values;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append('{');
+            for (int i = 0; i < size; i++) {
+                builder.append(Array.get(keys, i)).append('=').append(Array.get(values, i)).append(',');
+            }
+            return (builder.length() > 1 ? builder.substring(0, builder.length()-1) : builder.toString()) + '}';
+        }
+
+    }
+
+    /**
+     * 从根节点到叶子节点的下降路径。
+     * <p>nodes[i]为第i层的内部节点，slots[i]为路径在其中经过的分支下标，根节点位于第0层，叶子节点位于第depth层。
+     */
+    static class Path {
+
+        InternalNode[] nodes = new InternalNode[8];
+
+        int[] slots = new int[8];
+
+        /**
+         * 路径上内部节点的数量。
+         */
+        int depth;
+
+        void push(InternalNode node, int slot) {
+            if (depth == nodes.length) {
+                nodes = Arrays.copyOf(nodes, depth << 1);
+                slots = Arrays.copyOf(slots, depth << 1);
+            }
+            nodes[depth] = node;
+            slots[depth] = slot;
+            depth++;
+        }
+
+        /**
+         * 第level层节点的父节点，根节点返回null。
+         */
+        InternalNode parent(int level) {
+            return level > 0 ? nodes[level-1] : null;
+        }
+
+        /**
+         * 第level层节点在父节点中的位置。
+         */
+        int slot(int level) {
+            return slots[level-1];
+        }
+
+        /**
+         * 移动到下一个叶子节点的路径，调用方需保证下一个叶子节点存在。
+         */
+        void advance() {
+            int l = depth-1;
+            while (slots[l]+1 >= nodes[l].size) {
+                l--;
+            }
+            slots[l]++;
+            for (l++; l < depth; l++) {
+                nodes[l] = (InternalNode) nodes[l-1].children[slots[l-1]];
+                slots[l] = 0;
+            }
+        }
+
+        void copyFrom(Path path) {
+            if (nodes.length < path.depth) {
+                nodes = Arrays.copyOf(nodes, path.nodes.length);
+                slots = Arrays.copyOf(slots, path.slots.length);
+            }
+            System.arraycopy(path.nodes, 0, nodes, 0, path.depth);
+            System.arraycopy(path.slots, 0, slots, 0, path.depth);
+            depth = path.depth;
+        }
+
+    }
+
+    /* B+树属性 */
+
+    /**
+     * 阶次。
+     */
+    final int m;
+
+    /**
+     * 根节点。
+     */
+    Node root;
+
+    /**
+     * 插入与删除复用的下降路径。
+     */
+    final Path path = new Path();
+
+    /**
+     * 删除时更新后一个叶子节点索引所用的路径。
+     */
+    final Path nextPath = new Path();
+
+    PrimitiveBPlusTree(int m) {
+        this.m = m;
+    }
+
+    /* 关键码类型相关 */
+
+    /**
+     * 创建容量为n的关键码数组。
+     *
+     * @param n
+     * @return
+     */
+    abstract Object newKeys(int n);
+
+    /**
+     * 创建容量为n的值数组。
+     *
+     * @param n
+     * @return
+     */
+    abstract Object newValues(int n);
+
+    /**
+     * 比较关键码a[i]与b[j]。
+     *
+     * @param a
+     * @param i
+     * @param b
+     * @param j
+     * @return
+     */
+    abstract int compare(Object a, int i, Object b, int j);
+
+    /* 节点存储 */
+
+    InternalNode newInternalNode() {
+        return new InternalNode(newKeys(m+1), new boolean[m+1], new Node[m+1]);
+    }
+
+    LeafNode newLeafNode(LeafNode prev, LeafNode next) {
+        return new LeafNode(prev, next, newKeys(m), newValues(m));
+    }
+
+    /**
+     * 在第i个位置插入分支child，其索引为空，调用方随后通过{@link #updateIndexKey(InternalNode, int)}计算。
+     */
+    void insertAt(InternalNode node, int i, Node child) {
+        System.arraycopy(node.keys, i, node.keys, i+1, node.size-i);
+        System.arraycopy(node.present, i, node.present, i+1, node.size-i);
+        System.arraycopy(node.children, i, node.children, i+1, node.size-i);
+        node.present[i] = false;
+        node.children[i] = child;
+        node.size++;
+    }
+
+    /**
+     * 在第i个位置腾出一个元素的空间，调用方随后写入关键码与值。
+     */
+    void openAt(LeafNode node, int i) {
+        System.arraycopy(node.keys, i, node.keys, i+1, node.size-i);
+        System.arraycopy(node.values, i, node.values, i+1, node.size-i);
+        node.size++;
+    }
+
+    /**
+     * 在第i个位置写入from[j]的关键码与值。
+     */
+    void insertAt(LeafNode node, int i, LeafNode from, int j) {
+        openAt(node, i);
+        System.arraycopy(from.keys, j, node.keys, i, 1);
+        System.arraycopy(from.values, j, node.values, i, 1);
+    }
+
+    Node removeAt(InternalNode node, int i) {
+        Node removed = node.children[i];
+        int moved = node.size-i-1;
+        System.arraycopy(node.keys, i+1, node.keys, i, moved);
+        System.arraycopy(node.present, i+1, node.present, i, moved);
+        System.arraycopy(node.children, i+1, node.children, i, moved);
+        node.size--;
+        node.children[node.size] = null;
+        return removed;
+    }
+
+    /**
+     * 移除第i个元素，调用方需在此之前读取被移除的值。
+     */
+    void removeAt(LeafNode node, int i) {
+        int moved = node.size-i-1;
+        System.arraycopy(node.keys, i+1, node.keys, i, moved);
+        System.arraycopy(node.values, i+1, node.values, i, moved);
+        node.size--;
+        if (node.values instanceof Object[]) {
+            ((Object[]) node.values)[node.size] = null;
+        }
+    }
+
+    void moveTail(InternalNode src, int from, InternalNode dst) {
+        int moved = src.size-from;
+        System.arraycopy(src.keys, from, dst.keys, dst.size, moved);
+        System.arraycopy(src.present, from, dst.present, dst.size, moved);
+        System.arraycopy(src.children, from, dst.children, dst.size, moved);
+        dst.size += moved;
+        Arrays.fill(src.children, from, src.size, null);
+        src.size = from;
+    }
+
+    void moveTail(LeafNode src, int from, LeafNode dst) {
+        int moved = src.size-from;
+        System.arraycopy(src.keys, from, dst.keys, dst.size, moved);
+        System.arraycopy(src.values, from, dst.values, dst.size, moved);
+        dst.size += moved;
+        if (src.values instanceof Object[]) {
+            Arrays.fill((Object[]) src.values, from, src.size, null);
+        }
+        src.size = from;
+    }
+
+    /* 辅助算法 */
+
+    /**
+     * A1.判断根节点。
+     */
+    boolean isRoot(Node node) {
+        return node == root;
+    }
+
+    /**
+     * A2.判断上溢。
+     */
+    boolean isOverflow(Node node) {
+        return node instanceof InternalNode ? node.size > m : node.size > m-1;
+    }
+
+    /**
+     * A3.判断下溢。
+     */
+    boolean isUnderflow(Node node) {
+        if (node instanceof InternalNode) {
+            return isRoot(node) ? node.size < 2 : node.size < (m+1)/2;
+        }
+        return isRoot(node) ? node.size < 1 : node.size < (m+1)/2-1;
+    }
+
+    /**
+     * A4.key所在子树，返回分支下标。
+     */
+    static int locateChildIndex(long[] keys, boolean[] present, int size, long key) {
+        int r = 0;
+        int lo = 0, hi = size-1;
+        while (lo <= hi) {
+            int mi = (lo + hi) >>> 1;
+            int nn = mi;
+            while (nn >= lo && !present[nn]) {
+                nn--;
+            }
+            if (nn < lo) {
+                lo = mi + 1;
+            } else if (keys[nn] > key) {
+                hi = nn - 1;
+            } else {
+                r = nn;
+                lo = mi + 1;
+            }
+        }
+        return r;
+    }
+
+    /**
+     * A4.key所在子树，返回分支下标。
+     */
+    static int locateChildIndex(int[] keys, boolean[] present, int size, int key) {
+        int r = 0;
+        int lo = 0, hi = size-1;
+        while (lo <= hi) {
+            int mi = (lo + hi) >>> 1;
+            int nn = mi;
+            while (nn >= lo && !present[nn]) {
+                nn--;
+            }
+            if (nn < lo) {
+                lo = mi + 1;
+            } else if (keys[nn] > key) {
+                hi = nn - 1;
+            } else {
+                r = nn;
+                lo = mi + 1;
+            }
+        }
+        return r;
+    }
+
+    /**
+     * A6.搜索叶子节点，path不为null时将下降路径记录到path中，A5向右跳转叶子节点时同步移动路径。
+     */
+    LeafNode searchLeaf(Node node, long key, Path path) {
+        if (path != null) {
+            path.depth = 0;
+        }
+        while (node instanceof InternalNode) {
+            InternalNode internal = (InternalNode) node;
+            int i = locateChildIndex((long[]) internal.keys, internal.present, internal.size, key);
+            if (path != null) {
+                path.push(internal, i);
+            }
+            node = internal.children[i];
+        }
+        // A5.key所在叶子。
+        LeafNode leaf = (LeafNode) node;
+        while (key > ((long[]) leaf.keys)[leaf.size-1] && leaf.next != null) {
+            leaf = leaf.next;
+            if (path != null) {
+                path.advance();
+            }
+        }
+        return leaf;
+    }
+
+    /**
+     * A6.搜索叶子节点，path不为null时将下降路径记录到path中，A5向右跳转叶子节点时同步移动路径。
+     */
+    LeafNode searchLeaf(Node node, int key, Path path) {
+        if (path != null) {
+            path.depth = 0;
+        }
+        while (node instanceof InternalNode) {
+            InternalNode internal = (InternalNode) node;
+            int i = locateChildIndex((int[]) internal.keys, internal.present, internal.size, key);
+            if (path != null) {
+                path.push(internal, i);
+            }
+            node = internal.children[i];
+        }
+        // A5.key所在叶子。
+        LeafNode leaf = (LeafNode) node;
+        while (key > ((int[]) leaf.keys)[leaf.size-1] && leaf.next != null) {
+            leaf = leaf.next;
+            if (path != null) {
+                path.advance();
+            }
+        }
+        return leaf;
+    }
+
+    /**
+     * A7.在keys中查找key。
+     * 查找keys中查找小于key秩最大的元素的下标。
+     */
+    static int littleLess(long[] keys, int size, long key) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mi = (lo + hi) >>> 1;
+            if (keys[mi] < key) {
+                lo = mi + 1;
+            } else {
+                hi = mi;
+            }
+        }
+        return lo - 1;
+    }
+
+    /**
+     * A7.在keys中查找key。
+     * 查找keys中查找小于key秩最大的元素的下标。
+     */
+    static int littleLess(int[] keys, int size, int key) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mi = (lo + hi) >>> 1;
+            if (keys[mi] < key) {
+                lo = mi + 1;
+            } else {
+                hi = mi;
+            }
+        }
+        return lo - 1;
+    }
+
+    /**
+     * A8与A9.将parent中第i个索引更新为children[i]应对应的索引值。
+     *
+     * @param parent
+     * @param i
+     * @return true-进行了更新，false-未进行更新。
+     */
+    boolean updateIndexKey(InternalNode parent, int i) {
+        Node child = parent.children[i];
+        int at = indexKeyAt(child);
+        boolean present = at >= 0;
+        if (parent.present[i] == present && (!present || compare(parent.keys, i, child.keys, at) == 0)) {
+            return false;
+        }
+        parent.present[i] = present;
+        if (present) {
+            System.arraycopy(child.keys, at, parent.keys, i, 1);
+        }
+        return true;
+    }
+
+    /**
+     * 获取输入节点应对应的索引值在其keys中的下标，-1表示索引为空。
+     *
+     * @param node
+     * @return
+     */
+    int indexKeyAt(Node node) {
+        if (node instanceof InternalNode) {
+            InternalNode internal = (InternalNode) node;
+            for (int i = 0; i < internal.size; i++) {
+                if (internal.present[i]) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        LeafNode leaf = (LeafNode) node;
+        // 空节点的索引为空。
+        if (leaf.size == 0) {
+            return -1;
+        }
+        // 如果前一个叶子节点不存在或者前一个叶子节点最后部分与当前叶子节点的第一个关键码不同则直接返回当前叶子节点的首个关键码即可。
+        LeafNode prev = leaf.prev;
+        if (prev == null || prev.size == 0 || compare(prev.keys, prev.size-1, leaf.keys, 0) < 0) {
+            return 0;
+        }
+        // 查找首个大于firstKey的关键码，不存在则索引为空。
+        int lo = 1, hi = leaf.size;
+        while (lo < hi) {
+            int mi = (lo + hi) >>> 1;
+            if (compare(leaf.keys, mi, leaf.keys, 0) <= 0) {
+                lo = mi + 1;
+            } else {
+                hi = mi;
+            }
+        }
+        return lo < leaf.size ? lo : -1;
+    }
+
+    /**
+     * 沿路径从第level层的节点开始不断地向上更新索引，直到没有更新变化或者到达根节点为止。
+     */
+    void propagateUpdateIndexKey(Path path, int level) {
+        while (level > 0 && updateIndexKey(path.parent(level), path.slot(level))) {
+            level--;
+        }
+    }
+
+    /**
+     * 插入后更新叶子节点的索引，path为到达该叶子节点的路径。
+     */
+    void tryUpdateIndexKeyAfterInsert(Path path) {
+        int level = path.depth;
+        if (level > 0 && updateIndexKey(path.parent(level), path.slot(level))) {
+            propagateUpdateIndexKey(path, level-1);
+        }
+    }
+
+    /**
+     * 删除后更新叶子节点的索引，删除了叶子节点的最后一个关键码时后一个叶子节点的索引也可能改变。
+     */
+    void tryUpdateIndexKeyAfterDelete(Path path, boolean shouldTryUpdateNextLeafNodeIndexKey) {
+        int level = path.depth;
+        if (level == 0) {
+            return;
+        }
+        boolean propagate = updateIndexKey(path.parent(level), path.slot(level));
+        boolean nextPropagate = false;
+        if (shouldTryUpdateNextLeafNodeIndexKey) {
+            nextPath.copyFrom(path);
+            nextPath.advance();
+            nextPropagate = updateIndexKey(nextPath.parent(level), nextPath.slot(level));
+        }
+        if (propagate) {
+            propagateUpdateIndexKey(path, level-1);
+        }
+        if (nextPropagate && (!propagate || nextPath.parent(level) != path.parent(level))) {
+            propagateUpdateIndexKey(nextPath, level-1);
+        }
+    }
+
+    Node split(Node node) {
+        /*
+         * 与泛型实现相同，内部节点左右分支数量分别为ceil(m/2)和floor(m/2)+1，叶子节点左右关键码数量分别为floor(m/2)和m+1-floor(m/2)。
+         */
+        int mi = node.size / 2;
+        if (node instanceof InternalNode) {
+            InternalNode rightNode = newInternalNode();
+            moveTail((InternalNode) node, mi, rightNode);
+            return rightNode;
+        }
+
+        LeafNode leaf = (LeafNode) node;
+        LeafNode rightNode = newLeafNode(leaf, leaf.next);
+        if (leaf.next != null) {
+            leaf.next.prev = rightNode;
+        }
+        leaf.next = rightNode;
+        moveTail(leaf, mi, rightNode);
+        return rightNode;
+    }
+
+    /**
+     * 左兄弟parent.children[i]借给右兄弟parent.children[i+1]一个关键码或分支。
+     */
+    void leftLendRight(InternalNode parent, int i) {
+        Node left = parent.children[i];
+        Node right = parent.children[i+1];
+        if (left instanceof InternalNode) {
+            InternalNode l = (InternalNode) left;
+            InternalNode r = (InternalNode) right;
+            Node leftLastChild = removeAt(l, l.size-1);
+            insertAt(r, 0, leftLastChild);
+            // 移动的分支的索引在新位置重新计算。
+            updateIndexKey(r, 0);
+        } else {
+            LeafNode l = (LeafNode) left;
+            insertAt((LeafNode) right, 0, l, l.size-1);
+            removeAt(l, l.size-1);
+        }
+        updateIndexKey(parent, i);
+        updateIndexKey(parent, i+1);
+    }
+
+    /**
+     * 右兄弟parent.children[i+1]借给左兄弟parent.children[i]一个关键码或分支。
+     */
+    void rightLendLeft(InternalNode parent, int i) {
+        Node left = parent.children[i];
+        Node right = parent.children[i+1];
+        if (left instanceof InternalNode) {
+            InternalNode l = (InternalNode) left;
+            Node rightFirstChild = removeAt((InternalNode) right, 0);
+            insertAt(l, l.size, rightFirstChild);
+            updateIndexKey(l, l.size-1);
+        } else {
+            LeafNode l = (LeafNode) left;
+            LeafNode r = (LeafNode) right;
+            insertAt(l, l.size, r, 0);
+            removeAt(r, 0);
+        }
+        updateIndexKey(parent, i);
+        updateIndexKey(parent, i+1);
+    }
+
+    /**
+     * 合并，将parent.children[i+1]合并到parent.children[i]中。
+     */
+    void merge(InternalNode parent, int i) {
+        Node left = parent.children[i];
+        Node right = removeAt(parent, i+1);
+        if (left instanceof InternalNode) {
+            moveTail((InternalNode) right, 0, (InternalNode) left);
+        } else {
+            LeafNode l = (LeafNode) left;
+            LeafNode r = (LeafNode) right;
+            moveTail(r, 0, l);
+            l.next = r.next;
+            if (r.next != null) {
+                r.next.prev = l;
+            }
+        }
+        updateIndexKey(parent, i);
+    }
+
+    /**
+     * A10.解决上溢。
+     * <p>node位于path的第level层，沿路径向上逐层分裂。
+     */
+    void trySolveOverflow(Node node, Path path, int level) {
+        while (isOverflow(node)) {
+            Node rightNode = split(node);
+            InternalNode parent = path.parent(level);
+            if (parent == null) {
+                // 根节点被分裂了。
+                InternalNode newRoot = newInternalNode();
+                insertAt(newRoot, 0, node);
+                insertAt(newRoot, 1, rightNode);
+                updateIndexKey(newRoot, 0);
+                updateIndexKey(newRoot, 1);
+                this.root = newRoot;
+                return;
+            }
+            // 分裂的索引更新只会影响其parent，而不会再向上传播。
+            int slot = path.slot(level);
+            updateIndexKey(parent, slot);
+            insertAt(parent, slot+1, rightNode);
+            updateIndexKey(parent, slot+1);
+            node = parent;
+            level--;
+        }
+    }
+
+    /**
+     * A11.解决下溢。
+     * <p>node位于path的第level层，沿路径向上逐层借用或合并。
+     */
+    void trySolveUnderflow(Node node, Path path, int level) {
+        while (node != null && isUnderflow(node)) {
+            InternalNode parent = path.parent(level);
+            if (parent == null) {
+                // 根节点发生下溢。
+                this.root = node instanceof InternalNode ? ((InternalNode) node).children[0] : null;
+            } else {
+                int indexInParent = path.slot(level);
+                Node leftSibling = indexInParent-1 >= 0 ? parent.children[indexInParent-1] : null;
+                Node rightSibling = indexInParent+1 < parent.size ? parent.children[indexInParent+1] : null;
+
+                // 首先尝试从兄弟借，成功则无需再向上传递。
+                if (leftSibling != null && leftSibling.size > (m+1)/2) {
+                    leftLendRight(parent, indexInParent-1);
+                    continue;
+                }
+                if (rightSibling != null && rightSibling.size > (m+1)/2) {
+                    rightLendLeft(parent, indexInParent);
+                    continue;
+                }
+
+                // 合并。
+                if (leftSibling != null) {
+                    merge(parent, indexInParent-1);
+                } else {
+                    merge(parent, indexInParent);
+                }
+            }
+            node = parent;
+            level--;
+        }
+    }
+
+    /* 主算法 */
+
+    /**
+     * M2.插入的后半部分，关键码与值已写入leaf，path为到达leaf的路径。
+     */
+    void afterInsert(LeafNode leaf, Path path) {
+        // 尝试更新索引
+        tryUpdateIndexKeyAfterInsert(path);
+        // 尝试解决上溢
+        trySolveOverflow(leaf, path, path.depth);
+    }
+
+    /**
+     * M3.删除leaf中第i个元素，调用方需在此之前读取被删除的值，path为到达leaf的路径。
+     */
+    void deleteAt(LeafNode leaf, int i, Path path) {
+        boolean shouldTryUpdateNextLeafNodeIndexKey = i+1 == leaf.size && leaf.next != null;
+        // 删除
+        removeAt(leaf, i);
+        // 尝试更新索引
+        tryUpdateIndexKeyAfterDelete(path, shouldTryUpdateNextLeafNodeIndexKey);
+        // 尝试解决下溢
+        trySolveUnderflow(leaf, path, path.depth);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("B+Tree\n");
+        if (root == null) {
+            builder.append("Empty");
+            return builder.toString();
+        }
+        LinkedList<Node> curQueue = new LinkedList<>();
+        LinkedList<Node> nextQueue = new LinkedList<>();
+        curQueue.offer(root);
+        while (!curQueue.isEmpty()) {
+            Node cur = curQueue.poll();
+            builder.append(cur).append(' ');
+            if (cur instanceof InternalNode) {
+                InternalNode internal = (InternalNode) cur;
+                for (int i = 0; i < internal.size; i++) {
+                    nextQueue.offer(internal.children[i]);
+                }
+            }
+            if (curQueue.isEmpty()) {
+                builder.append('\n');
+                LinkedList<Node> temp = curQueue;
+                curQueue = nextQueue;
+                nextQueue = temp;
+            }
+        }
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,36 @@
+package fun.fengwk.bplustree;
+
+/**
+ * <h1>字符串关键码B+树
+ * <p>内部节点的索引使用后缀截断的分隔关键码：对于前一叶子节点的最后关键码lo与当前叶子节点首个“新”的关键码hi，
+ * 索引取hi中长度为lcp(lo, hi)+1的前缀，即满足lo &lt; s &lt;= hi的最短前缀s。
+ * 较长且共享前缀的关键码（例如URL与组合路径）经截断后，下降过程中与索引比较的字符数会显著减少。
+ *
+ * <p>分隔关键码不再是某个数据关键码本身，因此该树中内部节点的关键码不满足D4的字面定义，
+ * 但仍然满足A4所依赖的路由性质：所有小于等于lo的关键码位于左侧，所有大于等于hi的关键码位于右侧。
+ *
+ * @author fengwk
+ */
+public class StringBPlusTree<V> extends BPlusTree<String, V> {
+
+    /**
+     * 构造一棵m阶字符串关键码B+树。
+     *
+     * @param m
+     */
+    public StringBPlusTree(int m) {
+        super(m);
+    }
+
+    @Override
+    String separator(String lo, String hi) {
+        int n = Math.min(lo.length(), hi.length());
+        int lcp = 0;
+        while (lcp < n && lo.charAt(lcp) == hi.charAt(lcp)) {
+            lcp++;
+        }
+        // lo小于hi，因此hi的长度一定大于lcp。
+        return lcp+1 == hi.length() ? hi : hi.substring(0, lcp+1);
+    }
+
+}
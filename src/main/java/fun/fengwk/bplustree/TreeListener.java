@@ -0,0 +1,63 @@
+package fun.fengwk.bplustree;
+
+/**
+ * B+树操作监听器，所有方法默认为空实现。
+ *
+ * <p>监听器在执行操作的线程中同步调用，{@link ConcurrentBPlusTree}会在多个线程中并发调用同一个监听器，因此实现需要是线程安全的。
+ *
+ * @author fengwk
+ * @see BPlusTree#setListener(TreeListener)
+ */
+public interface TreeListener {
+
+    /**
+     * M1.搜索完成。
+     *
+     * @param nanos 耗时纳秒数。
+     */
+    default void onSearch(long nanos) {}
+
+    /**
+     * M2.插入完成。
+     *
+     * @param nanos 耗时纳秒数。
+     */
+    default void onInsert(long nanos) {}
+
+    /**
+     * M3.删除完成。
+     *
+     * @param nanos 耗时纳秒数。
+     */
+    default void onDelete(long nanos) {}
+
+    /**
+     * A10中分裂了一个节点。
+     */
+    default void onSplit() {}
+
+    /**
+     * A11中合并了两个节点。
+     */
+    default void onMerge() {}
+
+    /**
+     * A11中从兄弟节点借了一个关键码或分支。
+     */
+    default void onBorrow() {}
+
+    /**
+     * 叶子节点索引更新后向上传播完成。
+     *
+     * @param depth 传播过程中更新了索引的内部节点层数。
+     */
+    default void onIndexKeyPropagation(int depth) {}
+
+    /**
+     * A5中沿next指针向右移动。
+     *
+     * @param hops 移动的叶子节点数量。
+     */
+    default void onLeafHops(int hops) {}
+
+}
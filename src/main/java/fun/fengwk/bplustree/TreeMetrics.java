@@ -0,0 +1,260 @@
+package fun.fengwk.bplustree;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 统计操作次数、结构变化与耗时直方图的监听器，可以通过{@link #register(String)}导出到JMX。
+ *
+ * <p>计数器使用{@link LongAdder}，耗时直方图按2的幂划分桶，因此记录一次操作只需常数次无竞争的累加，百分位数是所在桶的上界。
+ *
+ * @author fengwk
+ */
+public class TreeMetrics implements TreeListener, TreeMetricsMXBean {
+
+    /**
+     * 按2的幂划分桶的耗时直方图，第i个桶统计耗时位于[2^i, 2^(i+1))纳秒的次数，耗时为0时计入第0个桶。
+     */
+    static class LatencyHistogram {
+
+        final LongAdder[] buckets = new LongAdder[Long.SIZE];
+
+        LatencyHistogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos) {
+            buckets[nanos <= 0 ? 0 : Long.SIZE - Long.numberOfLeadingZeros(nanos) - 1].increment();
+        }
+
+        long[] counts() {
+            long[] counts = new long[buckets.length];
+            for (int i = 0; i < buckets.length; i++) {
+                counts[i] = buckets[i].sum();
+            }
+            return counts;
+        }
+
+        long count() {
+            long count = 0;
+            for (LongAdder bucket : buckets) {
+                count += bucket.sum();
+            }
+            return count;
+        }
+
+        /**
+         * 返回p分位数所在桶的上界，没有记录时返回0。
+         */
+        long percentile(double p) {
+            long[] counts = counts();
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            long rank = (long) Math.ceil(total * p);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    // 第62个桶的上界溢出后恰好为Long.MAX_VALUE。
+                    return (1L << i+1) - 1;
+                }
+            }
+            return 0;
+        }
+
+        void reset() {
+            for (LongAdder bucket : buckets) {
+                bucket.reset();
+            }
+        }
+
+    }
+
+    final LatencyHistogram searchLatency = new LatencyHistogram();
+    final LatencyHistogram insertLatency = new LatencyHistogram();
+    final LatencyHistogram deleteLatency = new LatencyHistogram();
+
+    final LongAdder splits = new LongAdder();
+    final LongAdder merges = new LongAdder();
+    final LongAdder borrows = new LongAdder();
+    final LongAdder indexKeyPropagations = new LongAdder();
+    final LongAdder indexKeyUpdates = new LongAdder();
+    final AtomicLong maxIndexKeyPropagationDepth = new AtomicLong();
+    final LongAdder leafHops = new LongAdder();
+
+    /**
+     * 以fun.fengwk.bplustree:type=TreeMetrics,name=name注册到平台MBeanServer。
+     *
+     * @param name
+     * @return 注册使用的名称，可用于注销。
+     * @throws JMException
+     */
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName("fun.fengwk.bplustree:type=TreeMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    /* 监听 */
+
+    @Override
+    public void onSearch(long nanos) {
+        searchLatency.record(nanos);
+    }
+
+    @Override
+    public void onInsert(long nanos) {
+        insertLatency.record(nanos);
+    }
+
+    @Override
+    public void onDelete(long nanos) {
+        deleteLatency.record(nanos);
+    }
+
+    @Override
+    public void onSplit() {
+        splits.increment();
+    }
+
+    @Override
+    public void onMerge() {
+        merges.increment();
+    }
+
+    @Override
+    public void onBorrow() {
+        borrows.increment();
+    }
+
+    @Override
+    public void onIndexKeyPropagation(int depth) {
+        indexKeyPropagations.increment();
+        indexKeyUpdates.add(depth);
+        maxIndexKeyPropagationDepth.accumulateAndGet(depth, Math::max);
+    }
+
+    @Override
+    public void onLeafHops(int hops) {
+        leafHops.add(hops);
+    }
+
+    /* 统计 */
+
+    @Override
+    public long getSearches() {
+        return searchLatency.count();
+    }
+
+    @Override
+    public long getInserts() {
+        return insertLatency.count();
+    }
+
+    @Override
+    public long getDeletes() {
+        return deleteLatency.count();
+    }
+
+    @Override
+    public long getSplits() {
+        return splits.sum();
+    }
+
+    @Override
+    public long getMerges() {
+        return merges.sum();
+    }
+
+    @Override
+    public long getBorrows() {
+        return borrows.sum();
+    }
+
+    @Override
+    public long getIndexKeyPropagations() {
+        return indexKeyPropagations.sum();
+    }
+
+    @Override
+    public long getIndexKeyUpdates() {
+        return indexKeyUpdates.sum();
+    }
+
+    @Override
+    public long getMaxIndexKeyPropagationDepth() {
+        return maxIndexKeyPropagationDepth.get();
+    }
+
+    @Override
+    public long getLeafHops() {
+        return leafHops.sum();
+    }
+
+    @Override
+    public long getSearchLatencyP50Nanos() {
+        return searchLatency.percentile(0.5);
+    }
+
+    @Override
+    public long getSearchLatencyP99Nanos() {
+        return searchLatency.percentile(0.99);
+    }
+
+    @Override
+    public long getInsertLatencyP50Nanos() {
+        return insertLatency.percentile(0.5);
+    }
+
+    @Override
+    public long getInsertLatencyP99Nanos() {
+        return insertLatency.percentile(0.99);
+    }
+
+    @Override
+    public long getDeleteLatencyP50Nanos() {
+        return deleteLatency.percentile(0.5);
+    }
+
+    @Override
+    public long getDeleteLatencyP99Nanos() {
+        return deleteLatency.percentile(0.99);
+    }
+
+    @Override
+    public long[] getSearchLatencyHistogram() {
+        return searchLatency.counts();
+    }
+
+    @Override
+    public long[] getInsertLatencyHistogram() {
+        return insertLatency.counts();
+    }
+
+    @Override
+    public long[] getDeleteLatencyHistogram() {
+        return deleteLatency.counts();
+    }
+
+    @Override
+    public void reset() {
+        searchLatency.reset();
+        insertLatency.reset();
+        deleteLatency.reset();
+        splits.reset();
+        merges.reset();
+        borrows.reset();
+        indexKeyPropagations.reset();
+        indexKeyUpdates.reset();
+        maxIndexKeyPropagationDepth.set(0);
+        leafHops.reset();
+    }
+
+}
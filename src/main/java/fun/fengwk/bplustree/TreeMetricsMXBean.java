@@ -0,0 +1,59 @@
+package fun.fengwk.bplustree;
+
+/**
+ * {@link TreeMetrics}的JMX接口。
+ *
+ * @author fengwk
+ */
+public interface TreeMetricsMXBean {
+
+    long getSearches();
+
+    long getInserts();
+
+    long getDeletes();
+
+    long getSplits();
+
+    long getMerges();
+
+    long getBorrows();
+
+    long getIndexKeyPropagations();
+
+    /**
+     * 索引传播中更新的内部节点层数之和，除以{@link #getIndexKeyPropagations()}即为平均传播深度。
+     */
+    long getIndexKeyUpdates();
+
+    long getMaxIndexKeyPropagationDepth();
+
+    long getLeafHops();
+
+    long getSearchLatencyP50Nanos();
+
+    long getSearchLatencyP99Nanos();
+
+    long getInsertLatencyP50Nanos();
+
+    long getInsertLatencyP99Nanos();
+
+    long getDeleteLatencyP50Nanos();
+
+    long getDeleteLatencyP99Nanos();
+
+    /**
+     * 搜索耗时直方图，第i个桶统计耗时位于[2^i, 2^(i+1))纳秒的次数，耗时为0时计入第0个桶。
+     */
+    long[] getSearchLatencyHistogram();
+
+    long[] getInsertLatencyHistogram();
+
+    long[] getDeleteLatencyHistogram();
+
+    /**
+     * 清空所有统计。
+     */
+    void reset();
+
+}
@@ -1,12 +1,38 @@
 package fun.fengwk.bplustree;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 /**
  * @author fengwk
  */
 public class BPlusTreeTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void test() {
         fun.fengwk.bplustree.BPlusTree<Integer, Integer> bpTree = new fun.fengwk.bplustree.BPlusTree<>(3);
@@ -96,4 +122,610 @@ public class BPlusTreeTest {
         System.out.println(bpTree);
     }
 
+    @Test
+    public void testRange() {
+        BPlusTree<Integer, Integer> bpTree = new BPlusTree<>(3);
+        for (int i = 0; i < 10; i++) {
+            bpTree.insert(i, i);
+            bpTree.insert(i, i+100);
+        }
+
+        assertEquals("[3=103, 3=3, 4=104, 4=4, 5=105, 5=5]", collect(bpTree.range(3, true, 5, true)));
+        assertEquals("[4=104, 4=4]", collect(bpTree.range(3, false, 5, false)));
+        assertEquals("[5=5, 5=105, 4=4, 4=104, 3=3, 3=103]", collect(bpTree.descendingRange(3, true, 5, true)));
+        assertEquals("[4=4, 4=104]", collect(bpTree.descendingRange(3, false, 5, false)));
+        assertEquals("[9=109, 9=9]", collect(bpTree.range(9, true, null, true)));
+        assertEquals("[0=0, 0=100]", collect(bpTree.descendingRange(null, true, 0, true)));
+        assertEquals("[]", collect(bpTree.range(10, true, null, true)));
+        assertEquals(20, count(bpTree.ascending()));
+        assertEquals(20, count(bpTree.descending()));
+    }
+
+    @Test
+    public void testSearchAllAndDeleteAll() {
+        BPlusTree<Integer, Integer> bpTree = new BPlusTree<>(4);
+        bpTree.insert(1, 1);
+        for (int i = 0; i < 50; i++) {
+            bpTree.insert(3, i);
+        }
+        bpTree.insert(5, 5);
+
+        assertEquals(50, bpTree.count(3));
+        assertEquals(0, bpTree.count(4));
+        Iterator<Integer> iter = bpTree.searchAll(3);
+        for (int i = 49; i >= 0; i--) {
+            assertEquals(Integer.valueOf(i), iter.next());
+        }
+        assertEquals(false, iter.hasNext());
+
+        assertEquals(50, bpTree.deleteAll(3));
+        assertEquals(0, bpTree.deleteAll(3));
+        assertEquals("[1=1, 5=5]", collect(bpTree.ascending()));
+    }
+
+    @Test
+    public void testBulkLoad() {
+        List<Map.Entry<Integer, Integer>> entries = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(i / 3, i));
+        }
+        BPlusTree<Integer, Integer> bpTree = BPlusTree.bulkLoad(entries.iterator(), 4, 1.0);
+        // 填充率为1.0时除最后一个叶子节点外都是满的。
+        int leaves = 0;
+        for (BPlusTree<Integer, Integer>.LeafNode leaf = bpTree.firstLeaf(bpTree.root); leaf != null; leaf = leaf.next) {
+            leaves++;
+            if (leaf.next != null) {
+                assertEquals(3, leaf.size);
+            }
+        }
+        assertEquals(34, leaves);
+
+        assertEquals(entries.toString(), list(bpTree.ascending()).toString());
+        assertEquals(Integer.valueOf(30), bpTree.search(10));
+        assertEquals(3, bpTree.count(10));
+        assertEquals(1, bpTree.count(33));
+
+        bpTree.insert(10, -1);
+        assertEquals(Integer.valueOf(-1), bpTree.delete(10));
+        assertEquals(Integer.valueOf(30), bpTree.delete(10));
+        assertEquals(2, bpTree.count(10));
+
+        assertEquals("B+Tree\nEmpty", BPlusTree.<Integer, Integer>bulkLoad(new ArrayList<Map.Entry<Integer, Integer>>().iterator(), 4, 0.5).toString());
+    }
+
+    private List<Map.Entry<Integer, Integer>> list(Iterator<Map.Entry<Integer, Integer>> iter) {
+        List<Map.Entry<Integer, Integer>> list = new ArrayList<>();
+        iter.forEachRemaining(list::add);
+        return list;
+    }
+
+    @Test
+    public void testBatch() {
+        BPlusTree<Integer, Integer> bpTree = new BPlusTree<>(4);
+        List<Map.Entry<Integer, Integer>> entries = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(i % 10, i));
+        }
+        bpTree.insertAll(entries);
+        BPlusTree<Integer, Integer> expected = new BPlusTree<>(4);
+        for (Map.Entry<Integer, Integer> entry : entries) {
+            expected.insert(entry.getKey(), entry.getValue());
+        }
+        assertEquals(list(expected.ascending()), list(bpTree.ascending()));
+
+        assertEquals(30, count(bpTree.ascending()));
+        assertEquals(Integer.valueOf(23), bpTree.search(3));
+        assertEquals(3, bpTree.count(3));
+
+        assertEquals(9, bpTree.deleteAll(Arrays.asList(3, 5, 7, 3, 11)));
+        assertEquals(0, bpTree.count(5));
+        assertEquals(21, count(bpTree.ascending()));
+    }
+
+    @Test
+    public void testSnapshot() {
+        BPlusTree<Integer, Integer> bpTree = new BPlusTree<>(4);
+        Random random = new Random(12);
+        List<BPlusTree<Integer, Integer>.Snapshot> snapshots = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            int key = random.nextInt(60);
+            int op = random.nextInt(10);
+            if (op < 5) {
+                bpTree.insert(key, i);
+            } else if (op < 9) {
+                bpTree.delete(key);
+            } else {
+                bpTree.deleteAll(key);
+            }
+            if (i % 100 == 0) {
+                snapshots.add(bpTree.snapshot());
+                expected.add(collect(bpTree.ascending()));
+            }
+            // 释放部分快照，其余快照不受影响。
+            if (i % 700 == 0 && snapshots.size() > 1) {
+                snapshots.get(snapshots.size()-2).close();
+            }
+        }
+
+        for (int i = 0; i < snapshots.size(); i++) {
+            BPlusTree<Integer, Integer>.Snapshot snapshot = snapshots.get(i);
+            if (snapshot.closed) {
+                continue;
+            }
+            assertEquals(expected.get(i), collect(snapshot.ascending()));
+            List<Map.Entry<Integer, Integer>> entries = list(snapshot.ascending());
+            for (int key = 0; key < 60; key++) {
+                Integer value = null;
+                for (Map.Entry<Integer, Integer> entry : entries) {
+                    if (entry.getKey() == key) {
+                        value = entry.getValue();
+                        break;
+                    }
+                }
+                assertEquals(value, snapshot.search(key));
+            }
+            StringBuilder range = new StringBuilder();
+            for (Map.Entry<Integer, Integer> entry : entries) {
+                if (entry.getKey() > 10 && entry.getKey() <= 30) {
+                    range.append(entry.getKey()).append('=').append(entry.getValue()).append(", ");
+                }
+            }
+            String expectedRange = "[" + (range.length() > 0 ? range.substring(0, range.length()-2) : "") + "]";
+            assertEquals(expectedRange, collect(snapshot.range(10, false, 30, true)));
+            snapshot.close();
+        }
+    }
+
+    @Test
+    public void testSpliterator() {
+        BPlusTree<Integer, Integer> bpTree = new BPlusTree<>(4);
+        Random random = new Random(19);
+        for (int i = 0; i < 5000; i++) {
+            bpTree.insert(random.nextInt(500), i);
+        }
+        assertEquals(collect(bpTree.ascending()), collect(bpTree.stream().iterator()));
+        assertEquals(bpTree.stream().mapToLong(Map.Entry::getValue).sum(), bpTree.parallelStream().mapToLong(Map.Entry::getValue).sum());
+
+        for (int i = 0; i < 200; i++) {
+            Integer from = random.nextInt(10) == 0 ? null : random.nextInt(520) - 10;
+            Integer to = random.nextInt(10) == 0 ? null : random.nextInt(520) - 10;
+            boolean fromInclusive = random.nextBoolean(), toInclusive = random.nextBoolean();
+            String expected = collect(bpTree.range(from, fromInclusive, to, toInclusive));
+
+            // 递归分割后按顺序拼接各部分。
+            List<Spliterator<Map.Entry<Integer, Integer>>> parts = new ArrayList<>();
+            split(bpTree.spliterator(from, fromInclusive, to, toInclusive), random.nextInt(6), parts);
+            List<Map.Entry<Integer, Integer>> entries = new ArrayList<>();
+            for (Spliterator<Map.Entry<Integer, Integer>> part : parts) {
+                part.forEachRemaining(entries::add);
+            }
+            assertEquals(expected, collect(entries.iterator()));
+            assertEquals(expected, collect(bpTree.stream(from, fromInclusive, to, toInclusive).parallel().collect(Collectors.toList()).iterator()));
+        }
+
+        assertEquals(0, new BPlusTree<Integer, Integer>(4).stream().count());
+    }
+
+    @Test
+    public void testOrderStatistics() {
+        Random random = new Random(20);
+        for (int m = 3; m <= 6; m++) {
+            List<Map.Entry<Integer, Integer>> initial = new ArrayList<>();
+            for (int i = 0; i < 300; i++) {
+                initial.add(new AbstractMap.SimpleImmutableEntry<>(i / 4, i));
+            }
+            BPlusTree<Integer, Integer> bpTree = BPlusTree.bulkLoad(initial.iterator(), m, 0.7, true);
+            for (int i = 0; i < 3000; i++) {
+                int key = random.nextInt(100);
+                int op = random.nextInt(20);
+                if (op < 10) {
+                    bpTree.insert(key, i);
+                } else if (op < 17) {
+                    bpTree.delete(key);
+                } else if (op == 17) {
+                    bpTree.deleteAll(key);
+                } else if (op == 18) {
+                    List<Map.Entry<Integer, Integer>> batch = new ArrayList<>();
+                    for (int j = 0; j < 20; j++) {
+                        batch.add(new AbstractMap.SimpleImmutableEntry<>(random.nextInt(100), i));
+                    }
+                    bpTree.insertAll(batch);
+                } else {
+                    bpTree.deleteAll(Arrays.asList(key, key+1, key+7));
+                }
+
+                if (i % 50 == 0) {
+                    List<Map.Entry<Integer, Integer>> entries = list(bpTree.ascending());
+                    for (int k = 0; k < entries.size(); k++) {
+                        assertEquals(entries.get(k), bpTree.select(k));
+                    }
+                    for (int k = -1; k <= 101; k++) {
+                        int less = 0, lessOrEqual = 0;
+                        for (Map.Entry<Integer, Integer> entry : entries) {
+                            less += entry.getKey() < k ? 1 : 0;
+                            lessOrEqual += entry.getKey() <= k ? 1 : 0;
+                        }
+                        assertEquals(less, bpTree.rank(k));
+                        assertEquals(lessOrEqual - less, bpTree.count(k));
+                        assertEquals(entries.size() - less, bpTree.count(k, true, null, true));
+                        assertEquals(lessOrEqual, bpTree.count(null, true, k, true));
+                    }
+                    assertEquals(entries.size(), bpTree.count(null, true, null, true));
+                    assertEquals(count(bpTree.range(20, false, 60, true)), bpTree.count(20, false, 60, true));
+                    assertEquals(0, bpTree.count(60, true, 20, true));
+                }
+            }
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testOrderStatisticsNotEnabled() {
+        new BPlusTree<Integer, Integer>(4).rank(1);
+    }
+
+    @Test
+    public void testAggregate() {
+        Random random = new Random(21);
+        for (int m = 3; m <= 6; m++) {
+            List<Map.Entry<Integer, Integer>> initial = new ArrayList<>();
+            for (int i = 0; i < 300; i++) {
+                initial.add(new AbstractMap.SimpleImmutableEntry<>(i / 4, i));
+            }
+            BPlusTree<Integer, Integer> sumTree = BPlusTree.bulkLoad(initial.iterator(), m, 0.7, m % 2 == 0);
+            sumTree.setAggregator(Aggregators.longSum(Integer::longValue));
+            BPlusTree<Integer, Integer> minTree = new BPlusTree<>(m);
+            minTree.setAggregator(Aggregators.min(Comparator.<Integer>naturalOrder()));
+            minTree.insertAll(initial);
+            for (int i = 0; i < 3000; i++) {
+                int key = random.nextInt(100);
+                int op = random.nextInt(20);
+                for (BPlusTree<Integer, Integer> bpTree : Arrays.asList(sumTree, minTree)) {
+                    if (op < 10) {
+                        bpTree.insert(key, i);
+                    } else if (op < 17) {
+                        bpTree.delete(key);
+                    } else if (op == 17) {
+                        bpTree.deleteAll(key);
+                    } else if (op == 18) {
+                        List<Map.Entry<Integer, Integer>> batch = new ArrayList<>();
+                        for (int j = 0; j < 20; j++) {
+                            batch.add(new AbstractMap.SimpleImmutableEntry<>((key + j * 7) % 100, i));
+                        }
+                        bpTree.insertAll(batch);
+                    } else {
+                        bpTree.deleteAll(Arrays.asList(key, key+1, key+7));
+                    }
+                }
+
+                if (i % 50 == 0) {
+                    // 两棵树的结构不同，删除重复关键码时可能删除不同的值，因此分别对照。
+                    List<Map.Entry<Integer, Integer>> sumEntries = list(sumTree.ascending());
+                    List<Map.Entry<Integer, Integer>> minEntries = list(minTree.ascending());
+                    for (int k = 0; k < 20; k++) {
+                        Integer from = random.nextInt(5) == 0 ? null : random.nextInt(102) - 1;
+                        Integer to = random.nextInt(5) == 0 ? null : random.nextInt(102) - 1;
+                        boolean fi = random.nextBoolean(), ti = random.nextBoolean();
+                        long sum = 0;
+                        for (Map.Entry<Integer, Integer> entry : sumEntries) {
+                            if (contains(entry.getKey(), from, fi, to, ti)) {
+                                sum += entry.getValue();
+                            }
+                        }
+                        Integer min = null;
+                        for (Map.Entry<Integer, Integer> entry : minEntries) {
+                            if (contains(entry.getKey(), from, fi, to, ti)) {
+                                min = min == null ? entry.getValue() : Math.min(min, entry.getValue());
+                            }
+                        }
+                        assertEquals(Long.valueOf(sum), sumTree.aggregate(from, fi, to, ti));
+                        assertEquals(min, minTree.aggregate(from, fi, to, ti));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testAggregatorNotSet() {
+        BPlusTree<Integer, Integer> bpTree = new BPlusTree<>(4);
+        bpTree.setAggregator(Aggregators.longSum(Integer::longValue));
+        bpTree.insert(1, 1);
+        bpTree.setAggregator(null);
+        bpTree.aggregate(null, true, null, true);
+    }
+
+    @Test
+    public void testWriteBuffer() {
+        Random random = new Random(22);
+        for (int m = 3; m <= 6; m++) {
+            BPlusTree<Integer, Integer> bpTree = new BPlusTree<>(m);
+            bpTree.setBufferCapacity(m * 2);
+            BPlusTree<Integer, Integer> expected = new BPlusTree<>(m);
+            for (int i = 0; i < 5000; i++) {
+                int key = random.nextInt(200);
+                int op = random.nextInt(20);
+                if (op < 10) {
+                    bpTree.insert(key, i);
+                    expected.insert(key, i);
+                } else if (op < 16) {
+                    assertEquals(expected.delete(key), bpTree.delete(key));
+                } else if (op < 19) {
+                    assertEquals(expected.search(key), bpTree.search(key));
+                } else {
+                    assertEquals(expected.count(key), bpTree.count(key));
+                }
+                if (i == 2500) {
+                    // 关闭再开启缓冲会先将全部消息下推到叶子节点。
+                    bpTree.setBufferCapacity(0);
+                    assertEquals(collect(expected.ascending()), collect(bpTree.ascending()));
+                    bpTree.setBufferCapacity(m);
+                }
+            }
+            assertEquals(collect(expected.ascending()), collect(bpTree.ascending()));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeBufferCapacity() {
+        new BPlusTree<Integer, Integer>(4).setBufferCapacity(-1);
+    }
+
+    @Test
+    public void testLazyDeletion() {
+        Random random = new Random(23);
+        for (int m = 3; m <= 6; m++) {
+            BPlusTree<Integer, Integer> bpTree = new BPlusTree<>(m, true);
+            bpTree.setAggregator(Aggregators.longSum(Integer::longValue));
+            bpTree.setLazyDeletion(true);
+            BPlusTree<Integer, Integer> expected = new BPlusTree<>(m);
+            for (int i = 0; i < 5000; i++) {
+                int key = random.nextInt(200);
+                int op = random.nextInt(20);
+                if (op < 9) {
+                    bpTree.insert(key, i);
+                    expected.insert(key, i);
+                } else if (op < 16) {
+                    assertEquals(expected.delete(key), bpTree.delete(key));
+                } else if (op < 18) {
+                    assertEquals(expected.search(key), bpTree.search(key));
+                    assertEquals(expected.count(key), bpTree.count(key));
+                } else if (op < 19) {
+                    assertEquals(collect(expected.range(key, true, key + 20, false)), collect(bpTree.range(key, true, key + 20, false)));
+                    assertEquals(collect(expected.descendingRange(key, false, key + 20, true)), collect(bpTree.descendingRange(key, false, key + 20, true)));
+                    assertEquals(expected.stream(key, true, key + 20, true).mapToLong(Map.Entry::getValue).sum(),
+                            (long) bpTree.<Long>aggregate(key, true, key + 20, true));
+                } else {
+                    bpTree.compact();
+                    assertEquals(count(expected.ascending()), bpTree.count(null, true, null, true));
+                }
+            }
+            assertEquals(collect(expected.ascending()), collect(bpTree.ascending()));
+            // 关闭延迟删除会先压缩全部墓碑。
+            bpTree.setLazyDeletion(false);
+            assertEquals(collect(expected.ascending()), collect(bpTree.ascending()));
+            assertEquals(collect(expected.ascending()), collect(bpTree.snapshot().ascending()));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testLazyDeletionWithWriteBuffer() {
+        BPlusTree<Integer, Integer> bpTree = new BPlusTree<>(4);
+        bpTree.setBufferCapacity(8);
+        bpTree.setLazyDeletion(true);
+    }
+
+    @Test
+    public void testLazyDeletionReads() {
+        Random random = new Random(231);
+        for (int m = 3; m <= 6; m++) {
+            BPlusTree<Integer, Integer> bpTree = new BPlusTree<>(m, true);
+            bpTree.setLazyDeletion(true);
+            BPlusTree<Integer, Integer> expected = new BPlusTree<>(m, true);
+            for (int i = 0; i < 3000; i++) {
+                int key = random.nextInt(50);
+                int op = random.nextInt(20);
+                if (op < 9) {
+                    bpTree.insert(key, i);
+                    expected.insert(key, i);
+                } else if (op < 16) {
+                    assertEquals(expected.delete(key), bpTree.delete(key));
+                } else if (op < 17) {
+                    assertEquals(expected.deleteAll(key), bpTree.deleteAll(key));
+                } else if (op < 18) {
+                    List<Integer> keys = Arrays.asList(key, random.nextInt(50));
+                    assertEquals(expected.deleteAll(keys), bpTree.deleteAll(keys));
+                } else {
+                    // 顺序统计与快照跳过墓碑，既不压缩也不改变树的结构。
+                    String before = bpTree.toString();
+                    int tombstones = bpTree.tombstones;
+                    int size = expected.count(null, true, null, true);
+                    assertEquals(size, bpTree.count(null, true, null, true));
+                    assertEquals(expected.rank(key), bpTree.rank(key));
+                    assertEquals(expected.count(key, false, key + 10, true), bpTree.count(key, false, key + 10, true));
+                    if (size > 0) {
+                        int k = random.nextInt(size);
+                        assertEquals(expected.select(k), bpTree.select(k));
+                    }
+                    BPlusTree<Integer, Integer>.Snapshot snapshot = bpTree.snapshot();
+                    assertEquals(expected.search(key), snapshot.search(key));
+                    assertEquals(collect(expected.ascending()), collect(snapshot.ascending()));
+                    snapshot.close();
+                    assertEquals(before, bpTree.toString());
+                    assertEquals(tombstones, bpTree.tombstones);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCompactDuplicates() {
+        // 墓碑跨越同一段重复关键码的多个叶子节点，压缩清空中间的叶子节点后后续叶子节点的索引仍需为空。
+        BPlusTree<Integer, Integer> bpTree = new BPlusTree<>(3);
+        bpTree.setLazyDeletion(true);
+        for (int i = 1; i <= 6; i++) {
+            bpTree.insert(0, i);
+        }
+        for (int i = 0; i < 4; i++) {
+            bpTree.delete(0);
+        }
+        bpTree.insert(0, 7);
+        bpTree.compact();
+        bpTree.insert(0, 8);
+        assertEquals(Integer.valueOf(8), bpTree.search(0));
+        assertEquals("[0=8, 0=7, 0=2, 0=1]", collect(bpTree.ascending()));
+
+        Random random = new Random(230);
+        for (int m = 3; m <= 6; m++) {
+            bpTree = new BPlusTree<>(m);
+            bpTree.setLazyDeletion(true);
+            BPlusTree<Integer, Integer> expected = new BPlusTree<>(m);
+            for (int i = 0; i < 5000; i++) {
+                int key = random.nextInt(4);
+                int op = random.nextInt(20);
+                if (op < 10) {
+                    bpTree.insert(key, i);
+                    expected.insert(key, i);
+                } else if (op < 18) {
+                    assertEquals(expected.delete(key), bpTree.delete(key));
+                } else {
+                    bpTree.compact();
+                    assertEquals(expected.search(key), bpTree.search(key));
+                }
+            }
+            bpTree.setLazyDeletion(false);
+            assertEquals(collect(expected.ascending()), collect(bpTree.ascending()));
+        }
+    }
+
+    @Test
+    public void testAppend() {
+        Random random = new Random(24);
+        for (int m = 3; m <= 6; m++) {
+            // 追加与M8逐层下降插入得到的结构相同。
+            BPlusTree<Integer, Integer> bpTree = new BPlusTree<>(m);
+            BPlusTree<Integer, Integer> expected = new BPlusTree<>(m);
+            for (int i = 0; i < 1000; i++) {
+                int key = i / 3 + (random.nextInt(10) == 0 ? -random.nextInt(20) : 0);
+                bpTree.insert(key, i);
+                expected.insertAll(Collections.singletonList(new AbstractMap.SimpleImmutableEntry<>(key, i)));
+                assertEquals(expected.toString(), bpTree.toString());
+            }
+
+            // 偏右分裂后除最右侧叶子节点外都是满载的。
+            bpTree = new BPlusTree<>(m, true);
+            bpTree.setAggregator(Aggregators.longSum(Integer::longValue));
+            bpTree.setRightBiasedSplit(true);
+            int n = 1000;
+            for (int i = 0; i < n; i++) {
+                bpTree.insert(i, i);
+            }
+            int leaves = 0;
+            for (BPlusTree<Integer, Integer>.LeafNode leaf = bpTree.firstLeaf(bpTree.root); leaf != null; leaf = leaf.next) {
+                leaves++;
+            }
+            assertEquals((n + m - 2) / (m - 1), leaves);
+            assertEquals(n, bpTree.count(null, true, null, true));
+            assertEquals((long) n * (n - 1) / 2, (long) bpTree.<Long>aggregate(null, true, null, true));
+
+            // 最右侧路径上不满的节点在删除时同样可以正确处理。
+            for (int i = n - 1; i >= 0; i -= 2) {
+                assertEquals(Integer.valueOf(i), bpTree.delete(i));
+            }
+            for (int i = 0; i < n; i++) {
+                assertEquals(i % 2 == 0 ? Integer.valueOf(i) : null, bpTree.search(i));
+            }
+            assertEquals(n / 2, bpTree.count(null, true, null, true));
+        }
+    }
+
+    @Test
+    public void testWriteToAndReadFrom() throws IOException {
+        Random random = new Random(25);
+        BPlusTree<Integer, Integer> first = new BPlusTree<>(4, true);
+        first.setLazyDeletion(true);
+        for (int i = 0; i < 1000; i++) {
+            first.insert(random.nextInt(300), i);
+        }
+        for (int i = 0; i < 100; i++) {
+            first.delete(random.nextInt(300));
+        }
+        BPlusTree<Integer, Integer> second = new BPlusTree<>(3);
+        for (int i = 0; i < 10; i++) {
+            second.insert(i, -i);
+        }
+
+        // 流式恢复，连续写出的两棵树依次读回时互不越界。
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        first.writeTo(out, Codecs.INT, Codecs.INT);
+        second.writeTo(out, Codecs.INT, Codecs.INT);
+        InputStream in = new ByteArrayInputStream(out.toByteArray());
+        BPlusTree<Integer, Integer> restored = BPlusTree.readFrom(in, Codecs.INT, Codecs.INT, 1.0);
+        assertEquals(collect(first.ascending()), collect(restored.ascending()));
+        assertEquals(first.count(null, true, null, true), restored.count(null, true, null, true));
+        assertEquals(collect(second.ascending()), collect(BPlusTree.readFrom(in, Codecs.INT, Codecs.INT, 1.0).ascending()));
+        assertEquals(-1, in.read());
+
+        // 文件映射恢复，读完后通道位置停在数据末尾。
+        java.nio.file.Path file = folder.newFile().toPath();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            first.writeTo(channel, Codecs.INT, Codecs.INT);
+            second.writeTo(channel, Codecs.INT, Codecs.INT);
+            channel.position(0);
+            restored = BPlusTree.readFrom(channel, Codecs.INT, Codecs.INT, 0.5);
+            assertEquals(collect(first.ascending()), collect(restored.ascending()));
+            assertEquals(collect(second.ascending()), collect(BPlusTree.readFrom(channel, Codecs.INT, Codecs.INT, 0.5).ascending()));
+            assertEquals(channel.size(), channel.position());
+        }
+
+        // 恢复后的树可以继续正常读写。
+        restored.insert(150, 1);
+        assertEquals(Integer.valueOf(1), restored.search(150));
+
+        try {
+            BPlusTree.readFrom(new ByteArrayInputStream(out.toByteArray()), Codecs.LONG, Codecs.INT, 1.0);
+            fail();
+        } catch (IOException ignore) {
+        }
+        try {
+            BPlusTree.readFrom(new ByteArrayInputStream(new byte[64]), Codecs.INT, Codecs.INT, 1.0);
+            fail();
+        } catch (IOException ignore) {
+        }
+    }
+
+    private boolean contains(int key,Integer from, boolean fromInclusive, Integer to, boolean toInclusive) {
+        int c1 = from == null ? 1 : Integer.compare(key, from);
+        int c2 = to == null ? -1 : Integer.compare(key, to);
+        return (c1 > 0 || c1 == 0 && fromInclusive) && (c2 < 0 || c2 == 0 && toInclusive);
+    }
+
+    private void split(Spliterator<Map.Entry<Integer, Integer>> spliterator, int depth, List<Spliterator<Map.Entry<Integer, Integer>>> parts) {
+        Spliterator<Map.Entry<Integer, Integer>> prefix = depth > 0 ? spliterator.trySplit() : null;
+        if (prefix == null) {
+            parts.add(spliterator);
+            return;
+        }
+        split(prefix, depth-1, parts);
+        split(spliterator, depth-1, parts);
+    }
+
+    private String collect(Iterator<Map.Entry<Integer, Integer>> iter) {
+        List<String> list = new ArrayList<>();
+        while (iter.hasNext()) {
+            Map.Entry<Integer, Integer> entry = iter.next();
+            list.add(entry.getKey() + "=" + entry.getValue());
+        }
+        return list.toString();
+    }
+
+    private int count(Iterator<?> iter) {
+        int count = 0;
+        while (iter.hasNext()) {
+            iter.next();
+            count++;
+        }
+        return count;
+    }
+
 }
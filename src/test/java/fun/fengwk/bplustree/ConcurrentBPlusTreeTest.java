@@ -0,0 +1,225 @@
+package fun.fengwk.bplustree;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author fengwk
+ */
+public class ConcurrentBPlusTreeTest {
+
+    @Test
+    public void test() {
+        ConcurrentBPlusTree<Integer, Integer> bpTree = new ConcurrentBPlusTree<>(4);
+        BPlusTree<Integer, Integer> expected = new BPlusTree<>(4);
+        Random random = new Random(5);
+        // 单线程下快速路径与排他路径的结果与BPlusTree完全一致。
+        for (int i = 0; i < 1000; i++) {
+            int key = random.nextInt(50);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.delete(key), bpTree.delete(key));
+            } else {
+                expected.insert(key, i);
+                bpTree.insert(key, i);
+            }
+            assertEquals(expected.toString(), bpTree.toString());
+            assertEquals(expected.search(key), bpTree.search(key));
+            assertEquals(expected.count(key), bpTree.count(key));
+            int from = random.nextInt(50), to = from + random.nextInt(20);
+            assertEquals(list(expected.range(from, i % 2 == 0, to, i % 3 == 0)), list(bpTree.range(from, i % 2 == 0, to, i % 3 == 0)));
+            assertEquals(list(expected.searchAll(key)), list(bpTree.searchAll(key)));
+        }
+        assertEquals(list(expected.ascending()), list(bpTree.ascending()));
+    }
+
+    @Test
+    public void testConcurrentScan() throws Exception {
+        int n = 3000;
+        ConcurrentBPlusTree<Integer, Integer> bpTree = new ConcurrentBPlusTree<>(4);
+        // 偶数关键码在扫描期间保持不变，奇数关键码被反复插入与删除。
+        for (int key = 0; key < n; key += 2) {
+            bpTree.insert(key, key);
+        }
+        AtomicBoolean stop = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            List<Future<?>> writers = new ArrayList<>();
+            for (int t = 0; t < 2; t++) {
+                int seed = t;
+                writers.add(executor.submit(() -> {
+                    Random random = new Random(seed);
+                    while (!stop.get()) {
+                        int key = random.nextInt(n / 2) * 2 + 1;
+                        if (random.nextBoolean()) {
+                            bpTree.insert(key, key);
+                        } else {
+                            bpTree.delete(key);
+                        }
+                    }
+                }));
+            }
+            for (int round = 0; round < 50; round++) {
+                int expectedEven = 0, last = -1;
+                for (Iterator<Map.Entry<Integer, Integer>> it = bpTree.ascending(); it.hasNext(); ) {
+                    Map.Entry<Integer, Integer> entry = it.next();
+                    assertTrue(entry.getKey() >= last);
+                    assertEquals(entry.getKey(), entry.getValue());
+                    if (entry.getKey() % 2 == 0) {
+                        // 未被修改的元素恰好返回一次。
+                        assertEquals(expectedEven, (int) entry.getKey());
+                        expectedEven += 2;
+                    }
+                    last = entry.getKey();
+                }
+                assertEquals(n, expectedEven);
+                assertEquals(Integer.valueOf(n - 2), bpTree.search(n - 2));
+            }
+            stop.set(true);
+            for (Future<?> writer : writers) {
+                writer.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testSnapshotScan() throws Exception {
+        int n = 3000;
+        ConcurrentBPlusTree<Integer, Integer> bpTree = new ConcurrentBPlusTree<>(4);
+        for (int key = 0; key < n; key += 2) {
+            bpTree.insert(key, key);
+        }
+        AtomicBoolean stop = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<?>> writers = new ArrayList<>();
+            for (int t = 0; t < 2; t++) {
+                int seed = t;
+                writers.add(executor.submit(() -> {
+                    Random random = new Random(seed);
+                    while (!stop.get()) {
+                        int key = random.nextInt(n);
+                        if (random.nextBoolean()) {
+                            bpTree.insert(key, key);
+                        } else {
+                            bpTree.delete(key);
+                        }
+                    }
+                }));
+            }
+            // 写线程持续修改期间，同一快照的多次遍历结果完全相同。
+            for (int round = 0; round < 20; round++) {
+                try (BPlusTree<Integer, Integer>.Snapshot snapshot = bpTree.snapshot()) {
+                    List<Object> first = list(snapshot.ascending());
+                    for (int i = 1; i < first.size(); i++) {
+                        @SuppressWarnings("unchecked")
+                        int prev = ((Map.Entry<Integer, Integer>) first.get(i-1)).getKey();
+                        @SuppressWarnings("unchecked")
+                        int cur = ((Map.Entry<Integer, Integer>) first.get(i)).getKey();
+                        assertTrue(prev <= cur);
+                    }
+                    Thread.yield();
+                    assertEquals(first, list(snapshot.ascending()));
+                    assertEquals(first, list(snapshot.range(null, true, null, true)));
+                }
+            }
+            stop.set(true);
+            for (Future<?> writer : writers) {
+                writer.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        int threads = 4, n = 2000;
+        ConcurrentBPlusTree<Integer, Integer> bpTree = new ConcurrentBPlusTree<>(5);
+        ExecutorService executor = Executors.newFixedThreadPool(threads * 2);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int offset = t;
+                // 每个线程插入各自的关键码，再删除其中的一半。
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < n; i++) {
+                        bpTree.insert(i * threads + offset, i);
+                    }
+                    for (int i = 0; i < n; i += 2) {
+                        assertEquals(Integer.valueOf(i), bpTree.delete(i * threads + offset));
+                    }
+                }));
+                // 读线程与写线程并行搜索。
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < n; i++) {
+                        Integer value = bpTree.search(i * threads + offset);
+                        if (value != null) {
+                            assertEquals(Integer.valueOf(i), value);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        for (int key = 0; key < threads * n; key++) {
+            int i = key / threads;
+            assertEquals(i % 2 == 0 ? null : Integer.valueOf(i), bpTree.search(key));
+        }
+        assertEquals(threads * n / 2, count(bpTree));
+    }
+
+    @Test
+    public void testDisabledSettings() {
+        // 与BPlusTree统一配置时，表示关闭的设置是合法的空操作。
+        ConcurrentBPlusTree<Integer, Integer> bpTree = new ConcurrentBPlusTree<>(4);
+        bpTree.insert(1, 1);
+        bpTree.setBufferCapacity(0);
+        bpTree.setLazyDeletion(false);
+        assertEquals(Integer.valueOf(1), bpTree.delete(1));
+        assertEquals(0, count(bpTree));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testBufferCapacity() {
+        new ConcurrentBPlusTree<Integer, Integer>(4).setBufferCapacity(1);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testLazyDeletion() {
+        new ConcurrentBPlusTree<Integer, Integer>(4).setLazyDeletion(true);
+    }
+
+    private int count(BPlusTree<Integer, Integer> bpTree) {
+        int count = 0;
+        for (Iterator<?> it = bpTree.ascending(); it.hasNext(); it.next()) {
+            count++;
+        }
+        return count;
+    }
+
+    private List<Object> list(Iterator<?> iterator) {
+        List<Object> list = new ArrayList<>();
+        iterator.forEachRemaining(list::add);
+        return list;
+    }
+
+}
@@ -0,0 +1,113 @@
+package fun.fengwk.bplustree;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author fengwk
+ */
+public class DurableBPlusTreeTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRecover() throws IOException {
+        Path dir = folder.newFolder().toPath();
+        BPlusTree<Integer, Long> expected = new BPlusTree<>(4);
+        DurableBPlusTree<Integer, Long> bpTree = new DurableBPlusTree<>(dir, 4, Codecs.INT, Codecs.LONG, 1, 300);
+        Random random = new Random(3);
+        for (int i = 0; i < 1000; i++) {
+            int key = random.nextInt(100);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.delete(key), bpTree.delete(key));
+            } else {
+                expected.insert(key, (long) i);
+                bpTree.insert(key, (long) i);
+            }
+        }
+        // 不关闭直接重新打开模拟崩溃，每次修改都已落盘，因此加载检查点并重放日志后与崩溃前一致。
+        DurableBPlusTree<Integer, Long> recovered = new DurableBPlusTree<>(dir, 4, Codecs.INT, Codecs.LONG, 1, 300);
+        assertEquals(collect(expected.ascending()), collect(recovered.tree.ascending()));
+        recovered.close();
+    }
+
+    @Test
+    public void testTornTail() throws IOException {
+        Path dir = folder.newFolder().toPath();
+        DurableBPlusTree<Integer, Long> bpTree = new DurableBPlusTree<>(dir, 3, Codecs.INT, Codecs.LONG, 8, 0);
+        for (int i = 0; i < 20; i++) {
+            bpTree.insert(i, (long) i);
+        }
+        bpTree.checkpoint();
+        bpTree.insert(100, 100L);
+        bpTree.delete(0);
+        bpTree.close();
+
+        // 模拟写了一半的记录。
+        Files.write(dir.resolve(DurableBPlusTree.WAL), new byte[]{DurableBPlusTree.INSERT, 0, 0}, StandardOpenOption.APPEND);
+        bpTree = new DurableBPlusTree<>(dir, 3, Codecs.INT, Codecs.LONG, 8, 0);
+        assertEquals(Long.valueOf(100), bpTree.search(100));
+        assertEquals(null, bpTree.search(0));
+        assertEquals(Long.valueOf(19), bpTree.search(19));
+        // 截断后可以继续追加。
+        bpTree.insert(200, 200L);
+        bpTree.close();
+        bpTree = new DurableBPlusTree<>(dir, 3, Codecs.INT, Codecs.LONG, 8, 0);
+        assertEquals(Long.valueOf(200), bpTree.search(200));
+        assertEquals(Long.valueOf(100), bpTree.search(100));
+        bpTree.close();
+    }
+
+    @Test
+    public void testCheckpointGeneration() throws IOException {
+        Path dir = folder.newFolder().toPath();
+        DurableBPlusTree<Integer, Long> bpTree = new DurableBPlusTree<>(dir, 3, Codecs.INT, Codecs.LONG, 1, 0);
+        for (int round = 1; round <= 3; round++) {
+            for (int i = 0; i < 10; i++) {
+                bpTree.insert(i, (long) i);
+            }
+            bpTree.delete(0);
+            bpTree.delete(-1);
+            bpTree.checkpoint();
+
+            // 检查点包含此前全部日志，新日志的代数恰好比检查点大1。
+            ByteBuffer snapshot = ByteBuffer.wrap(Files.readAllBytes(dir.resolve(DurableBPlusTree.SNAPSHOT)));
+            ByteBuffer wal = ByteBuffer.wrap(Files.readAllBytes(dir.resolve(DurableBPlusTree.WAL)));
+            assertEquals(DurableBPlusTree.MAGIC, snapshot.getInt(0));
+            assertEquals(round, snapshot.getLong(4));
+            assertEquals(round * 9, snapshot.getLong(12));
+            assertEquals(DurableBPlusTree.WAL_HEADER, wal.capacity());
+            assertEquals(round + 1, wal.getLong(0));
+            assertEquals(round + 1, bpTree.generation);
+        }
+        bpTree.close();
+
+        // 重新打开后沿用日志的代数，元素数量与检查点一致。
+        bpTree = new DurableBPlusTree<>(dir, 3, Codecs.INT, Codecs.LONG, 1, 0);
+        assertEquals(4, bpTree.generation);
+        assertEquals(27, bpTree.size);
+        bpTree.close();
+    }
+
+    private String collect(Iterator<Map.Entry<Integer, Long>> iterator) {
+        List<Map.Entry<Integer, Long>> entries = new ArrayList<>();
+        iterator.forEachRemaining(entries::add);
+        return entries.toString();
+    }
+
+}
@@ -0,0 +1,77 @@
+package fun.fengwk.bplustree;
+
+import org.junit.Test;
+
+import java.util.Comparator;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author fengwk
+ */
+public class KeyEncodersTest {
+
+    @Test
+    public void testOrder() {
+        Random random = new Random(18);
+        long[] specials = { Long.MIN_VALUE, -1, 0, 1, Long.MAX_VALUE };
+        double[] doubles = { Double.NEGATIVE_INFINITY, -1.5, -0.0, 0.0, Double.MIN_VALUE, 2.5, Double.POSITIVE_INFINITY, Double.NaN };
+        String[] strings = { "", "a", "a\0", "a\0b", "ab", "b", "é", "中" };
+        for (int i = 0; i < 10000; i++) {
+            long a = i < 25 ? specials[i / 5] : random.nextLong();
+            long b = i < 25 ? specials[i % 5] : random.nextLong();
+            assertOrder(Long.compare(a, b), KeyEncoders.LONG.encode(a), KeyEncoders.LONG.encode(b));
+            assertOrder(Integer.compare((int) a, (int) b), KeyEncoders.INT.encode((int) a), KeyEncoders.INT.encode((int) b));
+            assertOrder(Long.compare(b, a), KeyEncoders.descending(KeyEncoders.LONG).encode(a), KeyEncoders.descending(KeyEncoders.LONG).encode(b));
+
+            double x = i < 64 ? doubles[i / 8] : random.nextGaussian();
+            double y = i < 64 ? doubles[i % 8] : random.nextGaussian();
+            assertOrder(Double.compare(x, y), KeyEncoders.DOUBLE.encode(x), KeyEncoders.DOUBLE.encode(y));
+
+            String s = i < 64 ? strings[i / 8] : Integer.toString(random.nextInt(1000), 7);
+            String t = i < 64 ? strings[i % 8] : Integer.toString(random.nextInt(1000), 7);
+            assertOrder(s.compareTo(t), KeyEncoders.STRING.encode(s), KeyEncoders.STRING.encode(t));
+            assertOrder(t.compareTo(s), KeyEncoders.descending(KeyEncoders.STRING).encode(s), KeyEncoders.descending(KeyEncoders.STRING).encode(t));
+        }
+    }
+
+    @Test
+    public void testTuple() {
+        KeyEncoder<Object[]> encoder = KeyEncoders.tuple(KeyEncoders.STRING, KeyEncoders.descending(KeyEncoders.INT));
+        Comparator<Object[]> comparator = Comparator.<Object[], String>comparing(t -> (String) t[0])
+                .thenComparing(t -> (Integer) t[1], Comparator.reverseOrder());
+        Random random = new Random(18);
+        for (int i = 0; i < 10000; i++) {
+            Object[] a = { "k" + random.nextInt(5), random.nextInt(5) - 2 };
+            Object[] b = { "k" + random.nextInt(5) + (random.nextBoolean() ? "" : "x"), random.nextInt(5) - 2 };
+            assertOrder(comparator.compare(a, b), encoder.encode(a), encoder.encode(b));
+        }
+    }
+
+    @Test
+    public void testTree() {
+        KeyEncoder<Object[]> encoder = KeyEncoders.tuple(KeyEncoders.STRING, KeyEncoders.LONG);
+        BPlusTree<BinaryKey, Integer> tree = new BPlusTree<>(4);
+        for (int i = 0; i < 100; i++) {
+            tree.insert(encoder.encode(new Object[] { "user" + i % 10, (long) i }), i);
+        }
+        assertEquals(Integer.valueOf(37), tree.search(encoder.encode(new Object[] { "user7", 37L })));
+        assertEquals(null, tree.search(encoder.encode(new Object[] { "user7", 38L })));
+
+        // 前缀范围：user3的全部记录。
+        BinaryKey.Builder from = new BinaryKey.Builder();
+        KeyEncoders.STRING.encode("user3", from);
+        BinaryKey.Builder to = new BinaryKey.Builder();
+        KeyEncoders.STRING.encode("user3", to);
+        to.put(0xff);
+        StringBuilder values = new StringBuilder();
+        tree.range(from.build(), true, to.build(), false).forEachRemaining(e -> values.append(e.getValue()).append(' '));
+        assertEquals("3 13 23 33 43 53 63 73 83 93 ", values.toString());
+    }
+
+    private void assertOrder(int expected, BinaryKey a, BinaryKey b) {
+        assertEquals(Integer.signum(expected), Integer.signum(a.compareTo(b)));
+    }
+
+}
@@ -0,0 +1,126 @@
+package fun.fengwk.bplustree;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author fengwk
+ */
+public class PagedBPlusTreeTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void test() {
+        DirectPageStore store = new DirectPageStore(PagedBPlusTree.pageSize(3, Codecs.LONG, Codecs.LONG), 4);
+        PagedBPlusTree<Long, Long> bpTree = new PagedBPlusTree<>(3, Codecs.LONG, Codecs.LONG, store);
+        BPlusTree<Long, Long> expected = new BPlusTree<>(3);
+
+        long[][] entries = {{3, 31}, {3, 32}, {3, 33}, {3, 34}, {3, 35}, {3, 36}, {3, 37}, {3, 38}, {1, 11}, {-1, 11}, {5, 51}, {5, 52}, {4, 41}};
+        for (long[] entry : entries) {
+            bpTree.insert(entry[0], entry[1]);
+            expected.insert(entry[0], entry[1]);
+            assertEquals(expected.toString(), bpTree.toString());
+        }
+        System.out.println(bpTree);
+
+        assertEquals(Long.valueOf(38), bpTree.search(3L));
+        assertEquals(Long.valueOf(11), bpTree.search(-1L));
+        assertEquals(null, bpTree.search(2L));
+
+        for (long[] entry : entries) {
+            assertEquals(expected.delete(entry[0]), bpTree.delete(entry[0]));
+            assertEquals(expected.toString(), bpTree.toString());
+        }
+        assertEquals(null, bpTree.delete(3L));
+        // 删除全部元素后只剩元数据页。
+        assertEquals(1, store.usedPages());
+    }
+
+    @Test
+    public void testRandom() {
+        PagedBPlusTree<Integer, Double> bpTree = new PagedBPlusTree<>(5, Codecs.INT, Codecs.DOUBLE);
+        BPlusTree<Integer, Double> expected = new BPlusTree<>(5);
+        Random random = new Random(7);
+        for (int i = 0; i < 2000; i++) {
+            int key = random.nextInt(100);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.delete(key), bpTree.delete(key));
+            } else {
+                double value = random.nextDouble();
+                expected.insert(key, value);
+                bpTree.insert(key, value);
+            }
+        }
+        assertEquals(expected.toString(), bpTree.toString());
+    }
+
+    @Test
+    public void testFile() throws IOException {
+        Path path = folder.newFile().toPath();
+        int pageSize = PagedBPlusTree.pageSize(4, Codecs.LONG, Codecs.LONG);
+        BPlusTree<Long, Long> expected = new BPlusTree<>(4);
+        Random random = new Random(11);
+        FilePageStore store = new FilePageStore(path, pageSize, 4);
+        PagedBPlusTree<Long, Long> bpTree = new PagedBPlusTree<>(4, Codecs.LONG, Codecs.LONG, store);
+        for (int i = 0; i < 1000; i++) {
+            long key = random.nextInt(200);
+            if (random.nextInt(4) == 0) {
+                assertEquals(expected.delete(key), bpTree.delete(key));
+            } else {
+                expected.insert(key, (long) i);
+                bpTree.insert(key, (long) i);
+            }
+        }
+        assertEquals(expected.toString(), bpTree.toString());
+        // 缓冲池只有4个页面，必然发生淘汰与写回。
+        assertTrue(store.hits() > 0);
+        assertTrue(store.misses() > 0);
+        assertTrue(store.evictions() > 0);
+        assertTrue(store.writeBacks() > 0);
+        store.close();
+
+        // 重新打开后从元数据页恢复。
+        store = new FilePageStore(path, pageSize, 8);
+        bpTree = new PagedBPlusTree<>(4, Codecs.LONG, Codecs.LONG, store);
+        assertEquals(expected.toString(), bpTree.toString());
+        for (long key = 0; key < 200; key++) {
+            assertEquals(expected.delete(key), bpTree.delete(key));
+        }
+        assertEquals(expected.toString(), bpTree.toString());
+        store.close();
+    }
+
+    @Test
+    public void testFileNotClosed() throws IOException {
+        Path path = folder.newFile().toPath();
+        int pageSize = PagedBPlusTree.pageSize(4, Codecs.LONG, Codecs.LONG);
+        FilePageStore store = new FilePageStore(path, pageSize, 4);
+        PagedBPlusTree<Long, Long> bpTree = new PagedBPlusTree<>(4, Codecs.LONG, Codecs.LONG, store);
+        for (long key = 0; key < 100; key++) {
+            bpTree.insert(key, key);
+        }
+        store.flush();
+        bpTree.insert(100L, 100L);
+        // 模拟崩溃：不经过close直接关闭文件。
+        store.channel.close();
+
+        try {
+            new FilePageStore(path, pageSize, 4);
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+}
@@ -0,0 +1,100 @@
+package fun.fengwk.bplustree;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author fengwk
+ */
+public class PostingBPlusTreeTest {
+
+    @Test
+    public void test() {
+        PostingBPlusTree<Integer, Integer> tree = new PostingBPlusTree<>(4);
+        tree.insert(1, 1);
+        for (int i = 0; i < 1000; i++) {
+            tree.insert(3, i);
+        }
+        tree.insert(5, 5);
+        System.out.println(tree);
+
+        assertEquals(Integer.valueOf(999), tree.search(3));
+        assertEquals(1000, tree.count(3));
+        assertEquals(0, tree.count(4));
+        Iterator<Integer> iter = tree.searchAll(3);
+        for (int i = 999; i >= 0; i--) {
+            assertEquals(Integer.valueOf(i), iter.next());
+        }
+        assertEquals(false, iter.hasNext());
+        assertEquals(false, tree.searchAll(4).hasNext());
+
+        // 跨越溢出块删除。
+        for (int i = 999; i >= 200; i--) {
+            assertEquals(Integer.valueOf(i), tree.delete(3));
+        }
+        assertEquals(200, tree.count(3));
+        tree.insert(3, -1);
+        assertEquals(Integer.valueOf(-1), tree.search(3));
+
+        assertEquals(201, tree.deleteAll(3));
+        assertEquals(0, tree.deleteAll(3));
+        assertEquals(null, tree.delete(3));
+        assertEquals("[1=1, 5=5]", collect(tree.ascending()));
+    }
+
+    @Test
+    public void testRange() {
+        PostingBPlusTree<Integer, Integer> tree = new PostingBPlusTree<>(3);
+        for (int i = 0; i < 10; i++) {
+            tree.insert(i, i);
+            tree.insert(i, i+100);
+        }
+
+        assertEquals("[3=103, 3=3, 4=104, 4=4, 5=105, 5=5]", collect(tree.range(3, true, 5, true)));
+        assertEquals("[4=104, 4=4]", collect(tree.range(3, false, 5, false)));
+        assertEquals("[5=5, 5=105, 4=4, 4=104, 3=3, 3=103]", collect(tree.descendingRange(3, true, 5, true)));
+        assertEquals("[9=109, 9=9]", collect(tree.range(9, true, null, true)));
+        assertEquals("[0=0, 0=100]", collect(tree.descendingRange(null, true, 0, true)));
+        assertEquals("[]", collect(tree.range(10, true, null, true)));
+    }
+
+    @Test
+    public void testSameAsBPlusTree() {
+        PostingBPlusTree<Integer, Integer> tree = new PostingBPlusTree<>(4);
+        BPlusTree<Integer, Integer> expected = new BPlusTree<>(4);
+        Random random = new Random(16);
+        for (int i = 0; i < 20000; i++) {
+            int key = random.nextInt(8);
+            int op = random.nextInt(10);
+            if (op < 6) {
+                tree.insert(key, i);
+                expected.insert(key, i);
+            } else if (op < 9) {
+                assertEquals(expected.delete(key), tree.delete(key));
+            } else if (random.nextInt(20) == 0) {
+                assertEquals(expected.deleteAll(key), tree.deleteAll(key));
+            }
+            assertEquals(expected.search(key), tree.search(key));
+            assertEquals(expected.count(key), tree.count(key));
+        }
+        assertEquals(collect(expected.ascending()), collect(tree.ascending()));
+        assertEquals(collect(expected.descending()), collect(tree.descending()));
+    }
+
+    private String collect(Iterator<Map.Entry<Integer, Integer>> iter) {
+        List<String> list = new ArrayList<>();
+        while (iter.hasNext()) {
+            Map.Entry<Integer, Integer> entry = iter.next();
+            list.add(entry.getKey() + "=" + entry.getValue());
+        }
+        return list.toString();
+    }
+
+}
@@ -0,0 +1,241 @@
+package fun.fengwk.bplustree;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author fengwk
+ */
+public class PrimitiveBPlusTreeTest {
+
+    /**
+     * 以long统一三种基本类型B+树的接口，关键码或值不存在时返回NONE。
+     */
+    interface Tree {
+
+        long NONE = Long.MIN_VALUE;
+
+        void insert(long key, long value);
+
+        long search(long key);
+
+        long delete(long key);
+
+        long minKey();
+
+        long maxKey();
+
+    }
+
+    private List<Tree> trees(int m) {
+        LongLongBPlusTree longLong = new LongLongBPlusTree(m, Tree.NONE);
+        IntIntBPlusTree intInt = new IntIntBPlusTree(m, Integer.MIN_VALUE);
+        LongBPlusTree<Long> longObject = new LongBPlusTree<>(m);
+        return Arrays.asList(
+                tree(longLong, longLong::insert, longLong::search, longLong::delete, Long.MIN_VALUE, Long.MAX_VALUE),
+                tree(intInt, (k, v) -> intInt.insert((int) k, (int) v),
+                        k -> orNone(intInt.search((int) k)), k -> orNone(intInt.delete((int) k)), Integer.MIN_VALUE, Integer.MAX_VALUE),
+                tree(longObject, longObject::insert,
+                        k -> orNone(longObject.search(k)), k -> orNone(longObject.delete(k)), Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+
+    private static long orNone(int value) {
+        return value == Integer.MIN_VALUE ? Tree.NONE : value;
+    }
+
+    private static long orNone(Long value) {
+        return value == null ? Tree.NONE : value;
+    }
+
+    interface Insert {
+        void insert(long key, long value);
+    }
+
+    interface Lookup {
+        long apply(long key);
+    }
+
+    private Tree tree(Object target, Insert insert, Lookup search, Lookup delete, long minKey, long maxKey) {
+        return new Tree() {
+
+            @Override
+            public void insert(long key, long value) {
+                insert.insert(key, value);
+            }
+
+            @Override
+            public long search(long key) {
+                return search.apply(key);
+            }
+
+            @Override
+            public long delete(long key) {
+                return delete.apply(key);
+            }
+
+            @Override
+            public long minKey() {
+                return minKey;
+            }
+
+            @Override
+            public long maxKey() {
+                return maxKey;
+            }
+
+            @Override
+            public String toString() {
+                return target.toString();
+            }
+
+        };
+    }
+
+    @Test
+    public void testShapeMatchesBPlusTree() {
+        long[][] entries = {{3, 31}, {3, 32}, {3, 33}, {3, 34}, {3, 35}, {3, 36}, {3, 37}, {3, 38}, {1, 11}, {-1, 11}, {5, 51}, {5, 52}, {4, 41}};
+        for (int m = 3; m <= 6; m++) {
+            for (Tree bpTree : trees(m)) {
+                // 每一步之后的树形都与BPlusTree一致。
+                BPlusTree<Long, Long> expected = new BPlusTree<>(m);
+                for (long[] entry : entries) {
+                    bpTree.insert(entry[0], entry[1]);
+                    expected.insert(entry[0], entry[1]);
+                    assertEquals(expected.toString(), bpTree.toString());
+                }
+                for (long i = 0; i < 40; i++) {
+                    bpTree.insert(i % 7, i);
+                    expected.insert(i % 7, i);
+                    assertEquals(expected.toString(), bpTree.toString());
+                }
+
+                assertEquals(39, bpTree.search(4));
+                assertEquals(35, bpTree.search(0));
+                assertEquals(Tree.NONE, bpTree.search(7));
+
+                for (long[] entry : entries) {
+                    assertEquals(orNone(expected.delete(entry[0])), bpTree.delete(entry[0]));
+                    assertEquals(expected.toString(), bpTree.toString());
+                }
+                for (long i = 0; i < 40; i++) {
+                    assertEquals(orNone(expected.delete(i % 3)), bpTree.delete(i % 3));
+                    assertEquals(expected.toString(), bpTree.toString());
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLongLongInsertNoValue() {
+        new LongLongBPlusTree(3, -1).insert(1, -1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIntIntInsertNoValue() {
+        new IntIntBPlusTree(3, -1).insert(1, -1);
+    }
+
+    @Test
+    public void testDuplicates() {
+        for (int m = 3; m <= 6; m++) {
+            for (Tree bpTree : trees(m)) {
+                // 重复关键码跨越多个叶子节点，后插入的值排在前面。
+                bpTree.insert(4, 4);
+                for (int i = 0; i < 50; i++) {
+                    bpTree.insert(5, i);
+                }
+                bpTree.insert(6, 6);
+
+                for (int i = 49; i >= 0; i--) {
+                    assertEquals(i, bpTree.search(5));
+                    assertEquals(i, bpTree.delete(5));
+                }
+                assertEquals(Tree.NONE, bpTree.search(5));
+                assertEquals(Tree.NONE, bpTree.delete(5));
+                assertEquals(4, bpTree.search(4));
+                assertEquals(6, bpTree.search(6));
+
+                // 在重复关键码之间交替插入与删除。
+                for (int i = 0; i < 30; i++) {
+                    bpTree.insert(5, i);
+                    bpTree.insert(5, -i);
+                    assertEquals(-i, bpTree.delete(5));
+                }
+                assertEquals(29, bpTree.search(5));
+            }
+        }
+    }
+
+    @Test
+    public void testDeleteToEmpty() {
+        Random random = new Random(6);
+        for (int m = 3; m <= 6; m++) {
+            for (Tree bpTree : trees(m)) {
+                BPlusTree<Long, Long> expected = new BPlusTree<>(m);
+                List<Long> keys = new ArrayList<>();
+                for (int i = 0; i < 300; i++) {
+                    long key = random.nextInt(100);
+                    bpTree.insert(key, i);
+                    expected.insert(key, (long) i);
+                    keys.add(key);
+                }
+
+                // 以随机顺序逐个删除，相同关键码总是先删除最后插入的值。
+                Collections.shuffle(keys, random);
+                for (long key : keys) {
+                    assertEquals((long) expected.delete(key), bpTree.delete(key));
+                }
+                assertEquals("B+Tree\nEmpty", bpTree.toString());
+                assertEquals(Tree.NONE, bpTree.search(50));
+                assertEquals(Tree.NONE, bpTree.delete(50));
+
+                // 清空后仍可继续使用。
+                bpTree.insert(7, 70);
+                bpTree.insert(7, 71);
+                assertEquals(71, bpTree.delete(7));
+                assertEquals(70, bpTree.delete(7));
+                assertEquals("B+Tree\nEmpty", bpTree.toString());
+            }
+        }
+    }
+
+    @Test
+    public void testKeyBoundaries() {
+        for (int m = 3; m <= 6; m++) {
+            for (Tree bpTree : trees(m)) {
+                long min = bpTree.minKey(), max = bpTree.maxKey();
+                for (int i = 0; i < 10; i++) {
+                    bpTree.insert(max, i);
+                    bpTree.insert(min, 100 + i);
+                    bpTree.insert(0, 200 + i);
+                }
+
+                // 不存在的关键码：小于或大于全部关键码，以及落在两个关键码之间。
+                assertEquals(Tree.NONE, bpTree.search(min + 1));
+                assertEquals(Tree.NONE, bpTree.search(max - 1));
+                assertEquals(Tree.NONE, bpTree.search(-1));
+                assertEquals(Tree.NONE, bpTree.search(1));
+                assertEquals(Tree.NONE, bpTree.delete(min + 1));
+                assertEquals(Tree.NONE, bpTree.delete(max - 1));
+
+                assertEquals(9, bpTree.search(max));
+                assertEquals(109, bpTree.search(min));
+                for (int i = 9; i >= 0; i--) {
+                    assertEquals(i, bpTree.delete(max));
+                    assertEquals(100 + i, bpTree.delete(min));
+                }
+                assertEquals(Tree.NONE, bpTree.search(max));
+                assertEquals(Tree.NONE, bpTree.search(min));
+                assertEquals(209, bpTree.search(0));
+            }
+        }
+    }
+
+}
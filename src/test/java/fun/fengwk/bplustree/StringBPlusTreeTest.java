@@ -0,0 +1,78 @@
+package fun.fengwk.bplustree;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author fengwk
+ */
+public class StringBPlusTreeTest {
+
+    @Test
+    public void testSeparator() {
+        StringBPlusTree<Integer> tree = new StringBPlusTree<>(4);
+        assertEquals("https://example.com/b", tree.separator("https://example.com/a/index.html", "https://example.com/b/index.html"));
+        assertEquals("abc", tree.separator("ab", "abcd"));
+        assertEquals("b", tree.separator("a", "b"));
+    }
+
+    @Test
+    public void testSameAsBPlusTree() {
+        StringBPlusTree<Integer> tree = new StringBPlusTree<>(4);
+        BPlusTree<String, Integer> expected = new BPlusTree<>(4);
+        Random random = new Random(17);
+        for (int i = 0; i < 20000; i++) {
+            String key = "https://example.com/" + random.nextInt(30) + "/" + random.nextInt(30);
+            int op = random.nextInt(10);
+            if (op < 6) {
+                tree.insert(key, i);
+                expected.insert(key, i);
+            } else if (op < 9) {
+                assertEquals(expected.delete(key), tree.delete(key));
+            } else {
+                assertEquals(expected.deleteAll(key), tree.deleteAll(key));
+            }
+            assertEquals(expected.search(key), tree.search(key));
+        }
+        assertEquals(collect(expected.ascending()), collect(tree.ascending()));
+        assertEquals(collect(expected.descending()), collect(tree.descending()));
+        assertEquals(collect(expected.range("https://example.com/1", true, "https://example.com/2", false)),
+                collect(tree.range("https://example.com/1", true, "https://example.com/2", false)));
+
+        // 截断后的分隔关键码总长度小于未截断的索引。
+        assertTrue(separatorLength(tree.root) < separatorLength(expected.root));
+    }
+
+    private <K extends Comparable<K>> int separatorLength(BPlusTree<K, ?>.Node node) {
+        int length = 0;
+        if (node instanceof BPlusTree.InternalNode) {
+            BPlusTree<K, ?>.InternalNode internal = (BPlusTree<K, ?>.InternalNode) node;
+            for (int i = 0; i < internal.size; i++) {
+                K key = internal.keys[i];
+                if (key != null) {
+                    length += key.toString().length();
+                }
+                length += separatorLength(internal.children[i]);
+            }
+        }
+        return length;
+    }
+
+    private String collect(Iterator<Map.Entry<String, Integer>> iter) {
+        List<String> list = new ArrayList<>();
+        while (iter.hasNext()) {
+            Map.Entry<String, Integer> entry = iter.next();
+            list.add(entry.getKey() + "=" + entry.getValue());
+        }
+        return list.toString();
+    }
+
+}
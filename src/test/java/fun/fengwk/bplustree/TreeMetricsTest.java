@@ -0,0 +1,74 @@
+package fun.fengwk.bplustree;
+
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author fengwk
+ */
+public class TreeMetricsTest {
+
+    @Test
+    public void test() throws Exception {
+        BPlusTree<Integer, Integer> bpTree = new BPlusTree<>(3);
+        TreeMetrics metrics = new TreeMetrics();
+        bpTree.setListener(metrics);
+
+        for (int i = 0; i < 100; i++) {
+            bpTree.insert(i, i);
+        }
+        for (int i = 0; i < 200; i++) {
+            bpTree.search(i);
+        }
+        for (int i = 0; i < 100; i++) {
+            bpTree.delete(i);
+        }
+        assertEquals(100, metrics.getInserts());
+        assertEquals(200, metrics.getSearches());
+        assertEquals(100, metrics.getDeletes());
+        assertTrue(metrics.getSplits() > 0);
+        assertTrue(metrics.getMerges() > 0);
+        assertTrue(metrics.getIndexKeyPropagations() > 0);
+        assertTrue(metrics.getMaxIndexKeyPropagationDepth() > 0);
+        assertTrue(metrics.getSearchLatencyP50Nanos() <= metrics.getSearchLatencyP99Nanos());
+        long searches = 0;
+        for (long count : metrics.getSearchLatencyHistogram()) {
+            searches += count;
+        }
+        assertEquals(200, searches);
+
+        // 重复关键码跨越多个叶子节点时，A5沿next移动。
+        for (int i = 0; i < 20; i++) {
+            bpTree.insert(1, i);
+        }
+        // 大于全部关键码的插入直接追加到最右侧叶子节点而不经过A5，因此再插入一个位于其前的关键码。
+        bpTree.insert(3, 0);
+        bpTree.insert(2, 0);
+        bpTree.search(2);
+        assertTrue(metrics.getLeafHops() > 0);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = metrics.register("test");
+        try {
+            assertEquals(122L, server.getAttribute(name, "Inserts"));
+            server.invoke(name, "reset", null, null);
+            assertEquals(0L, server.getAttribute(name, "Inserts"));
+            assertArrayEquals(new long[Long.SIZE], (long[]) server.getAttribute(name, "DeleteLatencyHistogram"));
+        } finally {
+            server.unregisterMBean(name);
+        }
+
+        // 关闭监听后不再统计。
+        bpTree.setListener(null);
+        bpTree.search(1);
+        assertEquals(0, metrics.getSearches());
+    }
+
+}